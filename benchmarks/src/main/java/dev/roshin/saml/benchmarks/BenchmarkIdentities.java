@@ -0,0 +1,31 @@
+package dev.roshin.saml.benchmarks;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+
+/**
+ * Synthetic identities for the benchmarks.
+ */
+final class BenchmarkIdentities {
+
+    private BenchmarkIdentities() {
+    }
+
+    /**
+     * Creates an identity with the well-known fields set and the given number of attributes in total.
+     *
+     * @param attributeCount The number of attributes the assertion should carry
+     * @return A new identity
+     */
+    static IdentityInfo identity(int attributeCount) {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("benchmark-user");
+        identityInfo.setIssuer(IdentityInfo.DEFAULT_ISSUER);
+        identityInfo.setTrustLevel("2");
+        identityInfo.setSessionId("3f2b8c0e-7d4a-4c1e-9b6f-2a5d8e1c7f40");
+        identityInfo.setRequestedApplication("benchmark-app");
+        for (int i = identityInfo.getAttributeCount(); i < attributeCount; i++) {
+            identityInfo.addAttribute("attribute-" + i, "value-" + i);
+        }
+        return identityInfo;
+    }
+}
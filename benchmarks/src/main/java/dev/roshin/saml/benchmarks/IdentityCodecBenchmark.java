@@ -0,0 +1,101 @@
+package dev.roshin.saml.benchmarks;
+
+import dev.roshin.saml.processing.domain.Authorization;
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import dev.roshin.saml.processing.util.IdentityInfoCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link IdentityInfoCodec} with Java serialization of {@link IdentityInfo}.
+ * <p>
+ * Encode and decode throughput are measured by the benchmarks. The encoded sizes do not change between
+ * runs; {@code IdentityInfoCodecTest} checks that the codec's encoding is much smaller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IdentityCodecBenchmark {
+
+    @Param({"4", "16", "64"})
+    public int attributeCount;
+
+    @Param({"0", "16"})
+    public int authorizationCount;
+
+    private IdentityInfo identity;
+    private byte[] codecBytes;
+    private ByteBuffer codecDirectBuffer;
+    private byte[] serializedBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        identity = BenchmarkIdentities.identity(attributeCount);
+        for (int i = 0; i < authorizationCount; i++) {
+            identity.addAuthorization(new Authorization("resource-" + (i / 2), i % 2 == 0 ? "read" : "write"));
+        }
+        codecBytes = IdentityInfoCodec.encode(identity);
+        codecDirectBuffer = ByteBuffer.allocateDirect(codecBytes.length).put(codecBytes).flip();
+        serializedBytes = serialize();
+    }
+
+    /**
+     * Encodes the identity with the binary codec.
+     */
+    @Benchmark
+    public byte[] codecEncode() {
+        return IdentityInfoCodec.encode(identity);
+    }
+
+    /**
+     * Decodes the identity from a heap array with the binary codec.
+     */
+    @Benchmark
+    public IdentityInfo codecDecode() {
+        return IdentityInfoCodec.decode(codecBytes);
+    }
+
+    /**
+     * Decodes the identity from a direct buffer with the binary codec.
+     */
+    @Benchmark
+    public IdentityInfo codecDecodeDirect() {
+        return IdentityInfoCodec.decode(codecDirectBuffer.duplicate());
+    }
+
+    /**
+     * Encodes the identity with Java serialization.
+     */
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        return serialize();
+    }
+
+    /**
+     * Decodes the identity with Java serialization.
+     */
+    @Benchmark
+    public Object javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedBytes))) {
+            return in.readObject();
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(identity);
+        }
+        return bytes.toByteArray();
+    }
+}
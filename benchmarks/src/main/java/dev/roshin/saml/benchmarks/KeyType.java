@@ -0,0 +1,87 @@
+package dev.roshin.saml.benchmarks;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+/**
+ * Signing key types the benchmarks are parameterized with.
+ */
+public enum KeyType {
+    RSA_2048("RSA", 2048, "SHA256withRSA"),
+    RSA_3072("RSA", 3072, "SHA256withRSA"),
+    RSA_4096("RSA", 4096, "SHA256withRSA"),
+    EC_P256("EC", 256, "SHA256withECDSA"),
+    ED25519("Ed25519", 0, "Ed25519");
+
+    static final String PASSWORD = "changeit";
+    static final String ALIAS = "benchmark";
+
+    private final String algorithm;
+    private final int keySize;
+    private final String certificateSignatureAlgorithm;
+
+    KeyType(String algorithm, int keySize, String certificateSignatureAlgorithm) {
+        this.algorithm = algorithm;
+        this.keySize = keySize;
+        this.certificateSignatureAlgorithm = certificateSignatureAlgorithm;
+    }
+
+    /**
+     * Generates a fresh key pair with a self-signed certificate.
+     *
+     * @return A credential holding the private key and certificate
+     * @throws Exception if the key or certificate cannot be created
+     */
+    BasicX509Credential newCredential() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        if (keySize > 0) {
+            generator.initialize(keySize);
+        }
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name subject = new X500Name("CN=SAML Benchmark " + name());
+        Instant now = Instant.now();
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(subject, BigInteger.valueOf(now.toEpochMilli()),
+                        Date.from(now.minus(1, ChronoUnit.DAYS)), Date.from(now.plus(365, ChronoUnit.DAYS)),
+                        subject, keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder(certificateSignatureAlgorithm).build(keyPair.getPrivate())));
+        return new BasicX509Credential(certificate, keyPair.getPrivate());
+    }
+
+    /**
+     * Writes a credential to a new JKS keystore file protected with {@link #PASSWORD}.
+     *
+     * @param credential The credential to store under {@link #ALIAS}
+     * @return The path of the keystore file
+     * @throws Exception if the keystore cannot be written
+     */
+    static Path writeKeystore(BasicX509Credential credential) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(ALIAS, credential.getPrivateKey(), PASSWORD.toCharArray(),
+                new Certificate[]{credential.getEntityCertificate()});
+        Path path = Files.createTempFile("saml-benchmark", ".jks");
+        path.toFile().deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(path)) {
+            keyStore.store(out, PASSWORD.toCharArray());
+        }
+        return path;
+    }
+}
@@ -0,0 +1,45 @@
+package dev.roshin.saml.benchmarks;
+
+import dev.roshin.saml.processing.util.KeystoreUtil;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks loading a signing credential from a JKS keystore with {@link KeystoreUtil#init}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeystoreBenchmark {
+
+    // Held so the level is not lost when the logger is garbage collected
+    private static final Logger keystoreLogger = Logger.getLogger(KeystoreUtil.class.getName());
+
+    @Param({"RSA_2048", "RSA_3072", "EC_P256", "ED25519"})
+    public KeyType keyType;
+
+    private String keystorePath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keystoreLogger.setLevel(Level.WARNING);
+        Path path = KeyType.writeKeystore(keyType.newCredential());
+        keystorePath = path.toString();
+    }
+
+    /**
+     * Opens the keystore, decrypts it and extracts the credential.
+     */
+    @Benchmark
+    public BasicX509Credential keystoreInit() throws Exception {
+        return KeystoreUtil.init(keystorePath, KeyType.PASSWORD, KeyType.ALIAS);
+    }
+}
@@ -0,0 +1,124 @@
+package dev.roshin.saml.benchmarks;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import dev.roshin.saml.processing.util.ParseMode;
+import dev.roshin.saml.processing.util.SamlGenerationContext;
+import dev.roshin.saml.processing.util.SamlGenerator;
+import dev.roshin.saml.processing.util.SamlParser;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages of the SAML pipeline on their own and as a full round trip.
+ * <p>
+ * Every stage is measured both as throughput and as a sampled latency distribution, parameterized by the
+ * number of attributes in the assertion and the signing key type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SamlPipelineBenchmark {
+
+    @Param({"RSA_2048", "RSA_3072", "EC_P256", "ED25519"})
+    public KeyType keyType;
+
+    @Param({"4", "16", "64"})
+    public int attributeCount;
+
+    private SamlGenerator generator;
+    private SamlParser parser;
+    private SamlParser streamingParser;
+    private BasicX509Credential credential;
+    private SamlGenerationContext context;
+    private IdentityInfo identity;
+    private Assertion signedAssertion;
+    private String serializedAssertion;
+    private Assertion unmarshalledAssertion;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        generator = new SamlGenerator();
+        parser = new SamlParser();
+        streamingParser = new SamlParser();
+        streamingParser.setParseMode(ParseMode.STREAMING);
+        credential = keyType.newCredential();
+        context = SamlGenerationContext.create("benchmark", credential);
+        identity = BenchmarkIdentities.identity(attributeCount);
+
+        signedAssertion = generator.generateAssertion(identity, context);
+        serializedAssertion = generator.marshalAssertion(signedAssertion);
+        unmarshalledAssertion = (Assertion) XMLObjectSupport.unmarshallFromInputStream(
+                XMLObjectProviderRegistrySupport.getParserPool(),
+                new ByteArrayInputStream(serializedAssertion.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Builds and signs an assertion.
+     */
+    @Benchmark
+    public Assertion generateAssertion() throws Exception {
+        return generator.generateAssertion(identity, context);
+    }
+
+    /**
+     * Builds and signs an assertion from the provider's precompiled DOM template.
+     */
+    @Benchmark
+    public Element generateAssertionFromTemplate() throws Exception {
+        return generator.generateAssertionElement(identity, context);
+    }
+
+    /**
+     * Serializes an already signed assertion.
+     */
+    @Benchmark
+    public String marshalAssertion() throws Exception {
+        return generator.marshalAssertion(signedAssertion);
+    }
+
+    /**
+     * Parses, unmarshals, validates and extracts an assertion.
+     */
+    @Benchmark
+    public IdentityInfo parseAssertion() throws Exception {
+        return parser.parseAssertion(serializedAssertion, credential);
+    }
+
+    /**
+     * Reads, validates and extracts an assertion in a single StAX pass.
+     */
+    @Benchmark
+    public IdentityInfo parseAssertionStreaming() throws Exception {
+        return streamingParser.parseAssertion(serializedAssertion, credential);
+    }
+
+    /**
+     * Verifies the signature of an already unmarshalled assertion.
+     */
+    @Benchmark
+    public Assertion validateSignature() throws Exception {
+        SignatureValidator.validate(unmarshalledAssertion.getSignature(), credential);
+        return unmarshalledAssertion;
+    }
+
+    /**
+     * Generates, serializes and parses an assertion.
+     */
+    @Benchmark
+    public IdentityInfo roundTrip() throws Exception {
+        Assertion assertion = generator.generateAssertion(identity, context);
+        return parser.parseAssertion(generator.marshalAssertion(assertion), credential);
+    }
+}
@@ -1,2 +1,4 @@
 #keytool -genkeypair -alias samlkey -keyalg RSA -keysize 2048 -sigalg SHA256withRSA -validity 365 -keystore samlkeystore.jks -storepass your_keystore_password
-keytool -genkeypair -alias mykeyalias -keyalg RSA -keysize 2048 -keystore test-keystore.jks -storepass changeit -validity 3650 -dname "CN=Test, OU=Test, O=Test, L=Test, S=Test, C=US"
\ No newline at end of file
+keytool -genkeypair -alias mykeyalias -keyalg RSA -keysize 2048 -keystore test-keystore.jks -storepass changeit -validity 3650 -dname "CN=Test, OU=Test, O=Test, L=Test, S=Test, C=US"
+keytool -genkeypair -alias mykeyalias -keyalg EC -groupname secp256r1 -storetype PKCS12 -keystore test-keystore-ec.p12 -storepass changeit -validity 3650 -dname "CN=Test EC, OU=Test, O=Test, L=Test, S=Test, C=US"
+keytool -genkeypair -alias mykeyalias -keyalg Ed25519 -keystore test-keystore-ed25519.jks -storepass changeit -validity 3650 -dname "CN=Test Ed25519, OU=Test, O=Test, L=Test, S=Test, C=US"
@@ -0,0 +1,169 @@
+package dev.roshin.saml.processing;
+
+import dev.roshin.saml.processing.domain.IAttributeKeys;
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Maps between {@link IdentityInfo} and the JSON identity documents used by the REST API.
+ * <p>
+ * A request looks like:
+ * <pre>
+ * {
+ *   "userId": "jdoe",
+ *   "issuer": "https://idp.example.com",
+ *   "trustLevel": "2",
+ *   "sessionId": "...",
+ *   "requestedApplication": "payroll",
+ *   "subjectIp": "10.0.0.1",
+ *   "attributes": { "email": "jdoe@example.com" }
+ * }
+ * </pre>
+ * Only {@code userId} is required; the issuer defaults to {@link IdentityInfo#DEFAULT_ISSUER}. Parsed
+ * identities are returned in the same shape, with an additional {@code authorizations} array.
+ */
+public final class IdentityInfoJson {
+
+    private static final Set<String> WELL_KNOWN_KEYS = Set.of(IAttributeKeys.USER_ID, IAttributeKeys.ISSUER,
+            IAttributeKeys.TRUST_LEVEL, IAttributeKeys.SESSION_ID, IAttributeKeys.SESSION_TOKEN,
+            IAttributeKeys.REQUESTED_APPLICATION, IAttributeKeys.SUBJECT_IP);
+
+    private IdentityInfoJson() {
+    }
+
+    /**
+     * Parses a JSON identity request.
+     *
+     * @param jsonRequest The JSON request
+     * @return The identity information described by the request
+     * @throws IllegalArgumentException if the request is not valid
+     */
+    public static IdentityInfo fromJson(String jsonRequest) {
+        if (jsonRequest == null || jsonRequest.isBlank()) {
+            throw new IllegalArgumentException("Identity request is empty");
+        }
+        try (JsonReader reader = Json.createReader(new StringReader(jsonRequest))) {
+            return fromJson(reader.readObject());
+        } catch (JsonException e) {
+            throw new IllegalArgumentException("Identity request is not a valid JSON object", e);
+        }
+    }
+
+    /**
+     * Parses a JSON identity request from a stream, such as a request body, without building a String.
+     *
+     * @param jsonRequest The JSON request, in UTF-8
+     * @return The identity information described by the request
+     * @throws IllegalArgumentException if the request is not valid
+     */
+    public static IdentityInfo fromJson(InputStream jsonRequest) {
+        if (jsonRequest == null) {
+            throw new IllegalArgumentException("Identity request is empty");
+        }
+        try (JsonReader reader = Json.createReader(jsonRequest)) {
+            return fromJson(reader.readObject());
+        } catch (JsonException e) {
+            throw new IllegalArgumentException("Identity request is not a valid JSON object", e);
+        }
+    }
+
+    /**
+     * Maps a JSON identity request object.
+     *
+     * @param json The JSON request object
+     * @return The identity information described by the request
+     * @throws IllegalArgumentException if the request is not valid
+     */
+    public static IdentityInfo fromJson(JsonObject json) {
+        String userId = json.getString("userId", null);
+        if (userId == null || userId.isBlank()) {
+            throw new IllegalArgumentException("Identity request has no userId");
+        }
+
+        IdentityInfo identityInfo = new IdentityInfo();
+        JsonObject attributes = json.getJsonObject("attributes");
+        if (attributes != null) {
+            attributes.forEach((name, value) -> identityInfo.addAttribute(name, stringValue(name, value)));
+        }
+        identityInfo.setUserId(userId);
+        identityInfo.setIssuer(json.getString("issuer", IdentityInfo.DEFAULT_ISSUER));
+        setIfPresent(json, "trustLevel", identityInfo::setTrustLevel);
+        setIfPresent(json, "sessionId", identityInfo::setSessionId);
+        setIfPresent(json, "sessionToken", identityInfo::setSessionToken);
+        setIfPresent(json, "requestedApplication", identityInfo::setRequestedApplication);
+        setIfPresent(json, "subjectIp", identityInfo::setSubjectIp);
+        return identityInfo;
+    }
+
+    /**
+     * Maps an identity to JSON. Well-known attributes become top-level fields, all other attributes are
+     * listed under {@code attributes}.
+     *
+     * @param identityInfo The identity to map
+     * @return The JSON representation of the identity
+     */
+    public static JsonObject toJson(IdentityInfo identityInfo) {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        addIfPresent(builder, "userId", identityInfo.getUserId());
+        addIfPresent(builder, "issuer", identityInfo.getIssuer());
+        addIfPresent(builder, "trustLevel", identityInfo.getTrustLevel());
+        addIfPresent(builder, "sessionId", identityInfo.getSessionId());
+        addIfPresent(builder, "sessionToken", identityInfo.getSessionToken());
+        addIfPresent(builder, "requestedApplication", identityInfo.getRequestedApplication());
+        addIfPresent(builder, "subjectIp", identityInfo.getSubjectIp());
+
+        JsonObjectBuilder attributes = Json.createObjectBuilder();
+        identityInfo.forEachAttribute((name, value) -> {
+            if (!WELL_KNOWN_KEYS.contains(name)) {
+                addIfPresent(attributes, name, value);
+            }
+        });
+        builder.add("attributes", attributes);
+
+        JsonArrayBuilder authorizations = Json.createArrayBuilder();
+        identityInfo.getAuthorizations().values().forEach(list -> list.forEach(authorization -> {
+            JsonObjectBuilder entry = Json.createObjectBuilder();
+            addIfPresent(entry, "resource", authorization.getResource());
+            addIfPresent(entry, "namespace", authorization.getNamespace());
+            addIfPresent(entry, "action", authorization.getAction());
+            authorizations.add(entry);
+        }));
+        builder.add("authorizations", authorizations);
+        return builder.build();
+    }
+
+    private static void addIfPresent(JsonObjectBuilder builder, String name, String value) {
+        if (value != null) {
+            builder.add(name, value);
+        }
+    }
+
+    private static void setIfPresent(JsonObject json, String name, Consumer<String> setter) {
+        String value = json.getString(name, null);
+        if (value != null) {
+            setter.accept(value);
+        }
+    }
+
+    private static String stringValue(String name, JsonValue value) {
+        if (value instanceof JsonString) {
+            return ((JsonString) value).getString();
+        }
+        if (value.getValueType() == JsonValue.ValueType.NULL) {
+            throw new IllegalArgumentException("Attribute " + name + " has no value");
+        }
+        return value.toString();
+    }
+}
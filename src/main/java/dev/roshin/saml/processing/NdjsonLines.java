@@ -0,0 +1,82 @@
+package dev.roshin.saml.processing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the lines of an NDJSON request body with a bound on both the body and each line.
+ */
+final class NdjsonLines {
+
+    private final int maxLineBytes;
+    private final List<String> lines = new ArrayList<>();
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private boolean lineTooLong;
+
+    private NdjsonLines(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * Reads all non-blank lines of a stream as UTF-8. A line longer than {@code maxLineBytes} is not kept;
+     * its place in the list holds null, so it can still be answered under its index.
+     *
+     * @param in           The stream to read, which is not closed
+     * @param maxBytes     The largest number of bytes the stream may hold
+     * @param maxLineBytes The largest number of bytes a line may hold, without its line feed
+     * @return The lines, with null for each line that was too long
+     * @throws IllegalArgumentException if the stream holds more than {@code maxBytes} bytes
+     * @throws IOException              if reading fails
+     */
+    static List<String> read(InputStream in, long maxBytes, int maxLineBytes) throws IOException {
+        NdjsonLines reader = new NdjsonLines(maxLineBytes);
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            total += n;
+            if (total > maxBytes) {
+                throw new IllegalArgumentException("Batch request exceeds the maximum size of " + maxBytes + " bytes");
+            }
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == '\n') {
+                    reader.append(buffer, start, i - start);
+                    reader.endLine();
+                    start = i + 1;
+                }
+            }
+            reader.append(buffer, start, n - start);
+        }
+        reader.endLine();
+        return reader.lines;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (lineTooLong) {
+            return;
+        }
+        if (line.size() + length > maxLineBytes) {
+            lineTooLong = true;
+            line.reset();
+            return;
+        }
+        line.write(bytes, offset, length);
+    }
+
+    private void endLine() {
+        if (lineTooLong) {
+            lines.add(null);
+        } else {
+            String text = line.toString(StandardCharsets.UTF_8);
+            if (!text.isBlank()) {
+                lines.add(text);
+            }
+        }
+        line.reset();
+        lineTooLong = false;
+    }
+}
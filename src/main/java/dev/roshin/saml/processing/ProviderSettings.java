@@ -0,0 +1,265 @@
+package dev.roshin.saml.processing;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Per-provider settings read from MicroProfile Config.
+ * <p>
+ * Every provider is configured under the {@code saml.provider.<providerId>.} prefix, for example:
+ * <pre>
+ * saml.provider.portal.keystore.path=/config/resources/security/portal.jks
+ * saml.provider.portal.keystore.password=changeit
+ * saml.provider.portal.key.alias=portal
+ * # Optional: signature and digest algorithm, by URI or short name; chosen by key type when absent
+ * saml.provider.portal.signature.algorithm=ecdsa-sha256
+ * saml.provider.portal.signature.digest=sha256
+ * # Optional: verify parsed assertions with the KeyInfo certificate, trusted through saml.trust.* (pkix),
+ * # instead of the keystore certificate (pinned, the default). With pkix, the certificate's subject DN (RFC 2253)
+ * # or one of its DNS or URI alternative names must fully match the trust.subject regular expression
+ * saml.provider.portal.signature.trust=pkix
+ * saml.provider.portal.signature.trust.subject=CN=idp\\.portal\\.example\\.com,O=Example
+ * # Optional: reuse a session's signed assertion while at least 60 seconds of its validity remain
+ * saml.provider.portal.assertion-reuse.enabled=true
+ * saml.provider.portal.assertion-reuse.min-remaining-seconds=60
+ * # Optional: decrypt EncryptedAssertions with this key; the keystore defaults to the one above
+ * saml.provider.portal.decryption.key.alias=portal-encryption
+ * saml.provider.portal.decryption.keystore.path=/config/resources/security/portal-encryption.jks
+ * saml.provider.portal.decryption.keystore.password=changeit
+ * </pre>
+ */
+public final class ProviderSettings {
+
+    /**
+     * Prefix shared by all provider configuration properties.
+     */
+    public static final String PREFIX = "saml.provider.";
+
+    private final String providerId;
+    private final String keystorePath;
+    private final String keystorePassword;
+    private final String keyAlias;
+    private final String signatureAlgorithm;
+    private final String digestAlgorithm;
+    private final boolean assertionReuseEnabled;
+    private final Duration assertionReuseMinRemaining;
+    private final String decryptionKeystorePath;
+    private final String decryptionKeystorePassword;
+    private final String decryptionKeyAlias;
+    private final boolean pkixTrust;
+    private final Pattern trustedSubject;
+
+    private ProviderSettings(String providerId, String keystorePath, String keystorePassword, String keyAlias,
+                             String signatureAlgorithm, String digestAlgorithm, boolean assertionReuseEnabled,
+                             Duration assertionReuseMinRemaining, String decryptionKeystorePath,
+                             String decryptionKeystorePassword, String decryptionKeyAlias, boolean pkixTrust,
+                             Pattern trustedSubject) {
+        this.providerId = providerId;
+        this.keystorePath = keystorePath;
+        this.keystorePassword = keystorePassword;
+        this.keyAlias = keyAlias;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.digestAlgorithm = digestAlgorithm;
+        this.assertionReuseEnabled = assertionReuseEnabled;
+        this.assertionReuseMinRemaining = assertionReuseMinRemaining;
+        this.decryptionKeystorePath = decryptionKeystorePath;
+        this.decryptionKeystorePassword = decryptionKeystorePassword;
+        this.decryptionKeyAlias = decryptionKeyAlias;
+        this.pkixTrust = pkixTrust;
+        this.trustedSubject = trustedSubject;
+    }
+
+    /**
+     * Loads the settings of a provider from the application configuration.
+     *
+     * @param providerId The provider ID
+     * @return The provider settings
+     * @throws NoSuchElementException if a required property is not configured
+     */
+    public static ProviderSettings load(String providerId) {
+        return load(ConfigProvider.getConfig(), providerId);
+    }
+
+    /**
+     * Loads the settings of a provider from the given configuration.
+     *
+     * @param config     The configuration to read from
+     * @param providerId The provider ID
+     * @return The provider settings
+     * @throws NoSuchElementException if a required property is not configured
+     * @throws IllegalArgumentException if the trusted subject is not a valid regular expression
+     */
+    public static ProviderSettings load(Config config, String providerId) {
+        Objects.requireNonNull(providerId, "providerId");
+        String prefix = PREFIX + providerId + ".";
+        String keystorePath = config.getValue(prefix + "keystore.path", String.class);
+        String keystorePassword = config.getValue(prefix + "keystore.password", String.class);
+        boolean pkixTrust = "pkix".equalsIgnoreCase(config.getOptionalValue(prefix + "signature.trust", String.class)
+                .orElse("pinned").trim());
+        // A pkix-trusted certificate must be bound to the provider, or any certificate under the anchors would do
+        Pattern trustedSubject = pkixTrust
+                ? Pattern.compile(config.getValue(prefix + "signature.trust.subject", String.class))
+                : null;
+        return new ProviderSettings(providerId,
+                keystorePath,
+                keystorePassword,
+                config.getValue(prefix + "key.alias", String.class),
+                config.getOptionalValue(prefix + "signature.algorithm", String.class).orElse(null),
+                config.getOptionalValue(prefix + "signature.digest", String.class).orElse(null),
+                config.getOptionalValue(prefix + "assertion-reuse.enabled", Boolean.class).orElse(false),
+                Duration.ofSeconds(config.getOptionalValue(prefix + "assertion-reuse.min-remaining-seconds", Long.class)
+                        .orElse(60L)),
+                config.getOptionalValue(prefix + "decryption.keystore.path", String.class).orElse(keystorePath),
+                config.getOptionalValue(prefix + "decryption.keystore.password", String.class).orElse(keystorePassword),
+                config.getOptionalValue(prefix + "decryption.key.alias", String.class).orElse(null),
+                pkixTrust,
+                trustedSubject);
+    }
+
+    /**
+     * Gets the provider ID.
+     *
+     * @return The provider ID
+     */
+    public String getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * Gets the path of the keystore holding the provider's signing key.
+     *
+     * @return The keystore path
+     */
+    public String getKeystorePath() {
+        return keystorePath;
+    }
+
+    /**
+     * Gets the keystore password, which is also used as the key password.
+     *
+     * @return The keystore password
+     */
+    public String getKeystorePassword() {
+        return keystorePassword;
+    }
+
+    /**
+     * Gets the alias of the signing key entry.
+     *
+     * @return The key alias
+     */
+    public String getKeyAlias() {
+        return keyAlias;
+    }
+
+    /**
+     * Gets the configured signature algorithm.
+     *
+     * @return The signature algorithm URI or short name, or null to choose it by key type
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Gets the configured reference digest algorithm.
+     *
+     * @return The digest algorithm URI or short name, or null for SHA-256
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Checks whether a session's signed assertion is reused for repeated generate requests.
+     *
+     * @return true if generated assertions are reused within their validity window
+     */
+    public boolean isAssertionReuseEnabled() {
+        return assertionReuseEnabled;
+    }
+
+    /**
+     * Gets the validity a cached assertion must still have to be reused.
+     *
+     * @return The minimum remaining validity
+     */
+    public Duration getAssertionReuseMinRemaining() {
+        return assertionReuseMinRemaining;
+    }
+
+    /**
+     * Checks whether encrypted assertions from the provider can be decrypted.
+     *
+     * @return true if a decryption key is configured
+     */
+    public boolean isDecryptionEnabled() {
+        return decryptionKeyAlias != null;
+    }
+
+    /**
+     * Gets the path of the keystore holding the decryption key.
+     *
+     * @return The decryption keystore path, the signing keystore path unless configured otherwise
+     */
+    public String getDecryptionKeystorePath() {
+        return decryptionKeystorePath;
+    }
+
+    /**
+     * Gets the decryption keystore password, which is also used as the key password.
+     *
+     * @return The decryption keystore password
+     */
+    public String getDecryptionKeystorePassword() {
+        return decryptionKeystorePassword;
+    }
+
+    /**
+     * Gets the alias of the decryption key entry.
+     *
+     * @return The decryption key alias, or null if decryption is not configured
+     */
+    public String getDecryptionKeyAlias() {
+        return decryptionKeyAlias;
+    }
+
+    /**
+     * Checks whether parsed assertions are verified with the certificate in their KeyInfo, trusted through
+     * PKIX path validation, instead of the certificate in the provider's keystore.
+     *
+     * @return true if signature trust is {@code pkix}
+     */
+    public boolean isPkixTrust() {
+        return pkixTrust;
+    }
+
+    /**
+     * Gets the pattern a pkix-trusted signing certificate's subject DN or a DNS or URI alternative name of it
+     * must fully match.
+     *
+     * @return The trusted subject pattern, or null if signature trust is not {@code pkix}
+     */
+    public Pattern getTrustedSubject() {
+        return trustedSubject;
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderSettings{" +
+                "providerId='" + providerId + '\'' +
+                ", keystorePath='" + keystorePath + '\'' +
+                ", keyAlias='" + keyAlias + '\'' +
+                ", signatureAlgorithm='" + signatureAlgorithm + '\'' +
+                ", assertionReuseEnabled=" + assertionReuseEnabled +
+                ", decryptionKeyAlias='" + decryptionKeyAlias + '\'' +
+                ", pkixTrust=" + pkixTrust +
+                ", trustedSubject=" + trustedSubject +
+                '}';
+    }
+}
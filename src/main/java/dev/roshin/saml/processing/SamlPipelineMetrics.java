@@ -0,0 +1,73 @@
+package dev.roshin.saml.processing;
+
+import dev.roshin.saml.processing.util.SamlMetrics;
+import dev.roshin.saml.processing.util.StageTimings;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * Publishes the stage timings of the SAML pipeline through MicroProfile Metrics.
+ * <p>
+ * Every stage of a generate or parse call updates the {@code saml.stage.duration} timer, and the whole
+ * call updates {@code saml.operation.duration}. Both are tagged with the operation, the provider ID and
+ * the outcome, and the stage timer also with the stage. Calls slower than
+ * {@code saml.metrics.slow-threshold-ms} additionally log their full stage breakdown.
+ */
+@ApplicationScoped
+public class SamlPipelineMetrics implements SamlMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(SamlPipelineMetrics.class);
+
+    private static final Metadata STAGE_DURATION = Metadata.builder()
+            .withName("saml.stage.duration")
+            .withDescription("Duration of one stage of a SAML generate or parse call")
+            .withUnit(MetricUnits.NANOSECONDS)
+            .build();
+
+    private static final Metadata OPERATION_DURATION = Metadata.builder()
+            .withName("saml.operation.duration")
+            .withDescription("Duration of a SAML generate or parse call")
+            .withUnit(MetricUnits.NANOSECONDS)
+            .build();
+
+    private static final String NO_PROVIDER = "none";
+
+    @Inject
+    MetricRegistry registry;
+
+    @Inject
+    @ConfigProperty(name = "saml.metrics.slow-threshold-ms", defaultValue = "500")
+    long slowThresholdMillis;
+
+    @Override
+    public void record(StageTimings timings, String outcome) {
+        try {
+            Tag operation = new Tag("operation", timings.getOperation());
+            Tag provider = new Tag("provider", timings.getProviderId() != null ? timings.getProviderId() : NO_PROVIDER);
+            Tag result = new Tag("outcome", outcome);
+            for (int i = 0; i < timings.size(); i++) {
+                registry.timer(STAGE_DURATION, operation, new Tag("stage", timings.getStage(i)), provider, result)
+                        .update(Duration.ofNanos(timings.getNanos(i)));
+            }
+            long total = timings.totalNanos();
+            registry.timer(OPERATION_DURATION, operation, provider, result).update(Duration.ofNanos(total));
+
+            if (total > slowThresholdMillis * 1_000_000) {
+                logger.warn("Slow SAML {} for provider {} ({}) took {} ms: {}", timings.getOperation(),
+                        provider.getTagValue(), outcome, total / 1_000_000, timings);
+            }
+        } catch (RuntimeException e) {
+            // Metrics must never fail a request
+            logger.debug("Failed to record SAML metrics", e);
+        }
+    }
+}
@@ -1,27 +1,831 @@
 package dev.roshin.saml.processing;
 
 
+import dev.roshin.saml.processing.domain.Identity;
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import dev.roshin.saml.processing.util.AssertionReplayCache;
+import dev.roshin.saml.processing.util.CredentialRegistry;
+import dev.roshin.saml.processing.util.GeneratedAssertionCache;
+import dev.roshin.saml.processing.util.MetadataEntry;
+import dev.roshin.saml.processing.util.MetadataRegistry;
+import dev.roshin.saml.processing.util.ParseMode;
+import dev.roshin.saml.processing.util.PkixTrustEngine;
+import dev.roshin.saml.processing.util.SamlBinding;
+import dev.roshin.saml.processing.util.SamlBindingCodec;
+import dev.roshin.saml.processing.util.SamlDecryptionContext;
+import dev.roshin.saml.processing.util.SamlGenerationContext;
+import dev.roshin.saml.processing.util.SamlGenerator;
+import dev.roshin.saml.processing.util.SamlMetrics;
+import dev.roshin.saml.processing.util.SamlParser;
+import dev.roshin.saml.processing.util.SamlParser.SamlParserException;
+import dev.roshin.saml.processing.util.StageTimings;
+import dev.roshin.saml.processing.util.VerifiedAssertionCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
 import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import net.shibboleth.utilities.java.support.xml.DOMTypeSupport;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+@ApplicationScoped
 public class SamlProcessor {
 
-    public String generateSamlAssertion(String jsonRequest, String providerId) {
-        // Implement the SAML generation logic here
-        return "<Generated SAML Assertion>";
+    private static final Logger logger = LoggerFactory.getLogger(SamlProcessor.class);
+    // Provider tag of assertions verified through metadata; entity IDs are unbounded and would each add series
+    private static final String METADATA_PROVIDER = "metadata";
+
+    private final Map<String, ProviderSettings> providerSettings = new ConcurrentHashMap<>();
+    private final Map<String, SamlGenerationContext> generationContexts = new ConcurrentHashMap<>();
+    private final Map<String, SamlDecryptionContext> decryptionContexts = new ConcurrentHashMap<>();
+
+    @Inject
+    @ConfigProperty(name = "saml.serialization.pretty-print", defaultValue = "false")
+    boolean prettyPrint;
+
+    @Inject
+    @ConfigProperty(name = "saml.generation.template.enabled", defaultValue = "true")
+    boolean templateEnabled;
+
+    @Inject
+    @ConfigProperty(name = "saml.generation.reuse.max-entries", defaultValue = "10000")
+    int reuseMaxEntries;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.mode", defaultValue = "dom")
+    String parseMode;
+
+    @Inject
+    @ConfigProperty(name = "saml.generation.batch.max-line-bytes", defaultValue = "65536")
+    int batchMaxLineBytes;
+
+    @Inject
+    @ConfigProperty(name = "saml.batch.max-request-bytes", defaultValue = "16777216")
+    long batchMaxRequestBytes;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.cache.enabled", defaultValue = "false")
+    boolean verifiedCacheEnabled;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.cache.max-entries", defaultValue = "10000")
+    int verifiedCacheMaxEntries;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.cache.max-bytes", defaultValue = "33554432")
+    long verifiedCacheMaxBytes;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.replay-detection.enabled", defaultValue = "false")
+    boolean replayDetectionEnabled;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.replay-detection.expected-entries", defaultValue = "100000")
+    int replayExpectedEntries;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.replay-detection.default-ttl-seconds", defaultValue = "300")
+    long replayDefaultTtlSeconds;
+
+    @Inject
+    @ConfigProperty(name = "saml.parse.max-assertion-bytes", defaultValue = "1048576")
+    int maxAssertionBytes;
+
+    @Inject
+    @ConfigProperty(name = "saml.metadata.paths")
+    Optional<String> metadataPaths;
+
+    @Inject
+    @ConfigProperty(name = "saml.metadata.refresh-interval-seconds", defaultValue = "300")
+    long metadataRefreshSeconds;
+
+    @Inject
+    @ConfigProperty(name = "saml.trust.truststore.path")
+    Optional<String> truststorePath;
+
+    @Inject
+    @ConfigProperty(name = "saml.trust.truststore.password")
+    Optional<String> truststorePassword;
+
+    @Inject
+    @ConfigProperty(name = "saml.trust.revocation.enabled", defaultValue = "false")
+    boolean trustRevocationEnabled;
+
+    @Inject
+    @ConfigProperty(name = "saml.trust.cache.ttl-seconds", defaultValue = "3600")
+    long trustCacheTtlSeconds;
+
+    @Inject
+    @ConfigProperty(name = "saml.trust.cache.max-entries", defaultValue = "10000")
+    int trustCacheMaxEntries;
+
+    @Inject
+    Config config;
+
+    @Inject
+    SamlPipelineMetrics metrics;
+
+    @Inject
+    SigningExecutor signingExecutor;
+
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService")
+    ScheduledExecutorService metadataScheduler;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    ThreadFactory threadFactory;
+
+    private SamlGenerator samlGenerator;
+    private SamlParser samlParser;
+    private CredentialRegistry credentialRegistry;
+    private GeneratedAssertionCache generatedAssertions;
+    private List<Path> metadataSources;
+    private MetadataRegistry metadataRegistry;
+    private volatile boolean metadataLoaded;
+
+    @PostConstruct
+    void init() {
+        try {
+            samlGenerator = new SamlGenerator();
+            samlParser = new SamlParser();
+        } catch (InitializationException e) {
+            throw new IllegalStateException("Failed to initialize OpenSAML", e);
+        }
+        samlGenerator.setPrettyPrint(prettyPrint);
+        credentialRegistry = new CredentialRegistry(threadFactory);
+        generatedAssertions = new GeneratedAssertionCache(reuseMaxEntries);
+        samlGenerator.setMetrics(metrics);
+        samlParser.setMetrics(metrics);
+        samlParser.setParseMode(ParseMode.valueOf(parseMode.trim().toUpperCase(Locale.ROOT)));
+        samlParser.setMaxAssertionSize(maxAssertionBytes);
+        if (verifiedCacheEnabled) {
+            samlParser.setVerifiedAssertionCache(new VerifiedAssertionCache(verifiedCacheMaxEntries, verifiedCacheMaxBytes));
+        }
+        if (replayDetectionEnabled) {
+            samlParser.setReplayCache(new AssertionReplayCache(replayExpectedEntries,
+                    Duration.ofSeconds(replayDefaultTtlSeconds)));
+            if (verifiedCacheEnabled) {
+                logger.warn("saml.parse.cache.enabled has no effect while replay detection is enabled");
+            }
+        }
+        if (truststorePath.isPresent()) {
+            try {
+                samlParser.setTrustEngine(PkixTrustEngine.fromTruststore(truststorePath.get(),
+                        truststorePassword.orElse(null), trustRevocationEnabled,
+                        Duration.ofSeconds(trustCacheTtlSeconds), trustCacheMaxEntries));
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to load the trust anchors from " + truststorePath.get(), e);
+            }
+            samlParser.setTrustedSubjects(providerId -> providerSettings(providerId).getTrustedSubject());
+        }
+        metadataSources = metadataPaths.stream()
+                .flatMap(paths -> Arrays.stream(paths.split(",")))
+                .map(String::trim)
+                .filter(path -> !path.isEmpty())
+                .map(Paths::get)
+                .toList();
+        metadataRegistry = new MetadataRegistry(metadataSources);
+    }
+
+    /**
+     * Loads the SAML metadata in the background as soon as the application scope is initialized, so no
+     * request pays for reading it. Observing the event also creates this bean at startup.
+     *
+     * @param event The application scope initialization event
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        metadataScheduler.execute(this::loadMetadata);
+    }
+
+    /**
+     * Checks whether the SAML metadata was loaded, which is the case right away if none is configured.
+     *
+     * @return true once the configured metadata files were read
+     */
+    public boolean isMetadataLoaded() {
+        return metadataLoaded;
+    }
+
+    /**
+     * Reads the metadata files, then keeps refreshing them on the container's scheduler.
+     */
+    void loadMetadata() {
+        try {
+            if (!metadataSources.isEmpty()) {
+                metadataRegistry.refresh();
+                logger.info("Loaded SAML metadata of {} entities", metadataRegistry.size());
+                metadataRegistry.start(metadataScheduler, Duration.ofSeconds(metadataRefreshSeconds));
+            }
+            metadataLoaded = true;
+        } catch (RuntimeException e) {
+            logger.error("Failed to load the SAML metadata", e);
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        credentialRegistry.close();
+        metadataRegistry.close();
+    }
+
+    /**
+     * Generates a signed assertion for a JSON identity request.
+     *
+     * @param jsonRequest The JSON identity request, read as UTF-8
+     * @param providerId  The provider to sign for
+     * @return The signed assertion, serialized when it is written
+     * @throws Exception if the request is invalid or signing fails
+     */
+    public SignedAssertion generateSamlAssertion(InputStream jsonRequest, String providerId) throws Exception {
+        return await(generateSamlAssertionAsync(jsonRequest, providerId));
+    }
+
+    /**
+     * Generates a signed assertion for a JSON identity request without waiting for the signing executor.
+     * The request is read on the calling thread; the returned future is completed by the signing thread.
+     *
+     * @param jsonRequest The JSON identity request, read as UTF-8
+     * @param providerId  The provider to sign for
+     * @return A future of the signed assertion, failed with a {@link SigningOverloadedException} if signing
+     * capacity is exhausted
+     * @throws Exception if the request or provider is invalid
+     */
+    public CompletableFuture<SignedAssertion> generateSamlAssertionAsync(InputStream jsonRequest, String providerId)
+            throws Exception {
+        return generate(IdentityInfoJson.fromJson(jsonRequest), providerId);
+    }
+
+    /**
+     * Generates a signed assertion for a JSON identity request, carrying the given session token.
+     *
+     * @param jsonRequest  The JSON identity request, read as UTF-8
+     * @param sessionToken The session token to add to the identity
+     * @param providerId   The provider to sign for
+     * @return The signed assertion, serialized when it is written
+     * @throws Exception if the request is invalid or signing fails
+     */
+    public SignedAssertion generateSamlAssertionWithToken(InputStream jsonRequest, String sessionToken,
+                                                          String providerId) throws Exception {
+        return await(generateSamlAssertionWithTokenAsync(jsonRequest, sessionToken, providerId));
+    }
+
+    /**
+     * Generates a signed assertion carrying the given session token without waiting for the signing
+     * executor, like {@link #generateSamlAssertionAsync(InputStream, String)}.
+     *
+     * @param jsonRequest  The JSON identity request, read as UTF-8
+     * @param sessionToken The session token to add to the identity
+     * @param providerId   The provider to sign for
+     * @return A future of the signed assertion
+     * @throws Exception if the request or provider is invalid
+     */
+    public CompletableFuture<SignedAssertion> generateSamlAssertionWithTokenAsync(InputStream jsonRequest,
+                                                                                  String sessionToken,
+                                                                                  String providerId)
+            throws Exception {
+        IdentityInfo identityInfo = IdentityInfoJson.fromJson(jsonRequest);
+        identityInfo.setSessionToken(sessionToken);
+        return generate(identityInfo, providerId);
+    }
+
+    /**
+     * Generates one signed assertion per line of NDJSON identity requests and writes one NDJSON result line
+     * per assertion as it completes. Each result line carries the zero-based {@code index} of its request
+     * and either the {@code assertion} XML or an {@code error} message; a failing request does not stop the
+     * batch.
+     * <p>
+     * The requests are read before this method returns, up to {@code saml.batch.max-request-bytes} in total
+     * and {@code saml.generation.batch.max-line-bytes} per line; a longer line is answered with an error.
+     * Signing runs on the signing executor with at most a fixed window of requests in flight, so the
+     * results never pile up in memory.
+     *
+     * @param requests   The NDJSON identity requests
+     * @param providerId The provider to sign for
+     * @return The batch result, produced while it is written
+     * @throws Exception if the requests cannot be read or the provider's signing context cannot be created
+     */
+    public StreamedResult generateSamlAssertionBatch(InputStream requests, String providerId) throws Exception {
+        SamlGenerationContext context = generationContext(providerId);
+        List<String> lines = NdjsonLines.read(requests, batchMaxRequestBytes, batchMaxLineBytes);
+        return out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            CompletionService<JsonObject> completion = new ExecutorCompletionService<>(signingExecutor);
+            int window = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+            int inFlight = 0;
+            for (int index = 0; index < lines.size(); index++) {
+                String request = lines.get(index);
+                if (request == null) {
+                    writeLine(writer, Json.createObjectBuilder()
+                            .add("index", index)
+                            .add("error", "Request exceeds the maximum size of " + batchMaxLineBytes + " bytes")
+                            .build());
+                    continue;
+                }
+                if (inFlight == window) {
+                    writer.flush();
+                    writeLine(writer, take(completion));
+                    inFlight--;
+                }
+                int itemIndex = index;
+                completion.submit(() -> generateBatchItem(itemIndex, request, context));
+                inFlight++;
+                for (Future<JsonObject> done = completion.poll(); done != null; done = completion.poll()) {
+                    writeLine(writer, result(done));
+                    inFlight--;
+                }
+            }
+            for (; inFlight > 0; inFlight--) {
+                writer.flush();
+                writeLine(writer, take(completion));
+            }
+            writer.flush();
+        };
+    }
+
+    /**
+     * Parses and validates an assertion.
+     * <p>
+     * The assertion is decoded for its binding while it is read into memory, up to
+     * {@code saml.parse.max-assertion-bytes} of decoded XML, on the calling thread, so a slow client never
+     * holds a thread of the signing executor.
+     *
+     * @param samlResponse The assertion as received
+     * @param binding      The binding the assertion is encoded with
+     * @param providerId   The provider whose credential verifies the signature
+     * @return The parsed identity as JSON
+     * @throws Exception if the assertion is missing, invalid or fails validation
+     */
+    public JsonObject parseSamlAssertion(InputStream samlResponse, SamlBinding binding, String providerId)
+            throws Exception {
+        return await(parseSamlAssertionAsync(samlResponse, binding, providerId));
+    }
+
+    /**
+     * Parses and validates an assertion without waiting for the signing executor. The assertion is read on
+     * the calling thread; the returned future is completed by the thread that verifies it.
+     *
+     * @param samlResponse The assertion as received
+     * @param binding      The binding the assertion is encoded with
+     * @param providerId   The provider whose credential verifies the signature
+     * @return A future of the parsed identity as JSON, failed if the assertion fails validation
+     * @throws Exception if the assertion is missing or cannot be decoded, or the provider is invalid
+     */
+    public CompletableFuture<JsonObject> parseSamlAssertionAsync(InputStream samlResponse, SamlBinding binding,
+                                                                 String providerId) throws Exception {
+        byte[] rawAssertion = samlResponse != null ? readAssertion(samlResponse, binding) : new byte[0];
+        if (rawAssertion.length == 0) {
+            throw new IllegalArgumentException("SAMLResponse is required");
+        }
+        BasicX509Credential credential = verificationCredential(providerId);
+        SamlDecryptionContext decryption = decryptionContext(providerId);
+        return verify(providerId, () -> samlParser.parseAssertion(rawAssertion, credential, decryption, providerId))
+                .thenApply(IdentityInfoJson::toJson);
+    }
+
+    /**
+     * Parses and validates a JSON array of assertion strings in parallel and writes a JSON array with one
+     * result per assertion, in input order. Each result carries the zero-based {@code index} of its assertion
+     * and either the parsed {@code identity} or an {@code error} code with a {@code message}; one bad
+     * assertion does not fail the batch.
+     * <p>
+     * The array is read before this method returns, up to {@code saml.batch.max-request-bytes}. At most a
+     * fixed window of assertions is in flight on the signing executor while the results are written.
+     *
+     * @param assertions The JSON array of assertion strings
+     * @param providerId The provider whose credential verifies the signatures
+     * @return The batch result, produced while it is written
+     * @throws Exception if the array cannot be read or the provider's credential cannot be loaded
+     */
+    public StreamedResult parseSamlAssertionBatch(InputStream assertions, String providerId) throws Exception {
+        BasicX509Credential credential = verificationCredential(providerId);
+        SamlDecryptionContext decryption = decryptionContext(providerId);
+        List<String> items = readAssertionArray(assertions);
+        return out -> {
+            int window = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+            Deque<Future<JsonObject>> pending = new ArrayDeque<>(window);
+            JsonGenerator generator = Json.createGenerator(out);
+            try {
+                generator.writeStartArray();
+                for (int index = 0; index < items.size(); index++) {
+                    if (pending.size() == window) {
+                        generator.flush();
+                        generator.write(result(pending.poll()));
+                    }
+                    int itemIndex = index;
+                    String assertion = items.get(index);
+                    if (assertion != null) {
+                        pending.add(submit(() -> parseBatchItem(itemIndex, assertion, credential, decryption,
+                                providerId)));
+                    } else {
+                        pending.add(CompletableFuture.completedFuture(batchError(itemIndex,
+                                SamlParserException.ErrorCode.MALFORMED_ASSERTION, "Expected an assertion string")));
+                    }
+                    while (!pending.isEmpty() && pending.peek().isDone()) {
+                        generator.write(result(pending.poll()));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    generator.flush();
+                    generator.write(result(pending.poll()));
+                }
+                generator.writeEnd();
+                // Flush rather than close, the response stream belongs to the caller
+                generator.flush();
+            } finally {
+                pending.forEach(future -> future.cancel(true));
+            }
+        };
+    }
+
+    /**
+     * Parses and validates an assertion from any entity in the SAML metadata, verifying its signature with
+     * the certificates the metadata lists for the assertion's issuer.
+     * <p>
+     * The request is a JSON object with the assertion in {@code samlResponse} and, optionally, the
+     * {@code binding} it is encoded with. Metadata is read from {@code saml.metadata.paths}. While an issuer
+     * rolls over its signing key, its certificates are tried in metadata order. An issuer whose metadata
+     * lists no signing certificate is rejected, since nothing would bind a KeyInfo certificate to it.
+     * <p>
+     * The issuer is read from the assertion's single, leading Issuer before it is verified, and the verified
+     * assertion must name the same issuer. An {@code EncryptedAssertion} has no readable Issuer and is
+     * rejected; it can only be parsed for a configured provider through {@code /saml/parse}.
+     *
+     * @param authReqDataString The JSON request
+     * @return The parsed identity as JSON
+     * @throws Exception if the request is invalid, the issuer is unknown or has no signing certificate, or the
+     *                   assertion fails validation
+     */
+    public JsonObject parseSamlAssertionByProvider(String authReqDataString) throws Exception {
+        return await(parseSamlAssertionByProviderAsync(authReqDataString));
+    }
+
+    /**
+     * Parses and validates an assertion from any entity in the SAML metadata without waiting for the signing
+     * executor, like {@link #parseSamlAssertionByProvider(String)}.
+     *
+     * @param authReqDataString The JSON request
+     * @return A future of the parsed identity as JSON, failed if the assertion fails validation
+     * @throws Exception if the request is invalid, or the issuer is unknown or has no signing certificate
+     */
+    public CompletableFuture<JsonObject> parseSamlAssertionByProviderAsync(String authReqDataString)
+            throws Exception {
+        JsonObject request;
+        try (JsonReader reader = Json.createReader(new StringReader(authReqDataString))) {
+            request = reader.readObject();
+        } catch (JsonException e) {
+            throw new IllegalArgumentException("Invalid parse request", e);
+        }
+        String samlResponse = request.getString("samlResponse", "");
+        if (samlResponse.isEmpty()) {
+            throw new IllegalArgumentException("samlResponse is required");
+        }
+        SamlBinding binding = SamlBinding.fromName(request.getString("binding", null));
+        byte[] rawAssertion = readAssertion(new ByteArrayInputStream(samlResponse.getBytes(StandardCharsets.UTF_8)),
+                binding);
+
+        String issuer = SamlParser.readIssuer(rawAssertion);
+        if (issuer == null) {
+            throw new IllegalArgumentException(
+                    "The assertion has no leading Issuer to look up its metadata by, or is encrypted");
+        }
+        MetadataEntry entry = metadataRegistry.resolve(issuer);
+        if (entry == null) {
+            throw new IllegalArgumentException("No SAML metadata for issuer " + issuer);
+        }
+        List<BasicX509Credential> credentials = entry.getSigningCredentials();
+        if (credentials.isEmpty()) {
+            throw new IllegalArgumentException("SAML metadata of " + issuer + " has no signing certificate");
+        }
+        return verify(METADATA_PROVIDER, () -> {
+            IdentityInfo identityInfo = parseWithAnyCredential(rawAssertion, credentials);
+            if (!entry.getEntityId().equals(identityInfo.getIssuer())) {
+                // The keys were chosen by the issuer read above, so the identity must be issued by the same entity
+                throw new SamlParserException(SamlParserException.ErrorCode.UNTRUSTED_CERTIFICATE, "Assertion issuer "
+                        + identityInfo.getIssuer() + " is not the metadata entity " + entry.getEntityId());
+            }
+            return identityInfo;
+        }).thenApply(IdentityInfoJson::toJson);
+    }
+
+    private CompletableFuture<SignedAssertion> generate(IdentityInfo identityInfo, String providerId)
+            throws Exception {
+        SamlGenerationContext context = generationContext(providerId);
+        ProviderSettings settings = providerSettings(providerId);
+        StageTimings timings = new StageTimings(StageTimings.GENERATE, providerId);
+        // One snapshot serves both the reuse key and the assertion
+        Identity identity = identityInfo.toIdentity();
+
+        GeneratedAssertionCache.Key reuseKey = settings.isAssertionReuseEnabled()
+                ? GeneratedAssertionCache.key(context, identity) : null;
+        if (reuseKey != null) {
+            byte[] reused = generatedAssertions.get(reuseKey, Instant.now(), settings.getAssertionReuseMinRemaining());
+            timings.lap("reuse");
+            if (reused != null) {
+                metrics.record(timings, SamlMetrics.REUSED);
+                return CompletableFuture.completedFuture(new SignedAssertion(reused));
+            }
+        }
+
+        return signingExecutor.callAsync(() -> sign(identity, context, timings))
+                .whenComplete((assertion, e) -> {
+                    if (e != null) {
+                        metrics.record(timings, e instanceof SigningOverloadedException
+                                ? SamlMetrics.REJECTED : SamlMetrics.FAILURE);
+                    }
+                })
+                .thenApply(assertion -> signed(assertion, reuseKey, timings));
+    }
+
+    private SignedAssertion signed(Element assertion, GeneratedAssertionCache.Key reuseKey, StageTimings timings) {
+        if (reuseKey != null) {
+            byte[] xml = samlGenerator.getSerializer().toString(assertion).getBytes(StandardCharsets.UTF_8);
+            timings.lap("serialize");
+            generatedAssertions.put(reuseKey, xml, notOnOrAfter(assertion));
+            metrics.record(timings, SamlMetrics.SUCCESS);
+            return new SignedAssertion(xml);
+        }
+        // The serialize stage is timed and the call reported when the response is written
+        return new SignedAssertion(assertion, samlGenerator.getSerializer(), timings, metrics);
+    }
+
+    private static Instant notOnOrAfter(Element assertion) {
+        Element conditions = (Element) assertion.getElementsByTagNameNS(SAMLConstants.SAML20_NS, "Conditions").item(0);
+        return DOMTypeSupport.stringToInstant(conditions.getAttributeNS(null, "NotOnOrAfter"));
+    }
+
+    private Element sign(Identity identity, SamlGenerationContext context, StageTimings timings) throws Exception {
+        if (templateEnabled) {
+            return samlGenerator.generateAssertionElement(identity, context, timings);
+        }
+        return samlGenerator.generateAssertion(identity, context, timings).getDOM();
+    }
+
+    private JsonObject generateBatchItem(int index, String jsonRequest, SamlGenerationContext context) {
+        JsonObjectBuilder result = Json.createObjectBuilder().add("index", index);
+        StageTimings timings = new StageTimings(StageTimings.GENERATE, context.getProviderId());
+        try {
+            Element assertion = sign(IdentityInfoJson.fromJson(jsonRequest).toIdentity(), context, timings);
+            result.add("assertion", samlGenerator.getSerializer().toString(assertion));
+            timings.lap("serialize");
+            metrics.record(timings, SamlMetrics.SUCCESS);
+        } catch (Exception e) {
+            logger.warn("Failed to generate assertion {} of batch for provider {}", index, context.getProviderId(), e);
+            metrics.record(timings, SamlMetrics.FAILURE);
+            result.add("error", message(e));
+        }
+        return result.build();
+    }
+
+    private JsonObject parseBatchItem(int index, String assertion, BasicX509Credential credential,
+                                      SamlDecryptionContext decryption, String providerId) {
+        try {
+            IdentityInfo identityInfo = samlParser.parseAssertion(assertion, credential, decryption, providerId);
+            return Json.createObjectBuilder()
+                    .add("index", index)
+                    .add("identity", IdentityInfoJson.toJson(identityInfo))
+                    .build();
+        } catch (SamlParserException e) {
+            return batchError(index, e.getErrorCode(), message(e));
+        } catch (Exception e) {
+            return batchError(index, SamlParserException.ErrorCode.PARSE_FAILED, message(e));
+        }
+    }
+
+    /**
+     * Reads a JSON array of assertion strings, up to {@code saml.batch.max-request-bytes}. An item that is not
+     * a string is kept as null, so it can still be answered under its index.
+     */
+    private List<String> readAssertionArray(InputStream assertions) throws IOException {
+        byte[] body = assertions.readNBytes((int) Math.min(batchMaxRequestBytes + 1, Integer.MAX_VALUE - 8));
+        if (body.length > batchMaxRequestBytes) {
+            throw new IllegalArgumentException("Batch request exceeds the maximum size of " + batchMaxRequestBytes
+                    + " bytes");
+        }
+        List<String> items = new ArrayList<>();
+        try (JsonParser parser = Json.createParser(new ByteArrayInputStream(body))) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_ARRAY) {
+                throw new IllegalArgumentException("Expected a JSON array of assertions");
+            }
+            for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_ARRAY; event = parser.next()) {
+                if (event == JsonParser.Event.VALUE_STRING) {
+                    items.add(parser.getString());
+                } else {
+                    if (event == JsonParser.Event.START_OBJECT) {
+                        parser.skipObject();
+                    } else if (event == JsonParser.Event.START_ARRAY) {
+                        parser.skipArray();
+                    }
+                    items.add(null);
+                }
+            }
+        } catch (JsonException | NoSuchElementException e) {
+            throw new IllegalArgumentException("Invalid assertion batch", e);
+        }
+        return items;
+    }
+
+    /**
+     * Decodes and reads an assertion, closing the decoded stream so the inflater of the Redirect binding is
+     * released.
+     */
+    private byte[] readAssertion(InputStream encoded, SamlBinding binding) throws IOException, SamlParserException {
+        int maxSize = samlParser.getMaxAssertionSize();
+        // One byte of slack so an oversized message is reported by readAssertionBytes as malformed
+        try (InputStream decoded = SamlBindingCodec.decode(encoded, binding, maxSize + 1L)) {
+            return SamlParser.readAssertionBytes(decoded, maxSize);
+        }
+    }
+
+    /**
+     * Runs a parse on the signing executor. The parser reports the calls it runs; a call rejected before it
+     * starts is reported here.
+     */
+    private CompletableFuture<IdentityInfo> verify(String providerId, Callable<IdentityInfo> parse) {
+        return signingExecutor.callAsync(parse).whenComplete((identityInfo, e) -> {
+            if (e instanceof SigningOverloadedException) {
+                metrics.record(new StageTimings(StageTimings.PARSE, providerId), SamlMetrics.REJECTED);
+            }
+        });
+    }
+
+    /**
+     * Waits for an asynchronous call and rethrows its failure as is.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private IdentityInfo parseWithAnyCredential(byte[] rawAssertion, List<BasicX509Credential> credentials)
+            throws SamlParserException {
+        for (int i = 0; ; i++) {
+            try {
+                return samlParser.parseAssertion(rawAssertion, credentials.get(i), METADATA_PROVIDER);
+            } catch (SamlParserException e) {
+                if (e.getErrorCode() != SamlParserException.ErrorCode.INVALID_SIGNATURE
+                        || i == credentials.size() - 1) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static JsonObject batchError(int index, SamlParserException.ErrorCode errorCode, String message) {
+        return Json.createObjectBuilder()
+                .add("index", index)
+                .add("error", errorCode.name())
+                .add("message", message)
+                .build();
+    }
+
+    private static String message(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+    }
+
+    private Future<JsonObject> submit(Callable<JsonObject> task) throws IOException {
+        try {
+            return signingExecutor.submit(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for signing capacity");
+        }
+    }
+
+    private static JsonObject take(CompletionService<JsonObject> completion) throws IOException {
+        try {
+            return result(completion.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for batch results");
+        }
+    }
+
+    private static JsonObject result(Future<JsonObject> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for batch results");
+        } catch (ExecutionException e) {
+            throw new IOException("Batch item failed", e.getCause());
+        }
+    }
+
+    private static void writeLine(Writer writer, JsonObject line) throws IOException {
+        writer.write(line.toString());
+        writer.write('\n');
+    }
+
+    private SamlGenerationContext generationContext(String providerId) throws Exception {
+        BasicX509Credential credential = credential(providerId);
+        SamlGenerationContext context = generationContexts.get(providerId);
+        if (context == null || context.getSigningCredential() != credential) {
+            // First use, or the keystore was reloaded since the context was built
+            ProviderSettings settings = providerSettings(providerId);
+            context = SamlGenerationContext.create(providerId, credential, settings.getSignatureAlgorithm(),
+                    settings.getDigestAlgorithm());
+            generationContexts.put(providerId, context);
+        }
+        return context;
+    }
+
+    private SamlDecryptionContext decryptionContext(String providerId) throws Exception {
+        ProviderSettings settings = providerSettings(providerId);
+        if (!settings.isDecryptionEnabled()) {
+            return null;
+        }
+        // Registered under its own ID so a decryption key never shadows a signing key with the same alias
+        BasicX509Credential credential = credentialRegistry.getCredential(providerId + "#decryption",
+                settings.getDecryptionKeystorePath(), settings.getDecryptionKeystorePassword(),
+                settings.getDecryptionKeyAlias());
+        SamlDecryptionContext context = decryptionContexts.get(providerId);
+        if (context == null || context.getDecryptionCredential() != credential) {
+            // First use, or the keystore was reloaded since the context was built
+            context = SamlDecryptionContext.create(providerId, credential);
+            decryptionContexts.put(providerId, context);
+        }
+        return context;
     }
 
-    public String generateSamlAssertionWithToken(String jsonRequest, String sessionToken, String providerId) {
-        // Implement the SAML generation logic with token here
-        return "<Generated SAML Assertion with Token>";
+    /**
+     * Gets the credential a provider's assertions are verified with, or null if they are verified with their
+     * KeyInfo certificate through the trust engine.
+     */
+    private BasicX509Credential verificationCredential(String providerId) throws Exception {
+        if (providerId != null && !providerId.isBlank() && providerSettings(providerId).isPkixTrust()) {
+            if (samlParser.getTrustEngine() == null) {
+                throw new IllegalStateException("Provider " + providerId
+                        + " uses pkix signature trust, but saml.trust.truststore.path is not configured");
+            }
+            return null;
+        }
+        return credential(providerId);
     }
 
-    public JsonObject parseSamlAssertion(String samlResponse, String providerId) {
-        // Implement the SAML parsing logic here
-        return null;  // Return the parsed result as a JsonObject
+    private BasicX509Credential credential(String providerId) throws Exception {
+        if (providerId == null || providerId.isBlank()) {
+            throw new IllegalArgumentException("providerId is required");
+        }
+        ProviderSettings settings = providerSettings(providerId);
+        return credentialRegistry.getCredential(providerId, settings.getKeystorePath(),
+                settings.getKeystorePassword(), settings.getKeyAlias());
     }
 
-    public JsonObject parseSamlAssertionByProvider(String authReqDataString) {
-        // Implement the SAML parsing by provider logic here
-        return null;  // Return the parsed result as a JsonObject
+    private ProviderSettings providerSettings(String providerId) {
+        return providerSettings.computeIfAbsent(providerId, id -> ProviderSettings.load(config, id));
     }
 }
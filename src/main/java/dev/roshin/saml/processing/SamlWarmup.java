@@ -0,0 +1,122 @@
+package dev.roshin.saml.processing;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import dev.roshin.saml.processing.util.KeystoreUtil;
+import dev.roshin.saml.processing.util.OpenSamlBootstrap;
+import dev.roshin.saml.processing.util.SamlGenerationContext;
+import dev.roshin.saml.processing.util.SamlGenerator;
+import dev.roshin.saml.processing.util.SamlParser;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+
+/**
+ * Bootstraps OpenSAML once for the application and warms up the SAML pipeline before the pod is
+ * reported as ready.
+ * <p>
+ * On application startup OpenSAML is initialized and, when {@code saml.warmup.provider} names a
+ * configured provider, a number of synthetic generate, sign, verify and parse cycles are run against that
+ * provider's credential. This loads the builders, marshallers and crypto providers and lets the JIT
+ * compile the hot path before real traffic arrives.
+ */
+@ApplicationScoped
+public class SamlWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(SamlWarmup.class);
+
+    @Inject
+    @ConfigProperty(name = "saml.warmup.provider")
+    Optional<String> warmupProvider;
+
+    @Inject
+    @ConfigProperty(name = "saml.warmup.iterations", defaultValue = "50")
+    int warmupIterations;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private volatile boolean ready;
+    private volatile String failure;
+
+    /**
+     * Starts the bootstrap in the background as soon as the application scope is initialized.
+     *
+     * @param event The application scope initialization event
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        executor.execute(this::bootstrap);
+    }
+
+    /**
+     * Checks whether OpenSAML is initialized and the warm-up has completed.
+     *
+     * @return true if the SAML pipeline is ready to serve traffic
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Gets the reason the bootstrap failed, if it did.
+     *
+     * @return The failure message, or null if the bootstrap has not failed
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    private void bootstrap() {
+        try {
+            OpenSamlBootstrap.initialize();
+            if (warmupProvider.isPresent()) {
+                warmUp(ProviderSettings.load(warmupProvider.get()));
+            } else {
+                logger.info("No saml.warmup.provider configured, skipping SAML pipeline warm-up");
+            }
+            ready = true;
+        } catch (Exception e) {
+            failure = e.getMessage();
+            logger.error("SAML bootstrap failed", e);
+        }
+    }
+
+    private void warmUp(ProviderSettings settings) throws Exception {
+        long start = System.nanoTime();
+        BasicX509Credential credential = KeystoreUtil.init(settings.getKeystorePath(),
+                settings.getKeystorePassword(), settings.getKeyAlias());
+        SamlGenerator generator = new SamlGenerator();
+        SamlParser parser = new SamlParser();
+        SamlGenerationContext context = SamlGenerationContext.create(settings.getProviderId(), credential,
+                settings.getSignatureAlgorithm(), settings.getDigestAlgorithm());
+
+        for (int i = 0; i < warmupIterations; i++) {
+            Assertion assertion = generator.generateAssertion(syntheticIdentity(i), context);
+            parser.validateAssertion(assertion, credential);
+            parser.parseAssertion(generator.marshalAssertion(assertion), credential);
+            parser.parseAssertion(generator.getSerializer().toString(
+                    generator.generateAssertionElement(syntheticIdentity(i), context)), credential);
+        }
+        logger.info("SAML pipeline warmed up with {} cycles for provider {} in {} ms", warmupIterations,
+                settings.getProviderId(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private IdentityInfo syntheticIdentity(int i) {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("warmup-user-" + i);
+        identityInfo.setIssuer(IdentityInfo.DEFAULT_ISSUER);
+        identityInfo.setTrustLevel("1");
+        identityInfo.setSessionId("warmup-session-" + i);
+        identityInfo.setRequestedApplication("warmup");
+        return identityInfo;
+    }
+}
@@ -0,0 +1,126 @@
+package dev.roshin.saml.processing;
+
+import dev.roshin.saml.processing.util.AssertionSerializer;
+import dev.roshin.saml.processing.util.SamlBinding;
+import dev.roshin.saml.processing.util.SamlBindingCodec;
+import dev.roshin.saml.processing.util.SamlMetrics;
+import dev.roshin.saml.processing.util.StageTimings;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A signed, marshalled assertion ready to be written to a response.
+ */
+public final class SignedAssertion {
+
+    private final Element element;
+    private final byte[] xml;
+    private final AssertionSerializer serializer;
+    private final StageTimings timings;
+    private final SamlMetrics metrics;
+
+    /**
+     * Creates a signed assertion.
+     *
+     * @param element    The marshalled and signed assertion element
+     * @param serializer The serializer to write the element with
+     */
+    public SignedAssertion(Element element, AssertionSerializer serializer) {
+        this(element, serializer, null, SamlMetrics.NOOP);
+    }
+
+    /**
+     * Creates a signed assertion whose generate call is reported once the assertion has been written.
+     *
+     * @param element    The marshalled and signed assertion element
+     * @param serializer The serializer to write the element with
+     * @param timings    The build and sign timings of the assertion, the serialize stage is added to them
+     * @param metrics    The metrics to report the generate call to
+     */
+    public SignedAssertion(Element element, AssertionSerializer serializer, StageTimings timings, SamlMetrics metrics) {
+        this.element = element;
+        this.xml = null;
+        this.serializer = serializer;
+        this.timings = timings;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates a signed assertion from its serialized form, for example one reused from a cache.
+     *
+     * @param xml The UTF-8 XML of the assertion, which must not be modified afterwards
+     */
+    public SignedAssertion(byte[] xml) {
+        this.element = null;
+        this.xml = xml;
+        this.serializer = null;
+        this.timings = null;
+        this.metrics = SamlMetrics.NOOP;
+    }
+
+    /**
+     * Gets the marshalled assertion element.
+     *
+     * @return The assertion element, or null if the assertion was created from its serialized form
+     */
+    public Element getElement() {
+        return element;
+    }
+
+    /**
+     * Writes the assertion as UTF-8 XML to a stream. The stream is not closed.
+     *
+     * @param out The stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (xml != null) {
+            out.write(xml);
+            return;
+        }
+        if (timings == null) {
+            serializer.write(element, out);
+            return;
+        }
+        // The assertion may have waited for the container since it was signed; that is not serializing
+        timings.resume();
+        try {
+            serializer.write(element, out);
+            timings.lap("serialize");
+            metrics.record(timings, SamlMetrics.SUCCESS);
+        } catch (RuntimeException e) {
+            metrics.record(timings, SamlMetrics.FAILURE);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the assertion to a stream, encoded for a SAML binding. The stream is not closed.
+     *
+     * @param out     The stream to write to
+     * @param binding The binding to encode the assertion for
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out, SamlBinding binding) throws IOException {
+        if (binding == SamlBinding.XML) {
+            writeTo(out);
+            return;
+        }
+        try (OutputStream encoded = SamlBindingCodec.encode(out, binding)) {
+            writeTo(encoded);
+        }
+    }
+
+    /**
+     * Returns the XML representation of the assertion.
+     *
+     * @return The assertion as an XML string
+     */
+    @Override
+    public String toString() {
+        return xml != null ? new String(xml, StandardCharsets.UTF_8) : serializer.toString(element);
+    }
+}
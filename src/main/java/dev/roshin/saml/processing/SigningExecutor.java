@@ -0,0 +1,236 @@
+package dev.roshin.saml.processing;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated executor for the CPU-heavy signing and signature verification work.
+ * <p>
+ * The pool has one thread per core by default, and admission is bounded by the number of threads plus
+ * {@code saml.signing.queue-capacity}. Single requests use {@link #callAsync(Callable)}, which fails fast
+ * with a {@link SigningOverloadedException} when that bound is reached, so excess load is shed instead of
+ * slowing every request down. Batches already limit the items they have in flight and use {@link #submit(Callable)}
+ * or {@link #execute(Runnable)}, which wait for capacity instead. Their admission is bounded separately, by
+ * the number of threads plus {@code saml.signing.batch-queue-capacity}, so waiting batches never take the
+ * capacity of single requests.
+ * <p>
+ * The queue depth, the time tasks wait before they start and the number of rejected requests are published
+ * as {@code saml.signing.queue.depth}, {@code saml.signing.wait} and {@code saml.signing.rejected}.
+ */
+@ApplicationScoped
+public class SigningExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SigningExecutor.class);
+
+    @Inject
+    @ConfigProperty(name = "saml.signing.threads", defaultValue = "0")
+    int threads;
+
+    @Inject
+    @ConfigProperty(name = "saml.signing.queue-capacity", defaultValue = "64")
+    int queueCapacity;
+
+    @Inject
+    @ConfigProperty(name = "saml.signing.batch-queue-capacity", defaultValue = "64")
+    int batchQueueCapacity;
+
+    @Inject
+    @ConfigProperty(name = "saml.signing.retry-after-seconds", defaultValue = "1")
+    long retryAfterSeconds;
+
+    @Inject
+    MetricRegistry registry;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private ThreadPoolExecutor pool;
+    private Semaphore permits;
+    private Semaphore batchPermits;
+    private Timer waitTimer;
+    private Counter rejected;
+
+    @PostConstruct
+    void init() {
+        start(threadFactory,
+                registry.timer(Metadata.builder()
+                        .withName("saml.signing.wait")
+                        .withDescription("Time signing and verification tasks wait before they start")
+                        .withUnit(MetricUnits.NANOSECONDS)
+                        .build()),
+                registry.counter(Metadata.builder()
+                        .withName("saml.signing.rejected")
+                        .withDescription("Requests rejected because the signing queue was full")
+                        .build()));
+        registry.gauge(Metadata.builder()
+                .withName("saml.signing.queue.depth")
+                .withDescription("Signing and verification tasks waiting for a thread")
+                .build(), this, SigningExecutor::queueDepth);
+        logger.info("Signing executor started with {} threads, a queue of {} and a batch queue of {}",
+                pool.getCorePoolSize(), queueCapacity, batchQueueCapacity);
+    }
+
+    /**
+     * Starts the pool. Separate from {@link #init()} so tests can run the executor without a container.
+     *
+     * @param threadFactory The factory of the pool's threads
+     * @param waitTimer     The timer of the time tasks wait before they start
+     * @param rejected      The counter of rejected requests
+     */
+    void start(ThreadFactory threadFactory, Timer waitTimer, Counter rejected) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                threadFactory);
+        permits = new Semaphore(poolSize + queueCapacity);
+        batchPermits = new Semaphore(poolSize + batchQueueCapacity);
+        this.waitTimer = waitTimer;
+        this.rejected = rejected;
+    }
+
+    @PreDestroy
+    void destroy() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs a task on the signing pool without waiting for it. Fails fast if the pool is saturated.
+     * <p>
+     * The returned future is completed by the signing thread, so callers compose on it instead of holding a
+     * thread of their own while the task waits and runs.
+     *
+     * @param task The task to run
+     * @param <T>  The result type
+     * @return A future completed with the task's result, or failed with its exception or a
+     * {@link SigningOverloadedException} if the queue is full
+     */
+    public <T> CompletableFuture<T> callAsync(Callable<T> task) {
+        if (!permits.tryAcquire()) {
+            rejected.inc();
+            return CompletableFuture.failedFuture(new SigningOverloadedException(retryAfterSeconds));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            start(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+                return null;
+            }, permits);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Submits a batch task to the signing pool, waiting for batch capacity if it is exhausted.
+     *
+     * @param task The task to run
+     * @param <T>  The result type
+     * @return The task's future
+     * @throws InterruptedException if interrupted while waiting for capacity
+     */
+    public <T> Future<T> submit(Callable<T> task) throws InterruptedException {
+        batchPermits.acquire();
+        return start(task, batchPermits);
+    }
+
+    /**
+     * Runs a batch task on the signing pool, waiting for batch capacity if it is exhausted.
+     *
+     * @param command The task to run
+     * @throws RejectedExecutionException if interrupted while waiting for capacity
+     */
+    @Override
+    public void execute(Runnable command) {
+        try {
+            submit(() -> {
+                command.run();
+                return null;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for signing capacity", e);
+        }
+    }
+
+    private <T> Callable<T> timed(Callable<T> task) {
+        long queued = System.nanoTime();
+        return () -> {
+            waitTimer.update(Duration.ofNanos(System.nanoTime() - queued));
+            return task.call();
+        };
+    }
+
+    /**
+     * Gets the number of tasks waiting for a thread.
+     *
+     * @return The queue depth
+     */
+    int queueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Starts a task that holds one of the given permits until it leaves the pool: when it has run, or when it
+     * is cancelled before a thread took it. Cancelling a running task does not release its permit, since the
+     * thread stays busy until the task notices the interrupt.
+     */
+    private <T> Future<T> start(Callable<T> task, Semaphore held) {
+        FutureTask<T> future = new FutureTask<>(timed(task)) {
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    held.release();
+                }
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                // A task still in the queue never runs, so it gives its permit back here
+                if (cancelled && pool.remove(this)) {
+                    held.release();
+                }
+                return cancelled;
+            }
+        };
+        try {
+            pool.execute(future);
+        } catch (RejectedExecutionException e) {
+            // Only after shutdown; the task never runs, so give the permit back here
+            held.release();
+            throw e;
+        }
+        return future;
+    }
+}
@@ -0,0 +1,28 @@
+package dev.roshin.saml.processing;
+
+/**
+ * Thrown when the signing executor's queue is full and a request is rejected instead of waiting.
+ */
+public class SigningOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * Creates an exception.
+     *
+     * @param retryAfterSeconds How long the client should wait before retrying
+     */
+    public SigningOverloadedException(long retryAfterSeconds) {
+        super("SAML signing capacity exhausted, retry after " + retryAfterSeconds + " seconds");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Gets how long the client should wait before retrying.
+     *
+     * @return The retry delay in seconds
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,19 @@
+package dev.roshin.saml.processing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A result that is produced while it is written, so it never has to be held in memory as a whole.
+ */
+@FunctionalInterface
+public interface StreamedResult {
+
+    /**
+     * Produces the result and writes it to a stream. The stream is not closed.
+     *
+     * @param out The stream to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -6,6 +6,9 @@ import java.util.Objects;
 /**
  * Represents an authorization with a namespace, action, and resource.
  * This class is used to define and manage authorization rules.
+ * <p>
+ * Instances returned by {@link AuthorizationPool#intern} are shared by every identity holding the same
+ * grant and are immutable; their setters throw {@link UnsupportedOperationException}.
  */
 public class Authorization implements Serializable {
     /**
@@ -20,6 +23,8 @@ public class Authorization implements Serializable {
     private String namespace;
     private String action;
     private String resource;
+    // 1-based ID in the AuthorizationPool, 0 if this instance is not interned
+    private final transient int poolId;
 
     /**
      * Default constructor. Initializes with null resource, default namespace, and default action.
@@ -55,9 +60,23 @@ public class Authorization implements Serializable {
      * @param action    The action to authorize
      */
     public Authorization(String resource, String namespace, String action) {
+        this(resource, namespace, action, 0);
+    }
+
+    Authorization(String resource, String namespace, String action, int poolId) {
         this.resource = resource;
         this.namespace = namespace;
         this.action = action;
+        this.poolId = poolId;
+    }
+
+    /**
+     * Gets the ID of this instance in the {@link AuthorizationPool}.
+     *
+     * @return The 1-based pool ID, or 0 if this instance is not interned
+     */
+    int getPoolId() {
+        return poolId;
     }
 
     /**
@@ -75,6 +94,7 @@ public class Authorization implements Serializable {
      * @param namespace The namespace to set
      */
     public void setNamespace(String namespace) {
+        checkMutable();
         this.namespace = namespace;
     }
 
@@ -93,6 +113,7 @@ public class Authorization implements Serializable {
      * @param action The action to set
      */
     public void setAction(String action) {
+        checkMutable();
         this.action = action;
     }
 
@@ -111,9 +132,16 @@ public class Authorization implements Serializable {
      * @param resource The resource to set
      */
     public void setResource(String resource) {
+        checkMutable();
         this.resource = resource;
     }
 
+    private void checkMutable() {
+        if (poolId != 0) {
+            throw new UnsupportedOperationException("Interned authorizations are immutable");
+        }
+    }
+
     /**
      * Returns a string representation of the Authorization object.
      *
@@ -0,0 +1,116 @@
+package dev.roshin.saml.processing.domain;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interning pool of {@link Authorization} values.
+ * <p>
+ * The set of distinct resource, namespace and action tuples is small and shared by many sessions, so each
+ * tuple is kept once and every identity refers to the same immutable instance. Interned instances also get a
+ * small integer ID, which {@link AuthorizationSet} stores instead of the instance. IDs are only meaningful within one
+ * JVM and are never serialized.
+ * <p>
+ * The pool never shrinks. Once it holds {@link #MAX_SIZE} tuples, {@link #intern} returns new, non-interned
+ * instances instead of growing further.
+ */
+public final class AuthorizationPool {
+
+    /**
+     * The maximum number of interned tuples.
+     */
+    public static final int MAX_SIZE = 65536;
+
+    private static final Map<Authorization, Authorization> POOL = new ConcurrentHashMap<>();
+    private static final Object lock = new Object();
+    // Index 0 is unused so that a pool ID of 0 can mean "not interned"
+    private static volatile Authorization[] byId = new Authorization[64];
+    private static int nextId = 1;
+
+    private AuthorizationPool() {
+    }
+
+    /**
+     * Gets the shared instance of an authorization.
+     *
+     * @param resource  The resource to authorize
+     * @param namespace The namespace of the authorization
+     * @param action    The action to authorize
+     * @return The interned instance, or a new non-interned instance if the pool is full
+     */
+    public static Authorization intern(String resource, String namespace, String action) {
+        return intern(new Authorization(resource, namespace, action));
+    }
+
+    /**
+     * Gets the shared instance equal to an authorization. The argument itself is never added to the pool.
+     *
+     * @param authorization The authorization to intern
+     * @return The interned instance, or a copy of the argument if the pool is full
+     */
+    public static Authorization intern(Authorization authorization) {
+        if (authorization.getPoolId() != 0) {
+            return authorization;
+        }
+        Authorization interned = POOL.get(authorization);
+        if (interned != null) {
+            return interned;
+        }
+        synchronized (lock) {
+            interned = POOL.get(authorization);
+            if (interned != null) {
+                return interned;
+            }
+            if (nextId > MAX_SIZE) {
+                return new Authorization(authorization.getResource(), authorization.getNamespace(),
+                        authorization.getAction());
+            }
+            int id = nextId++;
+            interned = new Authorization(authorization.getResource(), authorization.getNamespace(),
+                    authorization.getAction(), id);
+            Authorization[] table = byId;
+            if (id >= table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[id] = interned;
+            // Publish the entry before the map makes the ID reachable from other threads
+            byId = table;
+            POOL.put(interned, interned);
+            return interned;
+        }
+    }
+
+    /**
+     * Looks up the ID of an authorization without adding it to the pool.
+     *
+     * @param authorization The authorization to look up
+     * @return The 1-based pool ID, or 0 if no equal authorization is interned
+     */
+    static int idOf(Authorization authorization) {
+        if (authorization.getPoolId() != 0) {
+            return authorization.getPoolId();
+        }
+        Authorization interned = POOL.get(authorization);
+        return interned != null ? interned.getPoolId() : 0;
+    }
+
+    /**
+     * Gets an interned authorization by ID.
+     *
+     * @param id The 1-based pool ID
+     * @return The interned authorization
+     */
+    static Authorization get(int id) {
+        return byId[id];
+    }
+
+    /**
+     * Gets the number of interned tuples.
+     *
+     * @return The pool size
+     */
+    public static int size() {
+        return POOL.size();
+    }
+}
@@ -0,0 +1,215 @@
+package dev.roshin.saml.processing.domain;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable set of an identity's authorizations.
+ * <p>
+ * Members are interned through {@link AuthorizationPool} and stored as a sorted array of their pool IDs, so
+ * a set costs four bytes per member however large the pool grows, and {@link #contains} is a hash lookup
+ * plus a binary search. Authorizations the pool could not take, because it is full, are kept in a small
+ * overflow set. Like any set it holds each authorization once: duplicates are dropped.
+ * <p>
+ * Pool IDs are local to the JVM, so a serialized set holds the tuples and is rebuilt when read.
+ */
+public final class AuthorizationSet implements Iterable<Authorization>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The empty set.
+     */
+    public static final AuthorizationSet EMPTY = new AuthorizationSet(new int[0], Set.of());
+
+    // Sorted, without duplicates
+    private final transient int[] ids;
+    private final transient Set<Authorization> overflow;
+
+    private AuthorizationSet(int[] ids, Set<Authorization> overflow) {
+        this.ids = ids;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Creates a set of the given authorizations, interning them. Duplicates are dropped.
+     *
+     * @param authorizations The authorizations
+     * @return The set
+     */
+    public static AuthorizationSet of(Collection<Authorization> authorizations) {
+        if (authorizations.isEmpty()) {
+            return EMPTY;
+        }
+        int[] ids = new int[authorizations.size()];
+        int count = 0;
+        List<Authorization> overflow = null;
+        for (Authorization authorization : authorizations) {
+            Authorization interned = AuthorizationPool.intern(authorization);
+            int id = interned.getPoolId();
+            if (id == 0) {
+                if (overflow == null) {
+                    overflow = new ArrayList<>();
+                }
+                overflow.add(interned);
+                continue;
+            }
+            ids[count++] = id;
+        }
+        Arrays.sort(ids, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || ids[unique - 1] != ids[i]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        return new AuthorizationSet(unique == ids.length ? ids : Arrays.copyOf(ids, unique),
+                overflow != null ? Set.copyOf(overflow) : Set.of());
+    }
+
+    /**
+     * Checks whether the set contains an authorization equal to the given one.
+     *
+     * @param authorization The authorization to look for
+     * @return true if the set contains it
+     */
+    public boolean contains(Authorization authorization) {
+        int id = AuthorizationPool.idOf(authorization);
+        if (id != 0) {
+            return Arrays.binarySearch(ids, id) >= 0;
+        }
+        return !overflow.isEmpty() && overflow.contains(authorization);
+    }
+
+    /**
+     * Checks whether the set contains an authorization.
+     *
+     * @param resource  The resource
+     * @param namespace The namespace
+     * @param action    The action
+     * @return true if the set contains the authorization
+     */
+    public boolean contains(String resource, String namespace, String action) {
+        return contains(new Authorization(resource, namespace, action));
+    }
+
+    /**
+     * Gets the number of authorizations in the set.
+     *
+     * @return The size of the set
+     */
+    public int size() {
+        return ids.length + overflow.size();
+    }
+
+    /**
+     * Checks whether the set is empty.
+     *
+     * @return true if the set has no authorizations
+     */
+    public boolean isEmpty() {
+        return ids.length == 0 && overflow.isEmpty();
+    }
+
+    /**
+     * Iterates the authorizations in pool ID order, then the overflow.
+     *
+     * @return An iterator over the interned instances
+     */
+    @Override
+    public Iterator<Authorization> iterator() {
+        return new Iterator<>() {
+            private int next;
+            private final Iterator<Authorization> rest = overflow.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return next < ids.length || rest.hasNext();
+            }
+
+            @Override
+            public Authorization next() {
+                if (next < ids.length) {
+                    return AuthorizationPool.get(ids[next++]);
+                }
+                if (!rest.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    /**
+     * Indicates whether some other object is an AuthorizationSet with the same members.
+     *
+     * @param o The reference object with which to compare
+     * @return true if this object is the same as the o argument; false otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AuthorizationSet)) return false;
+        AuthorizationSet that = (AuthorizationSet) o;
+        return Arrays.equals(ids, that.ids) && overflow.equals(that.overflow);
+    }
+
+    /**
+     * Returns a hash code value for the object.
+     *
+     * @return A hash code value for this object
+     */
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(ids) + overflow.hashCode();
+    }
+
+    /**
+     * Returns a string representation of the AuthorizationSet object.
+     *
+     * @return A string representation of this AuthorizationSet
+     */
+    @Override
+    public String toString() {
+        List<Authorization> members = new ArrayList<>(size());
+        forEach(members::add);
+        return members.toString();
+    }
+
+    private Object writeReplace() {
+        List<Authorization> members = new ArrayList<>(size());
+        for (Authorization authorization : this) {
+            members.add(new Authorization(authorization.getResource(), authorization.getNamespace(),
+                    authorization.getAction()));
+        }
+        return new SerializedForm(members);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("AuthorizationSet is serialized through its serialized form");
+    }
+
+    /**
+     * Serialized form: the member tuples, interned again when read.
+     */
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final ArrayList<Authorization> members;
+
+        private SerializedForm(List<Authorization> members) {
+            this.members = new ArrayList<>(members);
+        }
+
+        private Object readResolve() {
+            return AuthorizationSet.of(members);
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package dev.roshin.saml.processing.domain;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable identity information, created through a {@link Builder}.
+ * <p>
+ * The well-known attributes from {@link IAttributeKeys} are stored in fixed slots of an array, so their
+ * getters are a single array read. Custom attributes are stored in two parallel arrays sorted by name and
+ * looked up by binary search. {@link #attributes()} and {@link #authorizations()} are read-only views, not
+ * copies. Attributes are always iterated in the same order: the well-known attributes in slot order, then
+ * the custom attributes by name. Authorizations are held as an {@link AuthorizationSet} of interned
+ * instances, so identities with the same grants share them and {@link #hasAuthorization} is a lookup plus
+ * a binary search. Being a set, it holds each authorization once: an authorization added twice to an
+ * {@link IdentityInfo} is listed twice by {@link IdentityInfo#getAuthorizations()} but once by
+ * {@link #authorizations()}.
+ * <p>
+ * {@link IdentityInfo} remains the mutable API and can be turned into an Identity with
+ * {@link IdentityInfo#toIdentity()}.
+ */
+public final class Identity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int USER_ID = 0;
+    static final int ISSUER = 1;
+    static final int REQUESTED_APPLICATION = 2;
+    static final int TRUST_LEVEL = 3;
+    static final int SESSION_ID = 4;
+    static final int SESSION_TOKEN = 5;
+    static final int IP_ADDRESS = 6;
+    static final int SUBJECT_IP = 7;
+    static final String[] SLOT_NAMES = {
+            IAttributeKeys.USER_ID,
+            IAttributeKeys.ISSUER,
+            IAttributeKeys.REQUESTED_APPLICATION,
+            IAttributeKeys.TRUST_LEVEL,
+            IAttributeKeys.SESSION_ID,
+            IAttributeKeys.SESSION_TOKEN,
+            IAttributeKeys.IP_ADDRESS,
+            IAttributeKeys.SUBJECT_IP,
+    };
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final String[] slots;
+    // Bit i is set when slot i holds an attribute, which may have a null value
+    private final int present;
+    private final String[] names;
+    private final String[] values;
+    private final AuthorizationSet grants;
+    private transient Map<String, List<Authorization>> authorizationsByResource;
+
+    private Identity(Builder builder) {
+        this.slots = builder.slots.clone();
+        this.present = builder.present;
+        if (builder.custom.isEmpty()) {
+            this.names = NO_STRINGS;
+            this.values = NO_STRINGS;
+        } else {
+            this.names = builder.custom.keySet().toArray(NO_STRINGS);
+            Arrays.sort(this.names);
+            this.values = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                values[i] = builder.custom.get(names[i]);
+            }
+        }
+        if (builder.authorizations.isEmpty()) {
+            this.grants = AuthorizationSet.EMPTY;
+        } else {
+            List<Authorization> all = new ArrayList<>();
+            builder.authorizations.values().forEach(all::addAll);
+            this.grants = AuthorizationSet.of(all);
+        }
+    }
+
+    /**
+     * Creates an empty builder.
+     *
+     * @return A new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a builder initialized with the attributes and authorizations of this identity. The builder
+     * holds mutable copies of the authorizations, not the interned instances.
+     *
+     * @return A new builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        System.arraycopy(slots, 0, builder.slots, 0, slots.length);
+        builder.present = present;
+        for (int i = 0; i < names.length; i++) {
+            builder.custom.put(names[i], values[i]);
+        }
+        for (Authorization authorization : grants) {
+            builder.authorization(authorization);
+        }
+        return builder;
+    }
+
+    /**
+     * Gets the user ID.
+     *
+     * @return The user ID
+     */
+    public String getUserId() {
+        return slots[USER_ID];
+    }
+
+    /**
+     * Gets the issuer.
+     *
+     * @return The issuer
+     */
+    public String getIssuer() {
+        return slots[ISSUER];
+    }
+
+    /**
+     * Gets the requested application.
+     *
+     * @return The requested application
+     */
+    public String getRequestedApplication() {
+        return slots[REQUESTED_APPLICATION];
+    }
+
+    /**
+     * Gets the trust level.
+     *
+     * @return The trust level
+     */
+    public String getTrustLevel() {
+        return slots[TRUST_LEVEL];
+    }
+
+    /**
+     * Gets the session ID.
+     *
+     * @return The session ID
+     */
+    public String getSessionId() {
+        return slots[SESSION_ID];
+    }
+
+    /**
+     * Gets the session token.
+     *
+     * @return The session token
+     */
+    public String getSessionToken() {
+        return slots[SESSION_TOKEN];
+    }
+
+    /**
+     * Gets the IP address.
+     *
+     * @return The IP address
+     */
+    public String getIpAddress() {
+        return slots[IP_ADDRESS];
+    }
+
+    /**
+     * Gets the subject IP.
+     *
+     * @return The subject IP
+     */
+    public String getSubjectIp() {
+        return slots[SUBJECT_IP];
+    }
+
+    /**
+     * Gets an attribute by name.
+     *
+     * @param name The name of the attribute
+     * @return The value of the attribute, or null if it is not set
+     */
+    public String getAttribute(String name) {
+        if (name == null) {
+            return null;
+        }
+        int slot = slot(name);
+        if (slot >= 0) {
+            return slots[slot];
+        }
+        int index = Arrays.binarySearch(names, name);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * Gets the number of attributes, well-known and custom.
+     *
+     * @return The number of attributes
+     */
+    public int getAttributeCount() {
+        return Integer.bitCount(present) + names.length;
+    }
+
+    /**
+     * Calls the action for every attribute, without creating a map or entries.
+     *
+     * @param action The action to call with each attribute name and value
+     */
+    public void forEachAttribute(BiConsumer<String, String> action) {
+        for (int i = 0; i < slots.length; i++) {
+            if ((present & (1 << i)) != 0) {
+                action.accept(SLOT_NAMES[i], slots[i]);
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            action.accept(names[i], values[i]);
+        }
+    }
+
+    /**
+     * Gets a read-only view of all attributes.
+     *
+     * @return An unmodifiable map backed by this identity
+     */
+    public Map<String, String> attributes() {
+        return new AttributeView();
+    }
+
+    /**
+     * Gets the authorizations.
+     *
+     * @return The set of interned authorizations
+     */
+    public AuthorizationSet grants() {
+        return grants;
+    }
+
+    /**
+     * Checks whether the identity holds an authorization.
+     *
+     * @param resource  The resource
+     * @param namespace The namespace
+     * @param action    The action
+     * @return true if the identity holds the authorization
+     */
+    public boolean hasAuthorization(String resource, String namespace, String action) {
+        return grants.contains(resource, namespace, action);
+    }
+
+    /**
+     * Gets a read-only view of the authorizations, grouped by resource. The grouping is built on first use.
+     *
+     * @return An unmodifiable map of unmodifiable lists
+     */
+    public Map<String, List<Authorization>> authorizations() {
+        Map<String, List<Authorization>> byResource = authorizationsByResource;
+        if (byResource == null) {
+            Map<String, List<Authorization>> grouped = new HashMap<>();
+            for (Authorization authorization : grants) {
+                grouped.computeIfAbsent(authorization.getResource(), k -> new ArrayList<>()).add(authorization);
+            }
+            grouped.replaceAll((resource, list) -> Collections.unmodifiableList(list));
+            byResource = Collections.unmodifiableMap(grouped);
+            authorizationsByResource = byResource;
+        }
+        return byResource;
+    }
+
+    /**
+     * Indicates whether some other object is an Identity with the same attributes and authorizations.
+     *
+     * @param o The reference object with which to compare
+     * @return true if this object is the same as the o argument; false otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Identity)) return false;
+        Identity that = (Identity) o;
+        return present == that.present && Arrays.equals(slots, that.slots) && Arrays.equals(names, that.names)
+                && Arrays.equals(values, that.values) && grants.equals(that.grants);
+    }
+
+    /**
+     * Returns a hash code value for the object.
+     *
+     * @return A hash code value for this object
+     */
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(slots) + Arrays.hashCode(names)) + Arrays.hashCode(values);
+    }
+
+    /**
+     * Returns a string representation of the Identity object.
+     *
+     * @return A string representation of this Identity
+     */
+    @Override
+    public String toString() {
+        return "Identity{" +
+                "attributes=" + attributes() +
+                ", authorizations=" + grants +
+                '}';
+    }
+
+    /**
+     * Gets the slot of a well-known attribute.
+     *
+     * @param name The attribute name
+     * @return The slot, or -1 if the name is not one of the {@link IAttributeKeys}
+     */
+    static int slot(String name) {
+        switch (name) {
+            case IAttributeKeys.USER_ID:
+                return USER_ID;
+            case IAttributeKeys.ISSUER:
+                return ISSUER;
+            case IAttributeKeys.REQUESTED_APPLICATION:
+                return REQUESTED_APPLICATION;
+            case IAttributeKeys.TRUST_LEVEL:
+                return TRUST_LEVEL;
+            case IAttributeKeys.SESSION_ID:
+                return SESSION_ID;
+            case IAttributeKeys.SESSION_TOKEN:
+                return SESSION_TOKEN;
+            case IAttributeKeys.IP_ADDRESS:
+                return IP_ADDRESS;
+            case IAttributeKeys.SUBJECT_IP:
+                return SUBJECT_IP;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Builds {@link Identity} instances. A builder can be reused; every {@link #build()} takes a snapshot.
+     */
+    public static final class Builder implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String[] slots = new String[SLOT_NAMES.length];
+        int present;
+        final Map<String, String> custom = new HashMap<>();
+        final Map<String, List<Authorization>> authorizations = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the user ID.
+         *
+         * @param userId The user ID
+         * @return This builder
+         */
+        public Builder userId(String userId) {
+            return set(USER_ID, userId);
+        }
+
+        /**
+         * Sets the issuer.
+         *
+         * @param issuer The issuer
+         * @return This builder
+         */
+        public Builder issuer(String issuer) {
+            return set(ISSUER, issuer);
+        }
+
+        /**
+         * Sets the requested application.
+         *
+         * @param requestedApplication The requested application
+         * @return This builder
+         */
+        public Builder requestedApplication(String requestedApplication) {
+            return set(REQUESTED_APPLICATION, requestedApplication);
+        }
+
+        /**
+         * Sets the trust level.
+         *
+         * @param trustLevel The trust level
+         * @return This builder
+         */
+        public Builder trustLevel(String trustLevel) {
+            return set(TRUST_LEVEL, trustLevel);
+        }
+
+        /**
+         * Sets the session ID.
+         *
+         * @param sessionId The session ID
+         * @return This builder
+         */
+        public Builder sessionId(String sessionId) {
+            return set(SESSION_ID, sessionId);
+        }
+
+        /**
+         * Sets the session token.
+         *
+         * @param sessionToken The session token
+         * @return This builder
+         */
+        public Builder sessionToken(String sessionToken) {
+            return set(SESSION_TOKEN, sessionToken);
+        }
+
+        /**
+         * Sets the IP address.
+         *
+         * @param ipAddress The IP address
+         * @return This builder
+         */
+        public Builder ipAddress(String ipAddress) {
+            return set(IP_ADDRESS, ipAddress);
+        }
+
+        /**
+         * Sets the subject IP.
+         *
+         * @param subjectIp The subject IP
+         * @return This builder
+         */
+        public Builder subjectIp(String subjectIp) {
+            return set(SUBJECT_IP, subjectIp);
+        }
+
+        /**
+         * Sets an attribute. Well-known names from {@link IAttributeKeys} go to their slot.
+         *
+         * @param name  The name of the attribute
+         * @param value The value of the attribute
+         * @return This builder
+         * @throws IllegalArgumentException if the name is null
+         */
+        public Builder attribute(String name, String value) {
+            if (name == null) {
+                throw new IllegalArgumentException("Attribute name must not be null");
+            }
+            int slot = slot(name);
+            if (slot >= 0) {
+                return set(slot, value);
+            }
+            custom.put(name, value);
+            return this;
+        }
+
+        /**
+         * Adds a copy of an authorization, grouped under its resource. The builder never holds the caller's
+         * instance, so later changes to it cannot move it out from under its group.
+         *
+         * @param authorization The authorization to add
+         * @return This builder
+         */
+        public Builder authorization(Authorization authorization) {
+            authorizations.computeIfAbsent(authorization.getResource(), k -> new ArrayList<>())
+                    .add(copyOf(authorization));
+            return this;
+        }
+
+        /**
+         * Builds an identity from the current state of the builder.
+         *
+         * @return A new immutable identity
+         */
+        public Identity build() {
+            return new Identity(this);
+        }
+
+        static Authorization copyOf(Authorization authorization) {
+            return new Authorization(authorization.getResource(), authorization.getNamespace(),
+                    authorization.getAction());
+        }
+
+        String get(String name) {
+            if (name == null) {
+                return null;
+            }
+            int slot = slot(name);
+            return slot >= 0 ? slots[slot] : custom.get(name);
+        }
+
+        int attributeCount() {
+            return Integer.bitCount(present) + custom.size();
+        }
+
+        void forEachAttribute(BiConsumer<String, String> action) {
+            for (int i = 0; i < slots.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    action.accept(SLOT_NAMES[i], slots[i]);
+                }
+            }
+            custom.forEach(action);
+        }
+
+        Map<String, String> copyAttributes() {
+            Map<String, String> copy = new HashMap<>(custom);
+            for (int i = 0; i < slots.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    copy.put(SLOT_NAMES[i], slots[i]);
+                }
+            }
+            return copy;
+        }
+
+        private Builder set(int slot, String value) {
+            slots[slot] = value;
+            present |= 1 << slot;
+            return this;
+        }
+    }
+
+    /**
+     * Read-only map view of the attributes.
+     */
+    private final class AttributeView extends AbstractMap<String, String> {
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getAttribute((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+            int slot = slot((String) key);
+            return slot >= 0 ? (present & (1 << slot)) != 0 : Arrays.binarySearch(names, key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return getAttributeCount();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new AttributeIterator();
+                }
+
+                @Override
+                public int size() {
+                    return getAttributeCount();
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterates the present slots, then the custom attributes.
+     */
+    private final class AttributeIterator implements Iterator<Map.Entry<String, String>> {
+        private int next = advance(0);
+
+        @Override
+        public boolean hasNext() {
+            return next < slots.length + names.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int current = next;
+            next = advance(current + 1);
+            return current < slots.length
+                    ? new AbstractMap.SimpleImmutableEntry<>(SLOT_NAMES[current], slots[current])
+                    : new AbstractMap.SimpleImmutableEntry<>(names[current - slots.length],
+                    values[current - slots.length]);
+        }
+
+        private int advance(int from) {
+            int index = from;
+            while (index < slots.length && (present & (1 << index)) == 0) {
+                index++;
+            }
+            return index;
+        }
+    }
+}
@@ -5,26 +5,51 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * Represents identity information, including attributes and authorizations.
  * This class is used to store and manage user identity data.
+ * <p>
+ * This is the mutable API on top of {@link Identity}: the data lives in an {@link Identity.Builder}, so the
+ * well-known attributes are array slots, and {@link #toIdentity()} returns an immutable snapshot that is
+ * kept until the next change. Code that only reads should use {@link #forEachAttribute(BiConsumer)} or the
+ * snapshot rather than {@link #getAttributes()}, which copies.
  */
 public class IdentityInfo implements Serializable {
     /**
      * The default issuer for identity information.
      */
     public static final String DEFAULT_ISSUER = "http://test.dev";
-    private static final long serialVersionUID = 1L;
-    private final Map<String, String> attributes;
-    private final Map<String, List<Authorization>> authorizations;
+    private static final long serialVersionUID = 2L;
+    private final Identity.Builder data;
+    private transient Identity snapshot;
 
     /**
-     * Default constructor. Initializes empty maps for attributes and authorizations.
+     * Default constructor. Initializes empty attributes and authorizations.
      */
     public IdentityInfo() {
-        this.attributes = new HashMap<>();
-        this.authorizations = new HashMap<>();
+        this.data = Identity.builder();
+    }
+
+    /**
+     * Copy constructor. Copies the attributes and authorizations of another IdentityInfo, so that changes
+     * to either object do not affect the other.
+     *
+     * @param other The IdentityInfo to copy
+     */
+    public IdentityInfo(IdentityInfo other) {
+        this(other.toIdentity());
+    }
+
+    /**
+     * Creates a mutable copy of an immutable identity.
+     *
+     * @param identity The identity to copy
+     */
+    public IdentityInfo(Identity identity) {
+        this.data = identity.toBuilder();
+        this.snapshot = identity;
     }
 
     /**
@@ -33,7 +58,7 @@ public class IdentityInfo implements Serializable {
      * @return The user ID
      */
     public String getUserId() {
-        return getAttribute(IAttributeKeys.USER_ID);
+        return data.slots[Identity.USER_ID];
     }
 
     /**
@@ -51,7 +76,7 @@ public class IdentityInfo implements Serializable {
      * @return The issuer
      */
     public String getIssuer() {
-        return getAttribute(IAttributeKeys.ISSUER);
+        return data.slots[Identity.ISSUER];
     }
 
     /**
@@ -69,7 +94,7 @@ public class IdentityInfo implements Serializable {
      * @return The subject IP
      */
     public String getSubjectIp() {
-        return getAttribute(IAttributeKeys.SUBJECT_IP);
+        return data.slots[Identity.SUBJECT_IP];
     }
 
     /**
@@ -87,7 +112,7 @@ public class IdentityInfo implements Serializable {
      * @return The trust level
      */
     public String getTrustLevel() {
-        return getAttribute(IAttributeKeys.TRUST_LEVEL);
+        return data.slots[Identity.TRUST_LEVEL];
     }
 
     /**
@@ -105,7 +130,7 @@ public class IdentityInfo implements Serializable {
      * @return The session ID
      */
     public String getSessionId() {
-        return getAttribute(IAttributeKeys.SESSION_ID);
+        return data.slots[Identity.SESSION_ID];
     }
 
     /**
@@ -123,7 +148,7 @@ public class IdentityInfo implements Serializable {
      * @return The session token
      */
     public String getSessionToken() {
-        return getAttribute(IAttributeKeys.SESSION_TOKEN);
+        return data.slots[Identity.SESSION_TOKEN];
     }
 
     /**
@@ -141,7 +166,7 @@ public class IdentityInfo implements Serializable {
      * @return The requested application
      */
     public String getRequestedApplication() {
-        return getAttribute(IAttributeKeys.REQUESTED_APPLICATION);
+        return data.slots[Identity.REQUESTED_APPLICATION];
     }
 
     /**
@@ -160,7 +185,7 @@ public class IdentityInfo implements Serializable {
      * @return The value of the attribute
      */
     public String getAttribute(String name) {
-        return attributes.get(name);
+        return data.get(name);
     }
 
     /**
@@ -168,18 +193,21 @@ public class IdentityInfo implements Serializable {
      *
      * @param name  The name of the attribute
      * @param value The value of the attribute
+     * @throws IllegalArgumentException if the name is null
      */
     public void addAttribute(String name, String value) {
-        attributes.put(name, value);
+        data.attribute(name, value);
+        snapshot = null;
     }
 
     /**
-     * Adds an authorization.
+     * Adds a copy of an authorization, so later changes to the given instance do not affect this identity.
      *
      * @param authorization The authorization to add
      */
     public void addAuthorization(Authorization authorization) {
-        authorizations.computeIfAbsent(authorization.getResource(), k -> new ArrayList<>()).add(authorization);
+        data.authorization(authorization);
+        snapshot = null;
     }
 
     /**
@@ -188,16 +216,66 @@ public class IdentityInfo implements Serializable {
      * @return A copy of the attributes map
      */
     public Map<String, String> getAttributes() {
-        return new HashMap<>(attributes);
+        return data.copyAttributes();
+    }
+
+    /**
+     * Calls the action for every attribute, without copying the attributes.
+     *
+     * @param action The action to call with each attribute name and value
+     */
+    public void forEachAttribute(BiConsumer<String, String> action) {
+        data.forEachAttribute(action);
+    }
+
+    /**
+     * Gets the number of attributes.
+     *
+     * @return The number of attributes
+     */
+    public int getAttributeCount() {
+        return data.attributeCount();
     }
 
     /**
      * Gets all authorizations.
      *
-     * @return A copy of the authorizations map
+     * @return A copy of the authorizations map, its lists and their authorizations
      */
     public Map<String, List<Authorization>> getAuthorizations() {
-        return new HashMap<>(authorizations);
+        Map<String, List<Authorization>> copy = new HashMap<>();
+        data.authorizations.forEach((resource, authorizations) -> {
+            List<Authorization> list = new ArrayList<>(authorizations.size());
+            authorizations.forEach(authorization -> list.add(Identity.Builder.copyOf(authorization)));
+            copy.put(resource, list);
+        });
+        return copy;
+    }
+
+    /**
+     * Checks whether the identity holds an authorization, using the set of the current snapshot.
+     *
+     * @param resource  The resource
+     * @param namespace The namespace
+     * @param action    The action
+     * @return true if the identity holds the authorization
+     */
+    public boolean hasAuthorization(String resource, String namespace, String action) {
+        return toIdentity().hasAuthorization(resource, namespace, action);
+    }
+
+    /**
+     * Gets an immutable snapshot of this identity. The snapshot is cached until the identity is changed.
+     *
+     * @return The immutable identity
+     */
+    public Identity toIdentity() {
+        Identity identity = snapshot;
+        if (identity == null) {
+            identity = data.build();
+            snapshot = identity;
+        }
+        return identity;
     }
 
     /**
@@ -208,8 +286,8 @@ public class IdentityInfo implements Serializable {
     @Override
     public String toString() {
         return "IdentityInfo{" +
-                "attributes=" + attributes +
-                ", authorizations=" + authorizations +
+                "attributes=" + data.copyAttributes() +
+                ", authorizations=" + data.authorizations +
                 '}';
     }
 }
\ No newline at end of file
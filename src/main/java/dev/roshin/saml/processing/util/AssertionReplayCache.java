@@ -0,0 +1,180 @@
+package dev.roshin.saml.processing.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Detects replayed assertions by remembering the IDs of accepted assertions until they expire.
+ * <p>
+ * IDs are stored as the first 128 bits of their SHA-256 digest next to the expiry time, three
+ * {@code long}s per slot in open-addressed tables, so an entry costs a few dozen bytes no matter how long
+ * the ID is and no per-entry objects are allocated. The tables are split into stripes selected by the
+ * digest, each guarded by its own monitor that is only held for a single probe sequence, so concurrent
+ * checks rarely contend. Expired slots are reused on insert and dropped when a stripe is resized.
+ */
+public class AssertionReplayCache {
+
+    private static final int SLOT_LONGS = 3;
+    private static final double MAX_LOAD = 0.6;
+    private static final int MIN_SLOTS = 64;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long defaultTtlMillis;
+
+    /**
+     * Creates a replay cache.
+     *
+     * @param expectedEntries The number of live IDs to size the tables for up front
+     * @param defaultTtl      How long to remember assertions that have no NotOnOrAfter condition
+     */
+    public AssertionReplayCache(int expectedEntries, Duration defaultTtl) {
+        int stripeCount = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors() * 4, 16) - 1) << 1;
+        this.stripes = new Stripe[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        this.defaultTtlMillis = defaultTtl.toMillis();
+        int slotsPerStripe = tableSize((int) (Math.max(expectedEntries, 1) / MAX_LOAD / stripeCount) + 1);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(slotsPerStripe);
+        }
+    }
+
+    /**
+     * Records an assertion ID unless it has been seen before and has not expired yet.
+     *
+     * @param assertionId  The assertion ID
+     * @param notOnOrAfter The end of the assertion's validity window, may be null
+     * @param now          The current time
+     * @return true if the ID is new, false if the assertion is a replay
+     */
+    public boolean checkAndRecord(String assertionId, Instant notOnOrAfter, Instant now) {
+        byte[] digest = sha256(assertionId);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        long nowMillis = now.toEpochMilli();
+        long expiry = notOnOrAfter != null ? notOnOrAfter.toEpochMilli() : nowMillis + defaultTtlMillis;
+        if (expiry <= nowMillis) {
+            // Nothing to remember; the assertion is rejected as expired anyway
+            return true;
+        }
+        return stripes[(int) (hi >>> 32) & stripeMask].checkAndRecord(hi, lo, expiry, nowMillis);
+    }
+
+    /**
+     * Gets the number of occupied slots, including expired IDs that have not been reclaimed yet.
+     *
+     * @return The number of remembered IDs
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static int tableSize(int slots) {
+        int size = MIN_SLOTS;
+        while (size < slots) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * One open-addressed table with linear probing. A slot is {hi, lo, expiry}; expiry 0 marks it empty.
+     */
+    private static final class Stripe {
+        private long[] table;
+        private int mask;
+        private int size;
+
+        private Stripe(int slots) {
+            this.table = new long[slots * SLOT_LONGS];
+            this.mask = slots - 1;
+        }
+
+        synchronized boolean checkAndRecord(long hi, long lo, long expiry, long now) {
+            if (size + 1 > (mask + 1) * MAX_LOAD) {
+                rehash(now);
+            }
+            int reusable = -1;
+            int slot = (int) lo & mask;
+            while (true) {
+                int base = slot * SLOT_LONGS;
+                long slotExpiry = table[base + 2];
+                if (slotExpiry == 0) {
+                    if (reusable < 0) {
+                        store(base, hi, lo, expiry);
+                        size++;
+                    } else {
+                        store(reusable, hi, lo, expiry);
+                    }
+                    return true;
+                }
+                if (table[base] == hi && table[base + 1] == lo) {
+                    if (slotExpiry > now) {
+                        return false;
+                    }
+                    table[base + 2] = expiry;
+                    return true;
+                }
+                if (slotExpiry <= now && reusable < 0) {
+                    reusable = base;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void store(int base, long hi, long lo, long expiry) {
+            table[base] = hi;
+            table[base + 1] = lo;
+            table[base + 2] = expiry;
+        }
+
+        private void rehash(long now) {
+            long[] old = table;
+            int live = 0;
+            for (int base = 0; base < old.length; base += SLOT_LONGS) {
+                if (old[base + 2] > now) {
+                    live++;
+                }
+            }
+            int slots = tableSize((int) ((live + 1) / MAX_LOAD * 2));
+            table = new long[slots * SLOT_LONGS];
+            mask = slots - 1;
+            size = 0;
+            for (int base = 0; base < old.length; base += SLOT_LONGS) {
+                if (old[base + 2] > now) {
+                    int slot = (int) old[base + 1] & mask;
+                    while (table[slot * SLOT_LONGS + 2] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    store(slot * SLOT_LONGS, old[base], old[base + 1], old[base + 2]);
+                    size++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dev.roshin.saml.processing.util;
+
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.Element;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSOutput;
+import org.w3c.dom.ls.LSSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes marshalled SAML elements as UTF-8 straight to an {@link OutputStream}.
+ * <p>
+ * The DOM Level 3 Load and Save serializer is taken from the element's own DOM implementation, so no
+ * {@code TransformerFactory} lookup happens per call. Output is compact by default. Pretty-printing is
+ * meant for debugging only: the added whitespace changes the canonical form of the signed element and
+ * makes its signature invalid.
+ */
+public final class AssertionSerializer {
+
+    /**
+     * Serializer writing compact output. This is the one to use for anything that is verified later.
+     */
+    public static final AssertionSerializer COMPACT = new AssertionSerializer(false);
+
+    /**
+     * Serializer writing indented output, for debugging only.
+     */
+    public static final AssertionSerializer PRETTY = new AssertionSerializer(true);
+
+    private final boolean prettyPrint;
+
+    private AssertionSerializer(boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+    }
+
+    /**
+     * Checks whether this serializer indents its output.
+     *
+     * @return true if the output is pretty-printed
+     */
+    public boolean isPrettyPrint() {
+        return prettyPrint;
+    }
+
+    /**
+     * Writes an element and its subtree as UTF-8 to the given stream. The stream is not closed.
+     *
+     * @param element The element to serialize
+     * @param out     The stream to write to
+     * @throws org.w3c.dom.ls.LSException if serialization fails
+     */
+    public void write(Element element, OutputStream out) {
+        DOMImplementationLS domImplementation = (DOMImplementationLS) element.getOwnerDocument()
+                .getImplementation().getFeature("LS", "3.0");
+        LSSerializer serializer = domImplementation.createLSSerializer();
+        DOMConfiguration config = serializer.getDomConfig();
+        if (prettyPrint) {
+            config.setParameter("format-pretty-print", Boolean.TRUE);
+        }
+        LSOutput output = domImplementation.createLSOutput();
+        output.setEncoding(StandardCharsets.UTF_8.name());
+        output.setByteStream(out);
+        serializer.write(element, output);
+    }
+
+    /**
+     * Serializes an element and its subtree to a string.
+     *
+     * @param element The element to serialize
+     * @return The XML representation of the element
+     */
+    public String toString(Element element) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        write(element, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
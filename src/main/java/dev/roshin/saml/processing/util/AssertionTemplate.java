@@ -0,0 +1,188 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.Identity;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.apache.xml.security.transforms.params.InclusiveNamespaces;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.*;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import java.security.PrivateKey;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+/**
+ * Precompiled DOM skeleton of the assertions issued for one provider.
+ * <p>
+ * Every assertion has the same shape: Issuer, Subject with a NameID, Conditions and an AttributeStatement.
+ * The skeleton is marshalled once through OpenSAML when the template is created, so its element names,
+ * namespace declarations and attribute order are exactly those of the builder path; attribute values and
+ * the signature are written in the form OpenSAML writes them. Generating an assertion clones the skeleton,
+ * fills in the ID, instants, issuer, NameID and attributes, and signs the element directly with Santuario
+ * using the context's signing parameters. No XMLObject tree is built per assertion.
+ * <p>
+ * DOM implementations do not promise thread-safe reads, so every thread clones its own copy of the
+ * skeleton once and generates from that copy afterwards, without taking a lock.
+ */
+final class AssertionTemplate {
+
+    // The prefix OpenSAML declares for the xsi:type of an XSString value
+    private static final String XS_PREFIX = XSString.TYPE_NAME.getPrefix();
+    private static final String XSI_TYPE = XS_PREFIX + ":" + XSString.TYPE_LOCAL_NAME;
+    private static final String XSI_PREFIX = "xsi";
+
+    private final Document skeleton;
+    private final ThreadLocal<Document> threadSkeletons = ThreadLocal.withInitial(this::copySkeleton);
+    private final PrivateKey signingKey;
+    private final String signatureAlgorithm;
+    private final String canonicalizationAlgorithm;
+    private final String digestAlgorithm;
+
+    /**
+     * Creates the template of a fully constructed generation context. OpenSAML must be initialized before
+     * this is called.
+     *
+     * @param context The generation context whose builders and signing parameters are used
+     * @throws MarshallingException if the skeleton cannot be marshalled
+     */
+    AssertionTemplate(SamlGenerationContext context) throws MarshallingException {
+        this.skeleton = buildSkeleton(context).getOwnerDocument();
+        SignatureSigningParameters parameters = context.getSigningParameters();
+        this.signingKey = context.getSigningCredential().getPrivateKey();
+        this.signatureAlgorithm = parameters.getSignatureAlgorithm();
+        this.canonicalizationAlgorithm = parameters.getSignatureCanonicalizationAlgorithm();
+        this.digestAlgorithm = parameters.getSignatureReferenceDigestMethod();
+    }
+
+    /**
+     * Generates a signed assertion element.
+     *
+     * @param identity The identity information to include in the assertion
+     * @param timings  The timings to add the build and sign stages to
+     * @return The signed assertion element, the root of its own document
+     * @throws XMLSecurityException if signing fails
+     */
+    Element generate(Identity identity, StageTimings timings) throws XMLSecurityException {
+        Document document = (Document) threadSkeletons.get().cloneNode(true);
+        Element assertion = document.getDocumentElement();
+        Element issuer = firstElement(assertion);
+        Element subject = nextElement(issuer);
+        Element nameId = firstElement(subject);
+        Element conditions = nextElement(subject);
+        Element attributeStatement = nextElement(conditions);
+
+        String id = "_" + UUID.randomUUID();
+        Instant now = Instant.now();
+        assertion.setAttributeNS(null, Assertion.ID_ATTRIB_NAME, id);
+        assertion.setIdAttributeNS(null, Assertion.ID_ATTRIB_NAME, true);
+        assertion.setAttributeNS(null, Assertion.ISSUE_INSTANT_ATTRIB_NAME, format(now));
+        issuer.setTextContent(identity.getIssuer());
+        nameId.setTextContent(identity.getUserId());
+        conditions.setAttributeNS(null, Conditions.NOT_BEFORE_ATTRIB_NAME, format(now));
+        conditions.setAttributeNS(null, Conditions.NOT_ON_OR_AFTER_ATTRIB_NAME,
+                format(now.plus(5, ChronoUnit.MINUTES)));
+        identity.forEachAttribute((name, value) -> attributeStatement.appendChild(attributeElement(document, name, value)));
+        timings.lap("build");
+
+        sign(document, assertion, issuer, id);
+        timings.lap("sign");
+        return assertion;
+    }
+
+    private void sign(Document document, Element assertion, Element issuer, String id) throws XMLSecurityException {
+        XMLSignature signature = new XMLSignature(document, null, signatureAlgorithm, canonicalizationAlgorithm);
+        // The SAML schema requires the signature to directly follow the Issuer
+        assertion.insertBefore(signature.getElement(), issuer.getNextSibling());
+
+        Transforms transforms = new Transforms(document);
+        transforms.addTransform(Transforms.TRANSFORM_ENVELOPED_SIGNATURE);
+        // The XML Schema prefix is only used in xsi:type values, which exclusive canonicalization does not see
+        transforms.addTransform(Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS,
+                new InclusiveNamespaces(document, XS_PREFIX).getElement());
+        signature.addDocument("#" + id, transforms, digestAlgorithm);
+        signature.sign(signingKey);
+    }
+
+    private Document copySkeleton() {
+        // Only taken once per thread; the shared skeleton itself is never modified
+        synchronized (skeleton) {
+            return (Document) skeleton.cloneNode(true);
+        }
+    }
+
+    private static Element buildSkeleton(SamlGenerationContext context) throws MarshallingException {
+        Assertion assertion = context.assertionBuilder.buildObject(Assertion.DEFAULT_ELEMENT_NAME);
+        Instant placeholder = Instant.EPOCH;
+        assertion.setID("_");
+        assertion.setIssueInstant(placeholder);
+        assertion.setIssuer(context.issuerBuilder.buildObject(Issuer.DEFAULT_ELEMENT_NAME));
+
+        Subject subject = context.subjectBuilder.buildObject(Subject.DEFAULT_ELEMENT_NAME);
+        NameID nameID = context.nameIdBuilder.buildObject(NameID.DEFAULT_ELEMENT_NAME);
+        nameID.setFormat(NameIDType.UNSPECIFIED);
+        subject.setNameID(nameID);
+        assertion.setSubject(subject);
+
+        Conditions conditions = context.conditionsBuilder.buildObject(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(placeholder);
+        conditions.setNotOnOrAfter(placeholder);
+        assertion.setConditions(conditions);
+        assertion.getAttributeStatements().add(
+                context.attributeStatementBuilder.buildObject(AttributeStatement.DEFAULT_ELEMENT_NAME));
+        return XMLObjectSupport.marshall(assertion);
+    }
+
+    /**
+     * Creates an Attribute element in the form OpenSAML marshals an attribute with one {@link XSString}
+     * AttributeValue, declaring the xs and xsi prefixes on the value.
+     */
+    private static Element attributeElement(Document document, String name, String value) {
+        String prefix = SAMLConstants.SAML20_PREFIX + ":";
+        Element attribute = document.createElementNS(SAMLConstants.SAML20_NS, prefix + Attribute.DEFAULT_ELEMENT_LOCAL_NAME);
+        attribute.setAttributeNS(null, Attribute.NAME_ATTTRIB_NAME, name);
+
+        Element attributeValue = document.createElementNS(SAMLConstants.SAML20_NS,
+                prefix + AttributeValue.DEFAULT_ELEMENT_LOCAL_NAME);
+        attributeValue.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:" + XS_PREFIX,
+                XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        attributeValue.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:" + XSI_PREFIX,
+                XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+        attributeValue.setAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, XSI_PREFIX + ":type", XSI_TYPE);
+        if (value != null) {
+            attributeValue.setTextContent(value);
+        }
+        attribute.appendChild(attributeValue);
+        return attribute;
+    }
+
+    private static String format(Instant instant) {
+        return DateTimeFormatter.ISO_INSTANT.format(instant.truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    private static Element firstElement(Element parent) {
+        Node node = parent.getFirstChild();
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        return (Element) node;
+    }
+
+    private static Element nextElement(Element element) {
+        Node node = element.getNextSibling();
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        return (Element) node;
+    }
+}
@@ -0,0 +1,241 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.security.x509.BasicX509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Registry of signing credentials keyed by provider ID and key alias.
+ * <p>
+ * Each keystore is opened and decrypted once through {@link KeystoreUtil#init(String, String, String)} and
+ * the resulting credential is handed out from memory afterwards. The keystore files are watched for
+ * changes; when one changes, the new credential is loaded on the watcher thread and swapped into the
+ * registry with a single map update. Readers never take a lock and always see either the old or the new,
+ * fully loaded credential. If a reload fails, the previous credential stays in use.
+ * <p>
+ * Registration locks only the provider and alias being loaded, so a slow keystore never holds up the
+ * first use of another one. The watcher thread comes from the factory given to the constructor, which in
+ * the container is a managed thread factory.
+ */
+public class CredentialRegistry implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CredentialRegistry.class);
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    // One lock per provider and alias, held while its keystore is loaded for the first time
+    private final Map<Key, Object> registrationLocks = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final ThreadFactory threadFactory;
+    // Guards the watch service, which is only touched when a keystore is registered and on close
+    private final Object watchLock = new Object();
+    private WatchService watchService;
+    private volatile boolean closed;
+
+    /**
+     * Creates a registry.
+     *
+     * @param threadFactory The factory of the thread that watches the keystore files
+     */
+    public CredentialRegistry(ThreadFactory threadFactory) {
+        this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory");
+    }
+
+    /**
+     * Gets the credential of a provider, loading the keystore on first use.
+     * Once a provider and alias are registered, later calls return the cached credential and the keystore
+     * arguments are ignored.
+     *
+     * @param providerId       The provider ID
+     * @param keystorePath     Path to the keystore file
+     * @param keystorePassword Password for the keystore and the key entry
+     * @param keyAlias         Alias of the key entry
+     * @return The cached credential
+     * @throws Exception if the keystore cannot be loaded on first use
+     */
+    public BasicX509Credential getCredential(String providerId, String keystorePath, String keystorePassword,
+                                             String keyAlias) throws Exception {
+        Key key = new Key(providerId, keyAlias);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry.credential;
+        }
+        if (closed) {
+            throw new IllegalStateException("Credential registry is closed");
+        }
+        synchronized (registrationLocks.computeIfAbsent(key, k -> new Object())) {
+            entry = entries.get(key);
+            if (entry == null) {
+                Path path = Paths.get(keystorePath).toAbsolutePath();
+                entry = load(path, keystorePassword, keyAlias);
+                entries.put(key, entry);
+                try {
+                    watch(path.getParent());
+                } catch (IOException e) {
+                    logger.warn("Cannot watch {} for keystore changes, {} will not be reloaded automatically",
+                            path.getParent(), path, e);
+                }
+                logger.info("Registered credential for provider {} and alias {} from {}", providerId, keyAlias, path);
+            }
+            return entry.credential;
+        }
+    }
+
+    /**
+     * Gets a previously registered credential.
+     *
+     * @param providerId The provider ID
+     * @param keyAlias   Alias of the key entry
+     * @return The cached credential, or null if none is registered for the provider and alias
+     */
+    public BasicX509Credential getCredential(String providerId, String keyAlias) {
+        Entry entry = entries.get(new Key(providerId, keyAlias));
+        return entry != null ? entry.credential : null;
+    }
+
+    /**
+     * Reloads every registered keystore that has changed on disk since it was last loaded.
+     * Called by the watcher thread, but can also be called directly, for example from a scheduled task on
+     * file systems that do not deliver change events.
+     */
+    public void reloadChanged() {
+        for (Map.Entry<Key, Entry> mapEntry : entries.entrySet()) {
+            Entry current = mapEntry.getValue();
+            String stamp;
+            try {
+                stamp = stamp(current.path);
+            } catch (IOException e) {
+                logger.warn("Cannot read keystore {}, keeping the current credential", current.path, e);
+                continue;
+            }
+            if (stamp.equals(current.stamp)) {
+                continue;
+            }
+            try {
+                Entry reloaded = load(current.path, current.password, mapEntry.getKey().alias);
+                if (entries.replace(mapEntry.getKey(), current, reloaded)) {
+                    logger.info("Reloaded credential for provider {} and alias {} from {}",
+                            mapEntry.getKey().providerId, mapEntry.getKey().alias, current.path);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to reload keystore {}, keeping the current credential", current.path, e);
+            }
+        }
+    }
+
+    /**
+     * Stops watching the keystore files. Cached credentials stay readable.
+     */
+    @Override
+    public void close() {
+        synchronized (watchLock) {
+            closed = true;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close keystore watch service", e);
+                }
+            }
+        }
+    }
+
+    private Entry load(Path path, String password, String alias) throws Exception {
+        // Take the stamp before reading, so a write racing with the load triggers another reload
+        String stamp = stamp(path);
+        BasicX509Credential credential = KeystoreUtil.init(path.toString(), password, alias);
+        return new Entry(path, password, credential, stamp);
+    }
+
+    private static String stamp(Path path) throws IOException {
+        return Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path);
+    }
+
+    private void watch(Path directory) throws IOException {
+        synchronized (watchLock) {
+            if (closed || directory == null || !watchedDirectories.add(directory)) {
+                return;
+            }
+            if (watchService == null) {
+                WatchService service = FileSystems.getDefault().newWatchService();
+                Thread watcher = threadFactory.newThread(() -> watchLoop(service));
+                if (watcher == null) {
+                    service.close();
+                    throw new IOException("No thread available to watch keystores");
+                }
+                watcher.setName("saml-keystore-watcher");
+                watcher.start();
+                watchService = service;
+            }
+            // Kubernetes mounts secrets through symlink swaps, so react to any change in the directory
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        try {
+            while (!closed) {
+                WatchKey watchKey = service.take();
+                watchKey.pollEvents();
+                watchKey.reset();
+                reloadChanged();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Registry closed
+        }
+    }
+
+    private static final class Key {
+        private final String providerId;
+        private final String alias;
+
+        private Key(String providerId, String alias) {
+            this.providerId = Objects.requireNonNull(providerId, "providerId");
+            this.alias = Objects.requireNonNull(alias, "alias");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return providerId.equals(that.providerId) && alias.equals(that.alias);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * providerId.hashCode() + alias.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        private final Path path;
+        private final String password;
+        private final BasicX509Credential credential;
+        private final String stamp;
+
+        private Entry(Path path, String password, BasicX509Credential credential, String stamp) {
+            this.path = path;
+            this.password = password;
+            this.credential = credential;
+            this.stamp = stamp;
+        }
+    }
+}
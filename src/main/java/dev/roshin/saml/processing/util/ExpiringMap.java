@@ -0,0 +1,149 @@
+package dev.roshin.saml.processing.util;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map whose entries expire at an instant given when they are added, bounded by its number of entries and
+ * by the total weight of their values.
+ * <p>
+ * Lookups only read a {@link ConcurrentHashMap}. Every change is made under one lock, which also keeps the
+ * entries in expiry order, so the caches built on this map should only add entries after expensive work
+ * such as signing or verifying. Expired entries are swept whenever an entry is added, and when either
+ * limit is reached the entries that expire first are evicted first.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class ExpiringMap<K, V> {
+
+    private static final Comparator<Node<?, ?>> EXPIRY_ORDER =
+            Comparator.comparing((Node<?, ?> node) -> node.expiresAt).thenComparingLong(node -> node.sequence);
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Map<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+    // Guards every change to the map and the fields below
+    private final NavigableSet<Node<K, V>> expiryOrder = new TreeSet<>(EXPIRY_ORDER);
+    private long sequence;
+    private volatile long weight;
+
+    /**
+     * Creates a map bounded by its number of entries only.
+     *
+     * @param maxEntries The maximum number of entries
+     */
+    ExpiringMap(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a map bounded by its number of entries and their total weight.
+     *
+     * @param maxEntries The maximum number of entries
+     * @param maxWeight  The maximum total weight of the entries
+     */
+    ExpiringMap(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Looks up a value that has not expired, and removes it if it has.
+     *
+     * @param key The key
+     * @param now The current time, or a later one to treat entries expiring before it as expired
+     * @return The value, or null if there is none or it expired
+     */
+    V get(K key, Instant now) {
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (!now.isBefore(node.expiresAt)) {
+            remove(node);
+            return null;
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds a value, replacing any value with the same key, drops the entries that expired and evicts the
+     * entries that expire first until both limits hold.
+     *
+     * @param key       The key
+     * @param value     The value
+     * @param expiresAt The instant the value expires at
+     * @param weight    The weight of the value
+     * @param now       The current time
+     */
+    void put(K key, V value, Instant expiresAt, long weight, Instant now) {
+        synchronized (expiryOrder) {
+            Node<K, V> node = new Node<>(key, value, expiresAt, weight, sequence++);
+            Node<K, V> replaced = entries.put(key, node);
+            if (replaced != null) {
+                expiryOrder.remove(replaced);
+                this.weight -= replaced.weight;
+            }
+            expiryOrder.add(node);
+            this.weight += weight;
+
+            Node<K, V> first;
+            while ((first = expiryOrder.pollFirst()) != null) {
+                if (now.isBefore(first.expiresAt) && entries.size() <= maxEntries && this.weight <= maxWeight) {
+                    expiryOrder.add(first);
+                    break;
+                }
+                entries.remove(first.key, first);
+                this.weight -= first.weight;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries, including expired ones that were not swept yet.
+     *
+     * @return The number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total weight of the entries.
+     *
+     * @return The weight
+     */
+    long weight() {
+        return weight;
+    }
+
+    private void remove(Node<K, V> node) {
+        synchronized (expiryOrder) {
+            if (entries.remove(node.key, node)) {
+                expiryOrder.remove(node);
+                weight -= node.weight;
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final Instant expiresAt;
+        private final long weight;
+        private final long sequence;
+
+        private Node(K key, V value, Instant expiresAt, long weight, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+            this.sequence = sequence;
+        }
+    }
+}
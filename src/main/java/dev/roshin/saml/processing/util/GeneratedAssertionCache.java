@@ -0,0 +1,171 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.Identity;
+import dev.roshin.saml.processing.domain.IdentityInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Bounded cache of signed, serialized assertions, reused for repeated requests of the same session.
+ * <p>
+ * Entries are keyed by provider, signing credential, session ID, user ID and requested application, plus a
+ * SHA-256 fingerprint of all identity attributes, so an assertion is only reused for a request that would
+ * produce the same content. An entry is handed out while at least a minimum validity remains and is
+ * replaced by a freshly signed assertion once it gets closer to its {@code NotOnOrAfter}.
+ * <p>
+ * A reused assertion carries the same ID every time, so it must only be enabled for providers whose
+ * service providers do not enforce one-time use of assertion IDs.
+ * <p>
+ * Expired entries are swept whenever an assertion is added, and beyond the maximum number of entries the
+ * assertions that expire first are evicted first. Adding only follows signing an assertion, so the lock of
+ * the {@link ExpiringMap} is rarely contended.
+ */
+public class GeneratedAssertionCache {
+
+    private final ExpiringMap<Key, byte[]> entries;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries The maximum number of cached assertions
+     */
+    public GeneratedAssertionCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.entries = new ExpiringMap<>(maxEntries);
+    }
+
+    /**
+     * Computes the cache key of a generate request.
+     *
+     * @param context      The generation context the assertion is signed with
+     * @param identityInfo The identity the assertion is generated for
+     * @return The cache key, or null if the identity has no session ID and must not be reused
+     */
+    public static Key key(SamlGenerationContext context, IdentityInfo identityInfo) {
+        return key(context, identityInfo.toIdentity());
+    }
+
+    /**
+     * Computes the cache key of a generate request from an identity snapshot.
+     *
+     * @param context  The generation context the assertion is signed with
+     * @param identity The identity the assertion is generated for
+     * @return The cache key, or null if the identity has no session ID and must not be reused
+     */
+    public static Key key(SamlGenerationContext context, Identity identity) {
+        if (identity.getSessionId() == null) {
+            return null;
+        }
+        return new Key(context.getProviderId(), context.getSigningCredential(), identity.getSessionId(),
+                identity.getUserId(), identity.getRequestedApplication(), fingerprint(identity));
+    }
+
+    /**
+     * Looks up a reusable assertion.
+     *
+     * @param key          The cache key
+     * @param now          The current time
+     * @param minRemaining The validity the assertion must still have to be reused
+     * @return The serialized assertion, or null if none is cached or it expires too soon
+     */
+    public byte[] get(Key key, Instant now, Duration minRemaining) {
+        // An assertion that expires too soon is dropped, so the next request signs a fresh one
+        return entries.get(key, now.plus(minRemaining));
+    }
+
+    /**
+     * Adds a signed assertion, replacing any entry with the same key, and drops the entries that expired.
+     *
+     * @param key          The cache key
+     * @param assertion    The serialized assertion, which must not be modified afterwards
+     * @param notOnOrAfter The end of the assertion's validity window
+     */
+    public void put(Key key, byte[] assertion, Instant notOnOrAfter) {
+        put(key, assertion, notOnOrAfter, Instant.now());
+    }
+
+    void put(Key key, byte[] assertion, Instant notOnOrAfter, Instant now) {
+        entries.put(key, assertion, notOnOrAfter, 0, now);
+    }
+
+    /**
+     * Gets the number of cached assertions.
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static byte[] fingerprint(Identity identity) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        // Identity iterates attributes in a fixed order, so equal attribute sets give equal fingerprints
+        identity.forEachAttribute((name, value) -> {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (value != null) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            } else {
+                digest.update((byte) 1);
+            }
+        });
+        return digest.digest();
+    }
+
+    /**
+     * Cache key: the request's provider, signer, session, user, application and attribute fingerprint.
+     */
+    public static final class Key {
+        private final String providerId;
+        private final Object signer;
+        private final String sessionId;
+        private final String userId;
+        private final String requestedApplication;
+        private final byte[] fingerprint;
+        private final int hash;
+
+        private Key(String providerId, Object signer, String sessionId, String userId, String requestedApplication,
+                    byte[] fingerprint) {
+            this.providerId = providerId;
+            this.signer = signer;
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.requestedApplication = requestedApplication;
+            this.fingerprint = fingerprint;
+            this.hash = Objects.hash(providerId, sessionId, userId, requestedApplication) * 31 + Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            // The signer is compared by identity, so a reloaded credential never reuses old assertions
+            return signer == that.signer
+                    && Objects.equals(providerId, that.providerId)
+                    && sessionId.equals(that.sessionId)
+                    && Objects.equals(userId, that.userId)
+                    && Objects.equals(requestedApplication, that.requestedApplication)
+                    && Arrays.equals(fingerprint, that.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.Authorization;
+import dev.roshin.saml.processing.domain.IAttributeKeys;
+import dev.roshin.saml.processing.domain.IdentityInfo;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact binary encoding of {@link IdentityInfo}, for session stores and caches where Java serialization
+ * is too slow and too large.
+ * <p>
+ * An encoded identity is a version byte followed by the attribute count and the attributes as key/value
+ * pairs, then the number of authorization resources and, per resource, the resource, the number of
+ * authorizations and each authorization's flags, namespace, action and, if it differs from the map key,
+ * resource. Counts are unsigned varints. A string is a varint tag: {@code 0} for null, {@code (i << 1) | 1}
+ * for entry {@code i} of the dictionary of well-known strings (the {@link IAttributeKeys} constants and the
+ * {@link Authorization} defaults), or {@code (n + 1) << 1} followed by {@code n} bytes of UTF-8.
+ * <p>
+ * Decoding reads straight from the {@link ByteBuffer}, heap or direct, without copying it first, returns
+ * the shared constants for dictionary strings and creates plain, mutable authorizations, as the parser
+ * does. An authorization whose resource differed from its group's key when it was encoded is grouped under
+ * its own resource when it is decoded. The dictionary may only be appended to, so data written by an older
+ * version stays readable.
+ */
+public final class IdentityInfoCodec {
+
+    /**
+     * Format version written as the first byte.
+     */
+    public static final int VERSION = 1;
+
+    private static final String[] DICTIONARY = {
+            IAttributeKeys.USER_ID,
+            IAttributeKeys.ISSUER,
+            IAttributeKeys.REQUESTED_APPLICATION,
+            IAttributeKeys.TRUST_LEVEL,
+            IAttributeKeys.SESSION_ID,
+            IAttributeKeys.SESSION_TOKEN,
+            IAttributeKeys.IP_ADDRESS,
+            IAttributeKeys.SUBJECT_IP,
+            Authorization.DEFAULT_NAMESPACE,
+            Authorization.DEFAULT_ACTION,
+    };
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; i++) {
+            DICTIONARY_INDEX.putIfAbsent(DICTIONARY[i], i);
+        }
+    }
+
+    private static final int RESOURCE_IS_KEY = 1;
+
+    private IdentityInfoCodec() {
+    }
+
+    /**
+     * Encodes an identity.
+     *
+     * @param identityInfo The identity to encode
+     * @return The encoded identity
+     */
+    public static byte[] encode(IdentityInfo identityInfo) {
+        Writer writer = new Writer();
+        writer.writeByte(VERSION);
+        writer.writeVarint(identityInfo.getAttributeCount());
+        identityInfo.forEachAttribute((name, value) -> {
+            writer.writeString(name);
+            writer.writeString(value);
+        });
+        Map<String, List<Authorization>> authorizations = identityInfo.getAuthorizations();
+        writer.writeVarint(authorizations.size());
+        for (Map.Entry<String, List<Authorization>> entry : authorizations.entrySet()) {
+            String resource = entry.getKey();
+            writer.writeString(resource);
+            writer.writeVarint(entry.getValue().size());
+            for (Authorization authorization : entry.getValue()) {
+                boolean resourceIsKey = Objects.equals(resource, authorization.getResource());
+                writer.writeVarint(resourceIsKey ? RESOURCE_IS_KEY : 0);
+                writer.writeString(authorization.getNamespace());
+                writer.writeString(authorization.getAction());
+                if (!resourceIsKey) {
+                    writer.writeString(authorization.getResource());
+                }
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes an identity.
+     *
+     * @param encoded The encoded identity
+     * @return The decoded identity
+     * @throws IllegalArgumentException if the data is not a valid encoding
+     */
+    public static IdentityInfo decode(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        IdentityInfo identityInfo = decode(buffer);
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes after encoded identity");
+        }
+        return identityInfo;
+    }
+
+    /**
+     * Decodes an identity starting at the buffer's position and advances the position past it.
+     *
+     * @param buffer The buffer to read from
+     * @return The decoded identity
+     * @throws IllegalArgumentException if the data is not a valid encoding
+     */
+    public static IdentityInfo decode(ByteBuffer buffer) {
+        try {
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported identity encoding version " + version);
+            }
+            IdentityInfo identityInfo = new IdentityInfo();
+            for (int i = readCount(buffer); i > 0; i--) {
+                String name = readString(buffer);
+                identityInfo.addAttribute(name, readString(buffer));
+            }
+            for (int i = readCount(buffer); i > 0; i--) {
+                String resource = readString(buffer);
+                for (int j = readCount(buffer); j > 0; j--) {
+                    int flags = readVarint(buffer);
+                    String namespace = readString(buffer);
+                    String action = readString(buffer);
+                    String authorizationResource = (flags & RESOURCE_IS_KEY) != 0 ? resource : readString(buffer);
+                    identityInfo.addAuthorization(new Authorization(authorizationResource, namespace, action));
+                }
+            }
+            return identityInfo;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated identity encoding", e);
+        }
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+        int count = readVarint(buffer);
+        // Every entry takes at least one byte, so a larger count can only come from corrupt input
+        if (count > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid count " + count + " in identity encoding");
+        }
+        return count;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            if (shift == 28 && (b & 0x70) != 0) {
+                // The fifth byte only holds the top four bits of an int, higher bits would be lost
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint in identity encoding");
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int tag = readVarint(buffer);
+        if (tag == 0) {
+            return null;
+        }
+        if ((tag & 1) != 0) {
+            int index = tag >>> 1;
+            if (index >= DICTIONARY.length) {
+                throw new IllegalArgumentException("Unknown dictionary entry " + index + " in identity encoding");
+            }
+            return DICTIONARY[index];
+        }
+        int length = (tag >>> 1) - 1;
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length + " in identity encoding");
+        }
+        int position = buffer.position();
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        } else {
+            value = StandardCharsets.UTF_8.decode(buffer.slice(position, length)).toString();
+        }
+        buffer.position(position + length);
+        return value;
+    }
+
+    /**
+     * Growable byte array, so encoding does not go through a stream.
+     */
+    private static final class Writer {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer index = DICTIONARY_INDEX.get(value);
+            if (index != null) {
+                writeVarint((index << 1) | 1);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint((utf8.length + 1) << 1);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
@@ -8,19 +8,22 @@ import java.security.KeyStoreException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.opensaml.security.x509.BasicX509Credential;
 
 /**
- * Utility class to load X.509 credentials from a Java KeyStore (JKS) file.
+ * Utility class to load X.509 credentials from a Java KeyStore (JKS) or PKCS#12 file.
+ * RSA, EC and Ed25519 keys are supported.
  */
 public class KeystoreUtil {
     private static final Logger logger = Logger.getLogger(KeystoreUtil.class.getName());
 
     /**
-     * Loads an X.509 credential from a JKS keystore.
+     * Loads an X.509 credential from a keystore. Files ending in {@code .p12} or {@code .pfx} are read as
+     * PKCS#12, all others as JKS.
      * 
      * @param keystorePath     Path to the keystore file.
      * @param keystorePassword Password for the keystore.
@@ -30,7 +33,8 @@ public class KeystoreUtil {
      */
     public static BasicX509Credential init(String keystorePath, String keystorePassword, String keyAlias)
             throws Exception {
-        KeyStore keystore = KeyStore.getInstance("JKS");
+        SecurityProviders.ensureBouncyCastle();
+        KeyStore keystore = KeyStore.getInstance(keystoreType(keystorePath));
 
         // Load the keystore
         try (InputStream keystoreStream = new FileInputStream(keystorePath)) {
@@ -60,7 +64,7 @@ public class KeystoreUtil {
             X509Certificate x509Cert = (X509Certificate) cert;
 
             BasicX509Credential credential = new BasicX509Credential(x509Cert, privateKey);
-            logger.info("Credential loaded successfully for alias: " + keyAlias);
+            logger.info("Credential loaded successfully for alias: " + keyAlias + " (" + privateKey.getAlgorithm() + ")");
             return credential;
 
         } catch (Exception e) {
@@ -68,4 +72,15 @@ public class KeystoreUtil {
             throw e;
         }
     }
+
+    /**
+     * Determines the keystore type from the file extension.
+     *
+     * @param keystorePath Path to the keystore file.
+     * @return PKCS12 for .p12 and .pfx files, JKS otherwise.
+     */
+    static String keystoreType(String keystorePath) {
+        String name = keystorePath.toLowerCase(Locale.ROOT);
+        return name.endsWith(".p12") || name.endsWith(".pfx") ? "PKCS12" : "JKS";
+    }
 }
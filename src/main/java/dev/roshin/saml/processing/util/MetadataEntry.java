@@ -0,0 +1,178 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the metadata of one entity says about it: its signing certificates, its SSO endpoints and the
+ * signing settings it asks for.
+ * <p>
+ * Entries are immutable and created by {@link MetadataRegistry} while it reads a metadata file. The
+ * certificates are kept in their encoded form and only decoded into credentials the first time
+ * {@link #getSigningCredentials()} is called, so indexing a large aggregate does not pay for certificates
+ * of entities that never send an assertion.
+ */
+public final class MetadataEntry {
+
+    private final String entityId;
+    private final Path source;
+    private final boolean identityProvider;
+    private final boolean serviceProvider;
+    private final boolean wantAuthnRequestsSigned;
+    private final boolean wantAssertionsSigned;
+    private final List<byte[]> signingCertificates;
+    private final Map<String, String> singleSignOnServices;
+    private final Map<String, String> assertionConsumerServices;
+    private volatile List<BasicX509Credential> signingCredentials;
+
+    MetadataEntry(String entityId, Path source, boolean identityProvider, boolean serviceProvider,
+                  boolean wantAuthnRequestsSigned, boolean wantAssertionsSigned, List<byte[]> signingCertificates,
+                  Map<String, String> singleSignOnServices, Map<String, String> assertionConsumerServices) {
+        this.entityId = entityId;
+        this.source = source;
+        this.identityProvider = identityProvider;
+        this.serviceProvider = serviceProvider;
+        this.wantAuthnRequestsSigned = wantAuthnRequestsSigned;
+        this.wantAssertionsSigned = wantAssertionsSigned;
+        this.signingCertificates = List.copyOf(signingCertificates);
+        this.singleSignOnServices = Map.copyOf(singleSignOnServices);
+        this.assertionConsumerServices = Map.copyOf(assertionConsumerServices);
+    }
+
+    /**
+     * Gets the entity ID.
+     *
+     * @return The entity ID
+     */
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Gets the metadata file the entry was read from.
+     *
+     * @return The metadata file
+     */
+    public Path getSource() {
+        return source;
+    }
+
+    /**
+     * Checks whether the entity has an IDPSSODescriptor.
+     *
+     * @return true if the entity is an identity provider
+     */
+    public boolean isIdentityProvider() {
+        return identityProvider;
+    }
+
+    /**
+     * Checks whether the entity has an SPSSODescriptor.
+     *
+     * @return true if the entity is a service provider
+     */
+    public boolean isServiceProvider() {
+        return serviceProvider;
+    }
+
+    /**
+     * Checks whether the identity provider requires signed authentication requests.
+     *
+     * @return the IDPSSODescriptor's WantAuthnRequestsSigned flag
+     */
+    public boolean isWantAuthnRequestsSigned() {
+        return wantAuthnRequestsSigned;
+    }
+
+    /**
+     * Checks whether the service provider requires signed assertions.
+     *
+     * @return the SPSSODescriptor's WantAssertionsSigned flag
+     */
+    public boolean isWantAssertionsSigned() {
+        return wantAssertionsSigned;
+    }
+
+    /**
+     * Gets the credentials the entity's assertions may be signed with, in metadata order. There is more than
+     * one while a signing key is rolled over. The certificates are decoded on the first call.
+     *
+     * @return The signing credentials, empty if the metadata lists none
+     * @throws IllegalStateException if a certificate in the metadata cannot be decoded
+     */
+    public List<BasicX509Credential> getSigningCredentials() {
+        List<BasicX509Credential> credentials = signingCredentials;
+        if (credentials == null) {
+            // Decoding is idempotent, so racing callers at worst decode twice
+            credentials = decodeCredentials();
+            signingCredentials = credentials;
+        }
+        return credentials;
+    }
+
+    /**
+     * Gets the location of a SingleSignOnService endpoint.
+     *
+     * @param binding The binding URI
+     * @return The endpoint location, or null if the entity has none for the binding
+     */
+    public String getSingleSignOnService(String binding) {
+        return singleSignOnServices.get(binding);
+    }
+
+    /**
+     * Gets the location of an AssertionConsumerService endpoint. If the entity has several for the binding,
+     * the one marked as default wins, otherwise the first.
+     *
+     * @param binding The binding URI
+     * @return The endpoint location, or null if the entity has none for the binding
+     */
+    public String getAssertionConsumerService(String binding) {
+        return assertionConsumerServices.get(binding);
+    }
+
+    private List<BasicX509Credential> decodeCredentials() {
+        if (signingCertificates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            CertificateFactory factory = CertificateFactory.getInstance("X.509");
+            List<BasicX509Credential> credentials = new ArrayList<>(signingCertificates.size());
+            for (byte[] encoded : signingCertificates) {
+                X509Certificate certificate =
+                        (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(encoded));
+                BasicX509Credential credential = new BasicX509Credential(certificate);
+                credential.setEntityId(entityId);
+                credentials.add(credential);
+            }
+            return Collections.unmodifiableList(credentials);
+        } catch (CertificateException e) {
+            throw new IllegalStateException("Invalid signing certificate in the metadata of " + entityId, e);
+        }
+    }
+
+    /**
+     * Returns a string representation of the MetadataEntry object.
+     *
+     * @return A string representation of this MetadataEntry
+     */
+    @Override
+    public String toString() {
+        return "MetadataEntry{" +
+                "entityId='" + entityId + '\'' +
+                ", source=" + source +
+                ", identityProvider=" + identityProvider +
+                ", serviceProvider=" + serviceProvider +
+                ", signingCertificates=" + signingCertificates.size() +
+                '}';
+    }
+}
@@ -0,0 +1,367 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of SAML metadata for many identity and service providers, indexed by entity ID.
+ * <p>
+ * The registry reads metadata files, single EntityDescriptors or EntitiesDescriptor aggregates, or
+ * directories of them. Files are read in a single StAX pass that keeps only what {@link MetadataEntry}
+ * needs, so an aggregate of thousands of entities is never held as a DOM. All entries live in one immutable
+ * snapshot behind a volatile field: {@link #resolve(String)} is a single hash lookup that never waits for a
+ * refresh, and a refresh swaps in a complete new snapshot when it is done.
+ * <p>
+ * A refresh only reads the files whose size or modification time changed since the last one and reuses the
+ * entries of all others. If a file cannot be read, its previous entries stay in use. When two files define
+ * the same entity ID, the first source in configuration order wins.
+ * <p>
+ * Only the signing keys of an entity's {@code IDPSSODescriptor} are kept, since they are the keys its
+ * assertions are signed with; keys of other roles, such as a service provider's, never verify assertions.
+ * <p>
+ * Metadata is trusted as it is on disk; signatures on the metadata itself are not checked, so the files
+ * must come from a trusted location.
+ */
+public class MetadataRegistry implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataRegistry.class);
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final String MD = SAMLConstants.SAML20MD_NS;
+    private static final String DS = "http://www.w3.org/2000/09/xmldsig#";
+
+    private final List<Path> sources;
+    private final Object refreshLock = new Object();
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), Map.of());
+    private ScheduledFuture<?> refresher;
+
+    /**
+     * Creates a registry. Nothing is read until {@link #refresh()} is called.
+     *
+     * @param sources Metadata files and directories; directories contribute their {@code *.xml} files
+     */
+    public MetadataRegistry(List<Path> sources) {
+        this.sources = List.copyOf(sources);
+    }
+
+    /**
+     * Looks up the metadata of an entity.
+     *
+     * @param entityId The entity ID, for example the issuer of an assertion
+     * @return The entry, or null if no metadata file defines the entity
+     */
+    public MetadataEntry resolve(String entityId) {
+        return entityId != null ? snapshot.entries.get(entityId) : null;
+    }
+
+    /**
+     * Gets the number of entities in the registry.
+     *
+     * @return The number of entities
+     */
+    public int size() {
+        return snapshot.entries.size();
+    }
+
+    /**
+     * Reads the metadata files that changed since the last refresh and publishes the new entries.
+     * Lookups are not blocked while this runs.
+     */
+    public void refresh() {
+        synchronized (refreshLock) {
+            Snapshot current = snapshot;
+            Map<Path, SourceFile> files = new LinkedHashMap<>();
+            boolean changed = false;
+            for (Path path : files()) {
+                SourceFile previous = current.files.get(path);
+                String stamp;
+                try {
+                    stamp = stamp(path);
+                } catch (IOException e) {
+                    logger.warn("Cannot read metadata file {}, keeping its current entries", path, e);
+                    if (previous != null) {
+                        files.put(path, previous);
+                    }
+                    continue;
+                }
+                if (previous != null && stamp.equals(previous.stamp)) {
+                    files.put(path, previous);
+                    continue;
+                }
+                try {
+                    SourceFile loaded = new SourceFile(stamp, read(path));
+                    files.put(path, loaded);
+                    changed = true;
+                    logger.info("Loaded {} metadata entities from {}", loaded.entries.size(), path);
+                } catch (Exception e) {
+                    logger.error("Failed to read metadata file {}, keeping its current entries", path, e);
+                    // Remember the stamp, so the broken file is not read again until it changes
+                    files.put(path, new SourceFile(stamp, previous != null ? previous.entries : List.of()));
+                    changed = true;
+                }
+            }
+            changed |= !files.keySet().equals(current.files.keySet());
+            if (changed) {
+                snapshot = index(files);
+            }
+        }
+    }
+
+    /**
+     * Refreshes the metadata at a fixed interval on a scheduler, starting one interval from now. Call
+     * {@link #refresh()} first to load the metadata before it is used.
+     *
+     * @param scheduler The scheduler to run the refresh on, which the registry does not shut down
+     * @param interval  The time between the end of one refresh and the start of the next
+     */
+    public void start(ScheduledExecutorService scheduler, Duration interval) {
+        synchronized (refreshLock) {
+            if (refresher != null) {
+                return;
+            }
+            refresher = scheduler.scheduleWithFixedDelay(this::refreshQuietly, interval.toMillis(),
+                    interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background refresh. The loaded entries stay readable.
+     */
+    @Override
+    public void close() {
+        synchronized (refreshLock) {
+            if (refresher != null) {
+                refresher.cancel(false);
+            }
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            logger.error("Metadata refresh failed", e);
+        }
+    }
+
+    private List<Path> files() {
+        List<Path> files = new ArrayList<>();
+        for (Path source : sources) {
+            if (!Files.isDirectory(source)) {
+                files.add(source);
+                continue;
+            }
+            try (DirectoryStream<Path> directory = Files.newDirectoryStream(source, "*.xml")) {
+                List<Path> listed = new ArrayList<>();
+                directory.forEach(listed::add);
+                listed.sort(null);
+                files.addAll(listed);
+            } catch (IOException e) {
+                logger.warn("Cannot list metadata directory {}", source, e);
+            }
+        }
+        return files;
+    }
+
+    private static Snapshot index(Map<Path, SourceFile> files) {
+        Map<String, MetadataEntry> entries = new HashMap<>();
+        for (SourceFile file : files.values()) {
+            for (MetadataEntry entry : file.entries) {
+                MetadataEntry existing = entries.putIfAbsent(entry.getEntityId(), entry);
+                if (existing != null && existing != entry) {
+                    logger.warn("Entity {} is defined in both {} and {}, using {}", entry.getEntityId(),
+                            existing.getSource(), entry.getSource(), existing.getSource());
+                }
+            }
+        }
+        return new Snapshot(files, entries);
+    }
+
+    private static String stamp(Path path) throws IOException {
+        return Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path);
+    }
+
+    /**
+     * Reads the entities of one metadata file.
+     *
+     * @param path The metadata file
+     * @return The entities in document order
+     * @throws IOException        if the file cannot be read
+     * @throws XMLStreamException if the file is not well-formed
+     */
+    static List<MetadataEntry> read(Path path) throws IOException, XMLStreamException {
+        try (InputStream in = Files.newInputStream(path)) {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                return read(reader, path);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static List<MetadataEntry> read(XMLStreamReader reader, Path path) throws XMLStreamException {
+        List<MetadataEntry> entries = new ArrayList<>();
+        EntityBuilder entity = null;
+        // Role descriptor of the current entity the reader is in: IDP, SP or another role that is skipped
+        String role = null;
+        boolean signingKey = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                String localName = reader.getLocalName();
+                if (MD.equals(reader.getNamespaceURI())) {
+                    if ("EntityDescriptor".equals(localName) && entity != null) {
+                        entries.add(entity.build(path));
+                        entity = null;
+                    } else if (localName.endsWith("Descriptor") && !"KeyDescriptor".equals(localName)) {
+                        role = null;
+                    } else if ("KeyDescriptor".equals(localName)) {
+                        signingKey = false;
+                    }
+                }
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String namespace = reader.getNamespaceURI();
+            String localName = reader.getLocalName();
+            if (MD.equals(namespace)) {
+                switch (localName) {
+                    case "EntityDescriptor":
+                        String entityId = reader.getAttributeValue(null, "entityID");
+                        if (entityId == null || entityId.isBlank()) {
+                            throw new XMLStreamException("EntityDescriptor without an entityID", reader.getLocation());
+                        }
+                        entity = new EntityBuilder(entityId);
+                        break;
+                    case "IDPSSODescriptor":
+                        if (entity != null) {
+                            role = localName;
+                            entity.identityProvider = true;
+                            entity.wantAuthnRequestsSigned |=
+                                    Boolean.parseBoolean(reader.getAttributeValue(null, "WantAuthnRequestsSigned"));
+                        }
+                        break;
+                    case "SPSSODescriptor":
+                        if (entity != null) {
+                            role = localName;
+                            entity.serviceProvider = true;
+                            entity.wantAssertionsSigned |=
+                                    Boolean.parseBoolean(reader.getAttributeValue(null, "WantAssertionsSigned"));
+                        }
+                        break;
+                    case "KeyDescriptor":
+                        String use = reader.getAttributeValue(null, "use");
+                        signingKey = "IDPSSODescriptor".equals(role) && (use == null || "signing".equals(use));
+                        break;
+                    case "SingleSignOnService":
+                        if ("IDPSSODescriptor".equals(role)) {
+                            entity.singleSignOnServices.putIfAbsent(reader.getAttributeValue(null, "Binding"),
+                                    reader.getAttributeValue(null, "Location"));
+                        }
+                        break;
+                    case "AssertionConsumerService":
+                        if ("SPSSODescriptor".equals(role)) {
+                            String binding = reader.getAttributeValue(null, "Binding");
+                            String location = reader.getAttributeValue(null, "Location");
+                            if (Boolean.parseBoolean(reader.getAttributeValue(null, "isDefault"))) {
+                                entity.assertionConsumerServices.put(binding, location);
+                            } else {
+                                entity.assertionConsumerServices.putIfAbsent(binding, location);
+                            }
+                        }
+                        break;
+                    default:
+                        if (localName.endsWith("Descriptor") && entity != null && role == null) {
+                            // AttributeAuthorityDescriptor and the like, whose keys are not used for assertions
+                            role = localName;
+                        }
+                }
+            } else if (DS.equals(namespace) && "X509Certificate".equals(localName) && signingKey) {
+                String text = reader.getElementText();
+                entity.signingCertificates.add(Base64.getMimeDecoder().decode(text.strip()));
+            }
+        }
+        return entries;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+        return factory;
+    }
+
+    private static final class EntityBuilder {
+        private final String entityId;
+        private boolean identityProvider;
+        private boolean serviceProvider;
+        private boolean wantAuthnRequestsSigned;
+        private boolean wantAssertionsSigned;
+        private final List<byte[]> signingCertificates = new ArrayList<>();
+        private final Map<String, String> singleSignOnServices = new HashMap<>();
+        private final Map<String, String> assertionConsumerServices = new HashMap<>();
+
+        private EntityBuilder(String entityId) {
+            this.entityId = entityId;
+        }
+
+        private MetadataEntry build(Path source) {
+            // Endpoints without a binding or location are unusable and rejected by Map.copyOf
+            singleSignOnServices.remove(null);
+            singleSignOnServices.values().removeIf(Objects::isNull);
+            assertionConsumerServices.remove(null);
+            assertionConsumerServices.values().removeIf(Objects::isNull);
+            return new MetadataEntry(entityId, source, identityProvider, serviceProvider, wantAuthnRequestsSigned,
+                    wantAssertionsSigned, signingCertificates, singleSignOnServices, assertionConsumerServices);
+        }
+    }
+
+    private static final class SourceFile {
+        private final String stamp;
+        private final List<MetadataEntry> entries;
+
+        private SourceFile(String stamp, List<MetadataEntry> entries) {
+            this.stamp = stamp;
+            this.entries = entries;
+        }
+    }
+
+    private static final class Snapshot {
+        private final Map<Path, SourceFile> files;
+        private final Map<String, MetadataEntry> entries;
+
+        private Snapshot(Map<Path, SourceFile> files, Map<String, MetadataEntry> entries) {
+            this.files = files;
+            this.entries = entries;
+        }
+    }
+}
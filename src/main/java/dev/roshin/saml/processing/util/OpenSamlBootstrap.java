@@ -0,0 +1,55 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide, one-time initialization of the OpenSAML library.
+ * <p>
+ * {@link InitializationService#initialize()} loads every module's configuration, registers the
+ * builders, marshallers and unmarshallers and bootstraps the XML security library. Running it once per
+ * {@link SamlGenerator} or {@link SamlParser} instance is wasted work, so both delegate here instead.
+ */
+public final class OpenSamlBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenSamlBootstrap.class);
+    private static final Object lock = new Object();
+    private static volatile boolean initialized;
+
+    private OpenSamlBootstrap() {
+    }
+
+    /**
+     * Initializes OpenSAML if it has not been initialized in this process yet.
+     * Safe to call from any number of threads; only the first successful call does any work.
+     *
+     * @throws InitializationException if OpenSAML initialization fails
+     */
+    public static void initialize() throws InitializationException {
+        if (initialized) {
+            return;
+        }
+        synchronized (lock) {
+            if (initialized) {
+                return;
+            }
+            long start = System.nanoTime();
+            // Registered before the XML security library starts so EC and Ed25519 keys from any provider work
+            SecurityProviders.ensureBouncyCastle();
+            InitializationService.initialize();
+            initialized = true;
+            logger.info("OpenSAML initialized in {} ms", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Checks whether OpenSAML has been initialized in this process.
+     *
+     * @return true if {@link #initialize()} has completed successfully
+     */
+    public static boolean isInitialized() {
+        return initialized;
+    }
+}
@@ -0,0 +1,20 @@
+package dev.roshin.saml.processing.util;
+
+/**
+ * How {@link SamlParser} reads an assertion.
+ */
+public enum ParseMode {
+
+    /**
+     * Parse the assertion into a DOM, unmarshal it into an OpenSAML object graph and verify the signature
+     * through OpenSAML. This is the reference implementation.
+     */
+    DOM,
+
+    /**
+     * Read the assertion in a single StAX pass that extracts the identity while building the DOM needed for
+     * signature verification, then verify the signature directly with Santuario. Any element outside the
+     * structure the parser expects is rejected.
+     */
+    STREAMING
+}
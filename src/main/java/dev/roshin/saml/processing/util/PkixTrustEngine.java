@@ -0,0 +1,314 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.security.x509.BasicX509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether an assertion's signing certificate is trusted by building a PKIX path from it to one of
+ * a set of trust anchors, instead of pinning one certificate per provider.
+ * <p>
+ * Path building, and revocation checking when it is enabled, is far more expensive than verifying the
+ * signature, so each positive result is cached under the SHA-256 fingerprint of the certificate until the
+ * TTL passes or a certificate of the path expires, whichever comes first. A cache hit decodes the Base64
+ * certificate, hashes it and does one map lookup, and returns the credential built on the miss, so the
+ * certificate is not parsed again either. Failures are never cached. Expired results are swept whenever a
+ * result is added, and beyond the maximum number of entries the results that expire first are evicted first.
+ * <p>
+ * A path only shows that one of the anchors issued the certificate, so {@link #validate(List, Pattern)}
+ * also binds it to the expected signer by its subject or alternative names. The signing certificate must
+ * allow digitalSignature if it restricts its key usage at all.
+ * <p>
+ * Certificates that are themselves trust anchors are trusted without building a path. Revocation checking
+ * uses the JDK's PKIX revocation checker, so fetching CRLs and OCSP responses follows the JDK's
+ * {@code com.sun.security.enableCRLDP} and {@code ocsp.enable} settings.
+ */
+public class PkixTrustEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(PkixTrustEngine.class);
+    // Key usage bit 0 is digitalSignature
+    private static final boolean[] DIGITAL_SIGNATURE = {true};
+    // General name types of dNSName and uniformResourceIdentifier subject alternative names
+    private static final int DNS_NAME = 2;
+    private static final int URI_NAME = 6;
+
+    private final Set<TrustAnchor> anchors;
+    private final Set<X509Certificate> anchorCertificates;
+    private final boolean revocationEnabled;
+    private final Duration ttl;
+    private final Clock clock;
+    private final ExpiringMap<Fingerprint, Entry> trusted;
+
+    /**
+     * Creates a trust engine.
+     *
+     * @param anchors           The trusted root or intermediate certificates
+     * @param revocationEnabled Whether certificates are checked for revocation
+     * @param ttl               How long a positive result is cached at most
+     * @param maxEntries        The maximum number of cached results
+     */
+    public PkixTrustEngine(Collection<X509Certificate> anchors, boolean revocationEnabled, Duration ttl,
+                           int maxEntries) {
+        this(anchors, revocationEnabled, ttl, maxEntries, Clock.systemUTC());
+    }
+
+    PkixTrustEngine(Collection<X509Certificate> anchors, boolean revocationEnabled, Duration ttl, int maxEntries,
+                    Clock clock) {
+        if (anchors.isEmpty()) {
+            throw new IllegalArgumentException("At least one trust anchor is required");
+        }
+        Set<TrustAnchor> trustAnchors = new HashSet<>();
+        for (X509Certificate anchor : anchors) {
+            trustAnchors.add(new TrustAnchor(anchor, null));
+        }
+        this.anchors = Collections.unmodifiableSet(trustAnchors);
+        this.anchorCertificates = Set.copyOf(anchors);
+        this.revocationEnabled = revocationEnabled;
+        this.ttl = Objects.requireNonNull(ttl, "ttl");
+        this.trusted = new ExpiringMap<>(maxEntries);
+        this.clock = clock;
+    }
+
+    /**
+     * Creates a trust engine whose anchors are the trusted certificate entries of a truststore. Files ending
+     * in {@code .p12} or {@code .pfx} are read as PKCS#12, all others as JKS.
+     *
+     * @param truststorePath     Path to the truststore file
+     * @param truststorePassword Password for the truststore
+     * @param revocationEnabled  Whether certificates are checked for revocation
+     * @param ttl                How long a positive result is cached at most
+     * @param maxEntries         The maximum number of cached results
+     * @return The trust engine
+     * @throws Exception if the truststore cannot be read or holds no certificates
+     */
+    public static PkixTrustEngine fromTruststore(String truststorePath, String truststorePassword,
+                                                 boolean revocationEnabled, Duration ttl, int maxEntries)
+            throws Exception {
+        KeyStore truststore = KeyStore.getInstance(KeystoreUtil.keystoreType(truststorePath));
+        try (InputStream in = new FileInputStream(truststorePath)) {
+            truststore.load(in, truststorePassword != null ? truststorePassword.toCharArray() : null);
+        }
+        List<X509Certificate> anchors = new ArrayList<>();
+        for (String alias : Collections.list(truststore.aliases())) {
+            Certificate certificate = truststore.getCertificate(alias);
+            if (certificate instanceof X509Certificate) {
+                anchors.add((X509Certificate) certificate);
+            }
+        }
+        logger.info("Loaded {} trust anchors from {}", anchors.size(), truststorePath);
+        return new PkixTrustEngine(anchors, revocationEnabled, ttl, maxEntries);
+    }
+
+    /**
+     * Validates a signing certificate and returns a credential to verify the signature with. This does not
+     * check who the certificate was issued to; use {@link #validate(List, Pattern)} to verify the
+     * assertions of a particular signer.
+     *
+     * @param certificates The Base64 certificates of the signature's KeyInfo; the first is the signing
+     *                     certificate, the others may be intermediates of its path
+     * @return The credential of the trusted signing certificate
+     * @throws GeneralSecurityException if there is no certificate or no valid path to a trust anchor
+     */
+    public BasicX509Credential validate(List<String> certificates) throws GeneralSecurityException {
+        return trust(certificates).credential;
+    }
+
+    /**
+     * Validates a signing certificate, checks that it was issued to the expected signer and returns a
+     * credential to verify the signature with. The certificate's subject DN, in RFC 2253 form, and its DNS
+     * and URI subject alternative names are matched against the pattern, and one full match is enough.
+     *
+     * @param certificates The Base64 certificates of the signature's KeyInfo; the first is the signing
+     *                     certificate, the others may be intermediates of its path
+     * @param subject      The pattern the subject DN or an alternative name of the signing certificate must
+     *                     match
+     * @return The credential of the trusted signing certificate
+     * @throws GeneralSecurityException if there is no certificate, no valid path to a trust anchor or the
+     *                                  certificate does not match the pattern
+     */
+    public BasicX509Credential validate(List<String> certificates, Pattern subject) throws GeneralSecurityException {
+        Objects.requireNonNull(subject, "subject");
+        Entry entry = trust(certificates);
+        for (String name : entry.names) {
+            if (subject.matcher(name).matches()) {
+                return entry.credential;
+            }
+        }
+        throw new CertificateException("Signing certificate " + entry.names.get(0)
+                + " does not match the trusted subject " + subject.pattern());
+    }
+
+    private Entry trust(List<String> certificates) throws GeneralSecurityException {
+        if (certificates.isEmpty()) {
+            throw new CertificateException("The signature has no X.509 certificate in its KeyInfo");
+        }
+        byte[] encoded = decode(certificates.get(0));
+        Fingerprint fingerprint = new Fingerprint(encoded);
+        Instant now = clock.instant();
+        Entry entry = trusted.get(fingerprint, now);
+        if (entry != null) {
+            return entry;
+        }
+
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        X509Certificate certificate = parse(factory, encoded);
+        List<X509Certificate> chain = new ArrayList<>(certificates.size());
+        chain.add(certificate);
+        for (String intermediate : certificates.subList(1, certificates.size())) {
+            chain.add(parse(factory, decode(intermediate)));
+        }
+        Instant expiresAt = now.plus(ttl);
+        for (X509Certificate pathCertificate : build(certificate, chain, now)) {
+            Instant notAfter = pathCertificate.getNotAfter().toInstant();
+            if (notAfter.isBefore(expiresAt)) {
+                expiresAt = notAfter;
+            }
+        }
+        BasicX509Credential credential = new BasicX509Credential(certificate);
+        credential.setEntityCertificateChain(chain);
+        entry = new Entry(credential, names(certificate));
+        trusted.put(fingerprint, entry, expiresAt, 0, now);
+        return entry;
+    }
+
+    /**
+     * Gets the number of cached results, including expired ones that were not evicted yet.
+     *
+     * @return The number of cached results
+     */
+    public int size() {
+        return trusted.size();
+    }
+
+    /**
+     * Builds and validates the path and returns its certificates, including the anchor's.
+     */
+    private List<X509Certificate> build(X509Certificate certificate, List<X509Certificate> chain, Instant now)
+            throws GeneralSecurityException {
+        if (anchorCertificates.contains(certificate)) {
+            certificate.checkValidity(Date.from(now));
+            boolean[] keyUsage = certificate.getKeyUsage();
+            if (keyUsage != null && !keyUsage[0]) {
+                throw new CertificateException("Signing certificate does not allow digitalSignature");
+            }
+            return List.of(certificate);
+        }
+        X509CertSelector target = new X509CertSelector();
+        target.setCertificate(certificate);
+        target.setKeyUsage(DIGITAL_SIGNATURE);
+        PKIXBuilderParameters parameters = new PKIXBuilderParameters(anchors, target);
+        parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(chain)));
+        parameters.setRevocationEnabled(revocationEnabled);
+        parameters.setDate(Date.from(now));
+        PKIXCertPathBuilderResult result =
+                (PKIXCertPathBuilderResult) CertPathBuilder.getInstance("PKIX").build(parameters);
+
+        List<X509Certificate> path = new ArrayList<>();
+        for (Certificate pathCertificate : result.getCertPath().getCertificates()) {
+            path.add((X509Certificate) pathCertificate);
+        }
+        X509Certificate anchor = result.getTrustAnchor().getTrustedCert();
+        if (anchor != null) {
+            path.add(anchor);
+        }
+        return path;
+    }
+
+    private static byte[] decode(String certificate) throws CertificateException {
+        try {
+            return Base64.getMimeDecoder().decode(certificate.strip());
+        } catch (IllegalArgumentException e) {
+            throw new CertificateException("Invalid Base64 certificate in KeyInfo", e);
+        }
+    }
+
+    /**
+     * Gets the names a signer is matched by: the subject DN, then the DNS and URI alternative names.
+     */
+    private static List<String> names(X509Certificate certificate) throws CertificateParsingException {
+        List<String> names = new ArrayList<>();
+        names.add(certificate.getSubjectX500Principal().getName());
+        Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+        if (alternativeNames != null) {
+            for (List<?> name : alternativeNames) {
+                int type = (Integer) name.get(0);
+                if (type == DNS_NAME || type == URI_NAME) {
+                    names.add((String) name.get(1));
+                }
+            }
+        }
+        return List.copyOf(names);
+    }
+
+    private static X509Certificate parse(CertificateFactory factory, byte[] encoded) throws CertificateException {
+        return (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
+    /**
+     * SHA-256 fingerprint of an encoded certificate.
+     */
+    private static final class Fingerprint {
+        private final byte[] digest;
+        private final int hash;
+
+        private Fingerprint(byte[] encoded) throws GeneralSecurityException {
+            this.digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint)) return false;
+            return Arrays.equals(digest, ((Fingerprint) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final BasicX509Credential credential;
+        private final List<String> names;
+
+        private Entry(BasicX509Credential credential, List<String> names) {
+            this.credential = credential;
+            this.names = names;
+        }
+    }
+}
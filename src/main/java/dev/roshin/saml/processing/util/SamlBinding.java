@@ -0,0 +1,42 @@
+package dev.roshin.saml.processing.util;
+
+import java.util.Locale;
+
+/**
+ * How a SAML message is encoded on the wire. See {@link SamlBindingCodec}.
+ */
+public enum SamlBinding {
+
+    /**
+     * The plain XML message.
+     */
+    XML,
+
+    /**
+     * HTTP-POST binding: the XML message Base64 encoded.
+     */
+    POST,
+
+    /**
+     * HTTP-Redirect binding: the XML message compressed with raw DEFLATE (RFC 1951), then Base64 encoded.
+     */
+    REDIRECT;
+
+    /**
+     * Parses a binding name, ignoring case.
+     *
+     * @param name The binding name, may be null or blank
+     * @return The binding, {@link #XML} if no name is given
+     * @throws IllegalArgumentException if the name is not a known binding
+     */
+    public static SamlBinding fromName(String name) {
+        if (name == null || name.isBlank()) {
+            return XML;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown SAML binding " + name, e);
+        }
+    }
+}
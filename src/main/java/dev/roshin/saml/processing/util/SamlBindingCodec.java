@@ -0,0 +1,240 @@
+package dev.roshin.saml.processing.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streaming encoders and decoders for the SAML HTTP-POST and HTTP-Redirect bindings.
+ * <p>
+ * Decoding stacks a Base64 decoder and, for Redirect, an inflater on top of the input, so the message is
+ * decoded as it is read and never held in encoded form. The decoded stream fails once it has produced more
+ * than a given number of bytes, which stops compression bombs after at most that many bytes of output.
+ * Base64 is decoded strictly: line breaks and other whitespace are skipped, any other character outside the
+ * Base64 alphabet fails the read.
+ * Encoding likewise stacks a deflater and a Base64 encoder on the output.
+ */
+public final class SamlBindingCodec {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private SamlBindingCodec() {
+    }
+
+    /**
+     * Wraps an input stream carrying an encoded message in a stream of the decoded XML.
+     * Closing the returned stream closes the input and releases the inflater of the Redirect binding, so
+     * callers should close it once the message is read.
+     *
+     * @param in         The encoded message
+     * @param binding    The binding the message is encoded with
+     * @param maxDecoded The maximum number of decoded bytes; reading more fails with an IOException
+     * @return The decoded message
+     */
+    public static InputStream decode(InputStream in, SamlBinding binding, long maxDecoded) {
+        switch (binding) {
+            case POST:
+                return new LimitedInputStream(base64(in), maxDecoded);
+            case REDIRECT:
+                return new LimitedInputStream(new RawInflaterInputStream(base64(in)), maxDecoded);
+            default:
+                return new LimitedInputStream(in, maxDecoded);
+        }
+    }
+
+    /**
+     * Wraps an output stream so that XML written to the returned stream is encoded for a binding.
+     * The returned stream must be closed to write the final block of the encoding; closing it flushes the
+     * output but does not close it.
+     *
+     * @param out     The stream to write the encoded message to
+     * @param binding The binding to encode the message for
+     * @return The stream to write the XML to
+     */
+    public static OutputStream encode(OutputStream out, SamlBinding binding) {
+        OutputStream target = new NonClosingOutputStream(out);
+        switch (binding) {
+            case POST:
+                return Base64.getEncoder().wrap(target);
+            case REDIRECT:
+                return new RawDeflaterOutputStream(Base64.getEncoder().wrap(target));
+            default:
+                return target;
+        }
+    }
+
+    private static InputStream base64(InputStream in) {
+        // Some senders insert line breaks; skip those, but unlike the MIME decoder fail on anything else
+        return Base64.getDecoder().wrap(new WhitespaceSkippingInputStream(in));
+    }
+
+    /**
+     * Drops the whitespace bytes of the underlying stream.
+     */
+    private static final class WhitespaceSkippingInputStream extends FilterInputStream {
+
+        WhitespaceSkippingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            do {
+                b = in.read();
+            } while (b >= 0 && isWhitespace(b));
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int kept;
+            do {
+                int n = in.read(b, off, len);
+                if (n < 0) {
+                    return n;
+                }
+                kept = 0;
+                for (int i = off; i < off + n; i++) {
+                    if (!isWhitespace(b[i])) {
+                        b[off + kept++] = b[i];
+                    }
+                }
+            } while (kept == 0);
+            return kept;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() >= 0) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private static boolean isWhitespace(int b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+        }
+    }
+
+    /**
+     * Fails once more than a fixed number of bytes has been read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("Decoded SAML message exceeds the limit of " + limit + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Inflates raw DEFLATE data and releases the inflater's native memory on close.
+     */
+    private static final class RawInflaterInputStream extends InflaterInputStream {
+        RawInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * Writes raw DEFLATE data and releases the deflater's native memory on close.
+     */
+    private static final class RawDeflaterOutputStream extends DeflaterOutputStream {
+        RawDeflaterOutputStream(OutputStream out) {
+            super(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+
+    /**
+     * Passes writes through and turns close into flush, so the caller keeps ownership of the stream.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.saml.saml2.encryption.EncryptedElementTypeEncryptedKeyResolver;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.DecryptionParameters;
+import org.opensaml.xmlsec.config.impl.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.encryption.support.ChainingEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.SimpleRetrievalMethodEncryptedKeyResolver;
+import org.opensaml.xmlsec.impl.BasicDecryptionConfiguration;
+import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable, precomputed state needed to decrypt {@code EncryptedAssertion}s for one provider and
+ * decryption credential.
+ * <p>
+ * The key-encryption key resolver, the encrypted key resolver chain and the algorithm policy are the same
+ * for every assertion a provider sends, so they are resolved once when the context is created. Each
+ * {@link #decrypt(EncryptedAssertion)} call only creates a {@link Decrypter} over the shared parameters,
+ * which is cheap, because a Decrypter is not safe to share between threads. Instances are safe to share
+ * between threads.
+ */
+public final class SamlDecryptionContext {
+
+    private final String providerId;
+    private final Credential decryptionCredential;
+    private final DecryptionParameters decryptionParameters;
+
+    private SamlDecryptionContext(String providerId, Credential decryptionCredential) {
+        this.providerId = providerId;
+        this.decryptionCredential = decryptionCredential;
+        this.decryptionParameters = buildDecryptionParameters(decryptionCredential);
+    }
+
+    /**
+     * Creates a decryption context for a provider. OpenSAML must be initialized before this is called.
+     *
+     * @param providerId           The provider ID the context is used for, may be null
+     * @param decryptionCredential The credential holding the private key assertions are encrypted for
+     * @return A new decryption context
+     */
+    public static SamlDecryptionContext create(String providerId, Credential decryptionCredential) {
+        Objects.requireNonNull(decryptionCredential, "decryptionCredential");
+        if (decryptionCredential.getPrivateKey() == null) {
+            throw new IllegalArgumentException("Decryption credential has no private key");
+        }
+        return new SamlDecryptionContext(providerId, decryptionCredential);
+    }
+
+    /**
+     * Gets the provider ID the context was created for.
+     *
+     * @return The provider ID, or null if the context is not tied to a provider
+     */
+    public String getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * Gets the credential assertions are decrypted with.
+     *
+     * @return The decryption credential
+     */
+    public Credential getDecryptionCredential() {
+        return decryptionCredential;
+    }
+
+    /**
+     * Decrypts an assertion. The decrypted assertion is rooted in a new DOM document, so its signature can
+     * be validated on its own.
+     *
+     * @param encryptedAssertion The encrypted assertion
+     * @return The decrypted assertion
+     * @throws DecryptionException if no key can be resolved or the data cannot be decrypted
+     */
+    Assertion decrypt(EncryptedAssertion encryptedAssertion) throws DecryptionException {
+        Decrypter decrypter = new Decrypter(decryptionParameters);
+        decrypter.setRootInNewDocument(true);
+        return decrypter.decrypt(encryptedAssertion);
+    }
+
+    private static DecryptionParameters buildDecryptionParameters(Credential decryptionCredential) {
+        BasicDecryptionConfiguration defaults =
+                DefaultSecurityConfigurationBootstrap.buildDefaultDecryptionConfiguration();
+        DecryptionParameters parameters = new DecryptionParameters();
+        parameters.setKEKKeyInfoCredentialResolver(new StaticKeyInfoCredentialResolver(decryptionCredential));
+        parameters.setEncryptedKeyResolver(new ChainingEncryptedKeyResolver(List.of(
+                new InlineEncryptedKeyResolver(),
+                new EncryptedElementTypeEncryptedKeyResolver(),
+                new SimpleRetrievalMethodEncryptedKeyResolver())));
+        parameters.setIncludedAlgorithms(defaults.getIncludedAlgorithms());
+        parameters.setExcludedAlgorithms(defaults.getExcludedAlgorithms());
+        return parameters;
+    }
+}
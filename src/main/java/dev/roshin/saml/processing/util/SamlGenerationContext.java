@@ -0,0 +1,161 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.saml.saml2.core.*;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.config.impl.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.impl.BasicSignatureSigningConfiguration;
+
+import javax.xml.namespace.QName;
+import java.util.Objects;
+
+/**
+ * Immutable, precomputed state needed to generate assertions for one provider and signing credential.
+ * <p>
+ * Resolving the signing configuration and looking up the XMLObject builders in the provider registry are
+ * the same for every assertion issued with a given credential, so this is done once when the context is
+ * created and {@link SamlGenerator} only reads from it afterwards. The context also holds the provider's
+ * {@link AssertionTemplate}, built on first use so contexts that only use the builder path never marshal
+ * it. Instances are safe to share between threads.
+ */
+public final class SamlGenerationContext {
+
+    private final String providerId;
+    private final Credential signingCredential;
+    private final SignatureSigningParameters signingParameters;
+
+    final XMLObjectBuilder<Assertion> assertionBuilder;
+    final XMLObjectBuilder<Issuer> issuerBuilder;
+    final XMLObjectBuilder<Subject> subjectBuilder;
+    final XMLObjectBuilder<NameID> nameIdBuilder;
+    final XMLObjectBuilder<Conditions> conditionsBuilder;
+    final XMLObjectBuilder<AttributeStatement> attributeStatementBuilder;
+    final XMLObjectBuilder<Attribute> attributeBuilder;
+    final XMLObjectBuilder<XSString> stringBuilder;
+
+    private volatile AssertionTemplate template;
+
+    private SamlGenerationContext(String providerId, Credential signingCredential, String signatureAlgorithm,
+                                  String digestAlgorithm) {
+        this.providerId = providerId;
+        this.signingCredential = signingCredential;
+        this.signingParameters = buildSigningParameters(signingCredential, signatureAlgorithm, digestAlgorithm);
+
+        this.assertionBuilder = builder(Assertion.DEFAULT_ELEMENT_NAME);
+        this.issuerBuilder = builder(Issuer.DEFAULT_ELEMENT_NAME);
+        this.subjectBuilder = builder(Subject.DEFAULT_ELEMENT_NAME);
+        this.nameIdBuilder = builder(NameID.DEFAULT_ELEMENT_NAME);
+        this.conditionsBuilder = builder(Conditions.DEFAULT_ELEMENT_NAME);
+        this.attributeStatementBuilder = builder(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        this.attributeBuilder = builder(Attribute.DEFAULT_ELEMENT_NAME);
+        this.stringBuilder = builder(XSString.TYPE_NAME);
+    }
+
+    /**
+     * Creates a generation context for a provider. OpenSAML must be initialized before this is called.
+     *
+     * @param providerId        The provider ID the context is used for, may be null
+     * @param signingCredential The credential to sign assertions with
+     * @return A new generation context
+     */
+    public static SamlGenerationContext create(String providerId, Credential signingCredential) {
+        return create(providerId, signingCredential, null, null);
+    }
+
+    /**
+     * Creates a generation context for a provider with explicit signature and digest algorithms.
+     * OpenSAML must be initialized before this is called.
+     *
+     * @param providerId         The provider ID the context is used for, may be null
+     * @param signingCredential  The credential to sign assertions with
+     * @param signatureAlgorithm The signature algorithm URI or short name, null to choose by key type
+     * @param digestAlgorithm    The reference digest algorithm URI or short name, null for SHA-256
+     * @return A new generation context
+     * @throws IllegalArgumentException if an algorithm is unknown or does not fit the signing key
+     * @see SignatureAlgorithms
+     */
+    public static SamlGenerationContext create(String providerId, Credential signingCredential,
+                                               String signatureAlgorithm, String digestAlgorithm) {
+        Objects.requireNonNull(signingCredential, "signingCredential");
+        return new SamlGenerationContext(providerId, signingCredential, signatureAlgorithm, digestAlgorithm);
+    }
+
+    /**
+     * Gets the provider ID the context was created for.
+     *
+     * @return The provider ID, or null if the context is not tied to a provider
+     */
+    public String getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * Gets the credential assertions are signed with.
+     *
+     * @return The signing credential
+     */
+    public Credential getSigningCredential() {
+        return signingCredential;
+    }
+
+    /**
+     * Gets the resolved signing parameters. The returned object is shared and must not be modified.
+     *
+     * @return The signing parameters
+     */
+    SignatureSigningParameters getSigningParameters() {
+        return signingParameters;
+    }
+
+    /**
+     * Gets the provider's assertion template, building it on first use.
+     *
+     * @return The assertion template
+     * @throws IllegalStateException if the template cannot be built
+     */
+    AssertionTemplate template() {
+        AssertionTemplate result = template;
+        if (result == null) {
+            synchronized (this) {
+                result = template;
+                if (result == null) {
+                    try {
+                        result = new AssertionTemplate(this);
+                    } catch (MarshallingException e) {
+                        throw new IllegalStateException("Failed to build the assertion template", e);
+                    }
+                    template = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static SignatureSigningParameters buildSigningParameters(Credential signingCredential,
+                                                                     String signatureAlgorithm, String digestAlgorithm) {
+        BasicSignatureSigningConfiguration defaults =
+                DefaultSecurityConfigurationBootstrap.buildDefaultSignatureSigningConfiguration();
+        SignatureSigningParameters parameters = new SignatureSigningParameters();
+        parameters.setSigningCredential(signingCredential);
+        parameters.setSignatureAlgorithm(
+                SignatureAlgorithms.signatureAlgorithm(signatureAlgorithm, signingCredential.getPrivateKey()));
+        parameters.setSignatureReferenceDigestMethod(SignatureAlgorithms.digestAlgorithm(digestAlgorithm));
+        parameters.setSignatureCanonicalizationAlgorithm(defaults.getSignatureCanonicalizationAlgorithm());
+        return parameters;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends XMLObject> XMLObjectBuilder<T> builder(QName qName) {
+        XMLObjectBuilder<?> builder = XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(qName);
+        if (builder == null) {
+            throw new IllegalStateException("No XMLObject builder registered for " + qName
+                    + ", is OpenSAML initialized?");
+        }
+        return (XMLObjectBuilder<T>) builder;
+    }
+}
@@ -1,31 +1,19 @@
 package dev.roshin.saml.processing.util;
 
+import dev.roshin.saml.processing.domain.Identity;
 import dev.roshin.saml.processing.domain.IdentityInfo;
 import org.opensaml.core.config.InitializationException;
-import org.opensaml.core.config.InitializationService;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.schema.XSString;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.saml2.core.*;
-import org.opensaml.security.SecurityException;
 import org.opensaml.security.credential.Credential;
-import org.opensaml.xmlsec.SignatureSigningParameters;
-import org.opensaml.xmlsec.config.impl.DefaultSecurityConfigurationBootstrap;
-import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 
-import javax.xml.namespace.QName;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 
@@ -36,18 +24,26 @@ public class SamlGenerator {
 
     private static final Logger logger = LoggerFactory.getLogger(SamlGenerator.class);
 
+    private volatile SamlGenerationContext lastContext;
+    private volatile AssertionSerializer serializer = AssertionSerializer.COMPACT;
+    private volatile SamlMetrics metrics = SamlMetrics.NOOP;
+
     /**
-     * Constructor that initializes OpenSAML library.
+     * Constructor that makes sure the OpenSAML library is initialized.
      *
      * @throws InitializationException if OpenSAML initialization fails
      */
     public SamlGenerator() throws InitializationException {
-        InitializationService.initialize();
+        OpenSamlBootstrap.initialize();
         logger.info("SamlGenerator initialized with OpenSAML");
     }
 
     /**
      * Generates a signed SAML 2.0 assertion.
+     * <p>
+     * The generation context of the most recently used credential is kept, so repeated calls with the same
+     * credential instance do not rebuild it. Callers that sign for several providers should create a
+     * {@link SamlGenerationContext} per provider and use {@link #generateAssertion(IdentityInfo, SamlGenerationContext)}.
      *
      * @param identityInfo      The identity information to include in the assertion
      * @param signingCredential The credential to use for signing the assertion
@@ -55,20 +51,136 @@ public class SamlGenerator {
      * @throws Exception if assertion generation or signing fails
      */
     public Assertion generateAssertion(IdentityInfo identityInfo, Credential signingCredential) throws Exception {
-        logger.debug("Generating SAML assertion for user: {}", identityInfo.getUserId());
+        SamlGenerationContext context = lastContext;
+        if (context == null || context.getSigningCredential() != signingCredential) {
+            context = SamlGenerationContext.create(null, signingCredential);
+            lastContext = context;
+        }
+        return generateAssertion(identityInfo, context);
+    }
+
+    /**
+     * Generates a signed SAML 2.0 assertion using a precomputed generation context.
+     *
+     * @param identityInfo The identity information to include in the assertion
+     * @param context      The generation context holding the signing credential, parameters and builders
+     * @return A signed Assertion object
+     * @throws Exception if assertion generation or signing fails
+     */
+    public Assertion generateAssertion(IdentityInfo identityInfo, SamlGenerationContext context) throws Exception {
+        StageTimings timings = new StageTimings(StageTimings.GENERATE, context.getProviderId());
+        try {
+            Assertion assertion = generateAssertion(identityInfo, context, timings);
+            metrics.record(timings, SamlMetrics.SUCCESS);
+            return assertion;
+        } catch (Exception e) {
+            metrics.record(timings, SamlMetrics.FAILURE);
+            throw e;
+        }
+    }
+
+    /**
+     * Generates a signed SAML 2.0 assertion and adds the build and sign stages to the given timings
+     * instead of reporting them. Callers that serialize the assertion themselves use this to report the
+     * serialize stage together with the others.
+     *
+     * @param identityInfo The identity information to include in the assertion
+     * @param context      The generation context holding the signing credential, parameters and builders
+     * @param timings      The timings to add the stages to
+     * @return A signed Assertion object
+     * @throws Exception if assertion generation or signing fails
+     */
+    public Assertion generateAssertion(IdentityInfo identityInfo, SamlGenerationContext context, StageTimings timings)
+            throws Exception {
+        return generateAssertion(identityInfo.toIdentity(), context, timings);
+    }
+
+    /**
+     * Generates a signed SAML 2.0 assertion for an identity snapshot and adds the build and sign stages to
+     * the given timings. Callers that already took the snapshot use this to avoid taking another.
+     *
+     * @param identity The identity to include in the assertion
+     * @param context  The generation context holding the signing credential, parameters and builders
+     * @param timings  The timings to add the stages to
+     * @return A signed Assertion object
+     * @throws Exception if assertion generation or signing fails
+     */
+    public Assertion generateAssertion(Identity identity, SamlGenerationContext context, StageTimings timings)
+            throws Exception {
+        logger.debug("Generating SAML assertion for user: {}", identity.getUserId());
 
-        Assertion assertion = createSamlObject(Assertion.DEFAULT_ELEMENT_NAME);
+        Assertion assertion = context.assertionBuilder.buildObject(Assertion.DEFAULT_ELEMENT_NAME);
 
         assertion.setID(generateId());
         assertion.setIssueInstant(Instant.now());
-        assertion.setIssuer(buildIssuer(identityInfo.getIssuer()));
-        assertion.setSubject(buildSubject(identityInfo.getUserId()));
-        assertion.setConditions(buildConditions());
-        assertion.getAttributeStatements().add(buildAttributeStatement(identityInfo));
+        assertion.setIssuer(buildIssuer(context, identity.getIssuer()));
+        assertion.setSubject(buildSubject(context, identity.getUserId()));
+        assertion.setConditions(buildConditions(context));
+        assertion.getAttributeStatements().add(buildAttributeStatement(context, identity));
+        timings.lap("build");
+
+        SignatureSupport.signObject(assertion, context.getSigningParameters());
+        timings.lap("sign");
+
+        logger.info("SAML assertion generated successfully for user: {}", identity.getUserId());
+        return assertion;
+    }
+
+    /**
+     * Generates a signed SAML 2.0 assertion as a DOM element from the context's precompiled template.
+     * <p>
+     * The assertion has the same elements, attributes, namespace prefixes and signature references as one
+     * from {@link #generateAssertion(IdentityInfo, SamlGenerationContext)}; only the ID, instants and signature
+     * values differ between any two assertions. No XMLObject tree is built and marshalled, which makes this
+     * the faster choice for callers that only need the XML.
+     *
+     * @param identityInfo The identity information to include in the assertion
+     * @param context      The generation context holding the template and signing credential
+     * @return The signed assertion element
+     * @throws Exception if assertion generation or signing fails
+     */
+    public Element generateAssertionElement(IdentityInfo identityInfo, SamlGenerationContext context) throws Exception {
+        StageTimings timings = new StageTimings(StageTimings.GENERATE, context.getProviderId());
+        try {
+            Element assertion = generateAssertionElement(identityInfo, context, timings);
+            metrics.record(timings, SamlMetrics.SUCCESS);
+            return assertion;
+        } catch (Exception e) {
+            metrics.record(timings, SamlMetrics.FAILURE);
+            throw e;
+        }
+    }
 
-        signAssertion(assertion, signingCredential);
+    /**
+     * Generates a signed SAML 2.0 assertion element from the context's template and adds the build and
+     * sign stages to the given timings instead of reporting them.
+     *
+     * @param identityInfo The identity information to include in the assertion
+     * @param context      The generation context holding the template and signing credential
+     * @param timings      The timings to add the stages to
+     * @return The signed assertion element
+     * @throws Exception if assertion generation or signing fails
+     */
+    public Element generateAssertionElement(IdentityInfo identityInfo, SamlGenerationContext context,
+                                            StageTimings timings) throws Exception {
+        return generateAssertionElement(identityInfo.toIdentity(), context, timings);
+    }
 
-        logger.info("SAML assertion generated successfully for user: {}", identityInfo.getUserId());
+    /**
+     * Generates a signed SAML 2.0 assertion element for an identity snapshot from the context's template
+     * and adds the build and sign stages to the given timings.
+     *
+     * @param identity The identity to include in the assertion
+     * @param context  The generation context holding the template and signing credential
+     * @param timings  The timings to add the stages to
+     * @return The signed assertion element
+     * @throws Exception if assertion generation or signing fails
+     */
+    public Element generateAssertionElement(Identity identity, SamlGenerationContext context, StageTimings timings)
+            throws Exception {
+        logger.debug("Generating SAML assertion from template for user: {}", identity.getUserId());
+        Element assertion = context.template().generate(identity, timings);
+        logger.debug("SAML assertion generated from template for user: {}", identity.getUserId());
         return assertion;
     }
 
@@ -78,71 +190,101 @@ public class SamlGenerator {
      * @param assertion The Assertion object to marshal
      * @return The XML string representation of the assertion
      * @throws MarshallingException if marshalling fails
-     * @throws TransformerException if XML transformation fails
      */
-    public String marshalAssertion(Assertion assertion) throws MarshallingException, TransformerException {
+    public String marshalAssertion(Assertion assertion) throws MarshallingException {
+        Element element = XMLObjectSupport.marshall(assertion);
+        return serializer.toString(element);
+    }
+
+    /**
+     * Marshals an Assertion object and writes its XML representation as UTF-8 to a stream.
+     * The stream is not closed.
+     *
+     * @param assertion The Assertion object to marshal
+     * @param out       The stream to write to
+     * @throws MarshallingException if marshalling fails
+     */
+    public void marshalAssertion(Assertion assertion, OutputStream out) throws MarshallingException {
         Element element = XMLObjectSupport.marshall(assertion);
-        return elementToString(element);
+        serializer.write(element, out);
+    }
+
+    /**
+     * Gets the serializer used by the marshal methods.
+     *
+     * @return The assertion serializer
+     */
+    public AssertionSerializer getSerializer() {
+        return serializer;
     }
 
-    private <T> T createSamlObject(QName qName) {
-        return (T) XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(qName).buildObject(qName);
+    /**
+     * Enables or disables pretty-printed output. Meant for debugging only, since indenting a signed
+     * assertion invalidates its signature.
+     *
+     * @param prettyPrint true to indent the marshalled XML
+     */
+    public void setPrettyPrint(boolean prettyPrint) {
+        this.serializer = prettyPrint ? AssertionSerializer.PRETTY : AssertionSerializer.COMPACT;
+    }
+
+    /**
+     * Gets the metrics generate calls are reported to.
+     *
+     * @return The metrics, {@link SamlMetrics#NOOP} if none are set
+     */
+    public SamlMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics the stage timings of every generate call are reported to.
+     *
+     * @param metrics The metrics to report to, or null to stop reporting
+     */
+    public void setMetrics(SamlMetrics metrics) {
+        this.metrics = metrics != null ? metrics : SamlMetrics.NOOP;
     }
 
     private String generateId() {
         return "_" + java.util.UUID.randomUUID().toString();
     }
 
-    private Issuer buildIssuer(String issuerValue) {
-        Issuer issuer = createSamlObject(Issuer.DEFAULT_ELEMENT_NAME);
+    private Issuer buildIssuer(SamlGenerationContext context, String issuerValue) {
+        Issuer issuer = context.issuerBuilder.buildObject(Issuer.DEFAULT_ELEMENT_NAME);
         issuer.setValue(issuerValue);
         return issuer;
     }
 
-    private Subject buildSubject(String nameId) {
-        Subject subject = createSamlObject(Subject.DEFAULT_ELEMENT_NAME);
-        NameID nameID = createSamlObject(NameID.DEFAULT_ELEMENT_NAME);
+    private Subject buildSubject(SamlGenerationContext context, String nameId) {
+        Subject subject = context.subjectBuilder.buildObject(Subject.DEFAULT_ELEMENT_NAME);
+        NameID nameID = context.nameIdBuilder.buildObject(NameID.DEFAULT_ELEMENT_NAME);
         nameID.setValue(nameId);
         nameID.setFormat(NameIDType.UNSPECIFIED);
         subject.setNameID(nameID);
         return subject;
     }
 
-    private Conditions buildConditions() {
-        Conditions conditions = createSamlObject(Conditions.DEFAULT_ELEMENT_NAME);
+    private Conditions buildConditions(SamlGenerationContext context) {
+        Conditions conditions = context.conditionsBuilder.buildObject(Conditions.DEFAULT_ELEMENT_NAME);
         Instant now = Instant.now();
         conditions.setNotBefore(now);
         conditions.setNotOnOrAfter(now.plus(5, ChronoUnit.MINUTES));
         return conditions;
     }
 
-    private AttributeStatement buildAttributeStatement(IdentityInfo identityInfo) {
-        AttributeStatement attributeStatement = createSamlObject(AttributeStatement.DEFAULT_ELEMENT_NAME);
-        identityInfo.getAttributes().forEach((key, value) -> {
-            Attribute attribute = createSamlObject(Attribute.DEFAULT_ELEMENT_NAME);
+    private AttributeStatement buildAttributeStatement(SamlGenerationContext context, Identity identity) {
+        AttributeStatement attributeStatement =
+                context.attributeStatementBuilder.buildObject(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        identity.forEachAttribute((key, value) -> {
+            Attribute attribute = context.attributeBuilder.buildObject(Attribute.DEFAULT_ELEMENT_NAME);
             attribute.setName(key);
-            XSString attributeValue = createSamlObject(XSString.TYPE_NAME);
+            XSString attributeValue = context.stringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME,
+                    XSString.TYPE_NAME);
             attributeValue.setValue(value);
             attribute.getAttributeValues().add(attributeValue);
             attributeStatement.getAttributes().add(attribute);
         });
         return attributeStatement;
     }
-
-    private void signAssertion(Assertion assertion, Credential signingCredential) throws SignatureException, MarshallingException, SecurityException {
-        SignatureSigningParameters parameters = new SignatureSigningParameters();
-        parameters.setSigningCredential(signingCredential);
-        parameters.setSignatureAlgorithm(DefaultSecurityConfigurationBootstrap.buildDefaultSignatureSigningConfiguration().getSignatureAlgorithms().get(0));
-        parameters.setSignatureCanonicalizationAlgorithm(DefaultSecurityConfigurationBootstrap.buildDefaultSignatureSigningConfiguration().getSignatureCanonicalizationAlgorithm());
-
-        SignatureSupport.signObject(assertion, parameters);
-    }
-
-    private String elementToString(Element element) throws TransformerException {
-        Transformer tf = TransformerFactory.newInstance().newTransformer();
-        tf.setOutputProperty(OutputKeys.INDENT, "yes");
-        StringWriter writer = new StringWriter();
-        tf.transform(new DOMSource(element), new StreamResult(writer));
-        return writer.toString();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package dev.roshin.saml.processing.util;
+
+/**
+ * Receives the stage timings of completed generate and parse calls.
+ * <p>
+ * {@link SamlGenerator} and {@link SamlParser} report to {@link #NOOP} unless a different implementation
+ * is set, so they can be used without a metrics runtime, for example in tests and benchmarks.
+ */
+public interface SamlMetrics {
+
+    /**
+     * Outcome of a call that completed without an error.
+     */
+    String SUCCESS = "success";
+
+    /**
+     * Outcome of a generate call that failed.
+     */
+    String FAILURE = "failure";
+
+    /**
+     * Outcome of a generate call answered with a previously signed assertion.
+     */
+    String REUSED = "reused";
+
+    /**
+     * Outcome of a generate call turned away because the signing queue was full.
+     */
+    String REJECTED = "rejected";
+
+    /**
+     * Discards all timings.
+     */
+    SamlMetrics NOOP = (timings, outcome) -> {
+    };
+
+    /**
+     * Records a completed call. Implementations must be thread safe and must not throw.
+     *
+     * @param timings The stage timings of the call
+     * @param outcome {@link #SUCCESS}, {@link #FAILURE}, {@link #REUSED}, {@link #REJECTED} or the lower-case parse error code
+     */
+    void record(StageTimings timings, String outcome);
+}
@@ -3,34 +3,70 @@ package dev.roshin.saml.processing.util;
 
 import dev.roshin.saml.processing.domain.Authorization;
 import dev.roshin.saml.processing.domain.IdentityInfo;
+import dev.roshin.saml.processing.util.SamlParser.SamlParserException.ErrorCode;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.xml.BasicParserPool;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
 import org.opensaml.core.config.InitializationException;
-import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Unmarshaller;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.saml2.core.*;
 import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.X509Data;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.XMLConstants;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 public class SamlParser {
     private static final Logger logger = LoggerFactory.getLogger(SamlParser.class);
+    private static final ParserPool PARSER_POOL = buildParserPool();
 
     /**
-     * Constructor for SamlParser. Initializes OpenSAML library.
+     * Default limit for assertions read from an {@link InputStream}, in bytes.
+     */
+    public static final int DEFAULT_MAX_ASSERTION_SIZE = 1024 * 1024;
+
+    private volatile VerifiedAssertionCache verifiedAssertionCache;
+    private volatile AssertionReplayCache replayCache;
+    private volatile SamlMetrics metrics = SamlMetrics.NOOP;
+    private volatile ParseMode parseMode = ParseMode.DOM;
+    private volatile int maxAssertionSize = DEFAULT_MAX_ASSERTION_SIZE;
+    private volatile PkixTrustEngine trustEngine;
+    private volatile Function<String, Pattern> trustedSubjects = providerId -> null;
+
+    /**
+     * Constructor for SamlParser. Makes sure the OpenSAML library is initialized.
      *
      * @throws InitializationException if OpenSAML initialization fails
      */
     public SamlParser() throws InitializationException {
-        InitializationService.initialize();
+        OpenSamlBootstrap.initialize();
         logger.info("SamlParser initialized");
     }
 
@@ -38,78 +74,575 @@ public class SamlParser {
      * Parses a SAML assertion string and returns an IdentityInfo object.
      *
      * @param assertionString the SAML assertion as a String
-     * @param credential      the X.509 credential for signature validation
+     * @param credential      the X.509 credential for signature validation, or null to use the trust engine
      * @return IdentityInfo object containing parsed assertion data
      * @throws SamlParserException if parsing or validation fails
      */
     public IdentityInfo parseAssertion(String assertionString, BasicX509Credential credential) throws SamlParserException {
+        return parseAssertion(assertionString, credential, null);
+    }
+
+    /**
+     * Parses a SAML assertion string received from a provider and returns an IdentityInfo object.
+     * The stage timings of the call are reported to the metrics, tagged with the provider ID.
+     *
+     * @param assertionString the SAML assertion as a String
+     * @param credential      the X.509 credential for signature validation, or null to use the trust engine
+     * @param providerId      the provider that issued the assertion, may be null
+     * @return IdentityInfo object containing parsed assertion data
+     * @throws SamlParserException if parsing or validation fails
+     */
+    public IdentityInfo parseAssertion(String assertionString, BasicX509Credential credential, String providerId)
+            throws SamlParserException {
+        return parseAssertion(assertionString, credential, null, providerId);
+    }
+
+    /**
+     * Parses a SAML assertion string that may be an {@code EncryptedAssertion} and returns an IdentityInfo
+     * object.
+     *
+     * @param assertionString the SAML assertion as a String
+     * @param credential      the X.509 credential for signature validation, or null to use the trust engine
+     * @param decryption      the provider's decryption context, null if it does not encrypt assertions
+     * @param providerId      the provider that issued the assertion, may be null
+     * @return IdentityInfo object containing parsed assertion data
+     * @throws SamlParserException if decryption, parsing or validation fails
+     */
+    public IdentityInfo parseAssertion(String assertionString, BasicX509Credential credential,
+                                       SamlDecryptionContext decryption, String providerId)
+            throws SamlParserException {
+        byte[] rawAssertion = assertionString.getBytes(StandardCharsets.UTF_8);
+        return parseAssertion(rawAssertion, 0, rawAssertion.length, credential, decryption, providerId);
+    }
+
+    /**
+     * Parses a SAML assertion from its raw XML bytes, exactly as received.
+     *
+     * @param rawAssertion the SAML assertion XML
+     * @param credential   the X.509 credential for signature validation, or null to use the trust engine
+     * @param providerId   the provider that issued the assertion, may be null
+     * @return IdentityInfo object containing parsed assertion data
+     * @throws SamlParserException if parsing or validation fails
+     */
+    public IdentityInfo parseAssertion(byte[] rawAssertion, BasicX509Credential credential, String providerId)
+            throws SamlParserException {
+        return parseAssertion(rawAssertion, 0, rawAssertion.length, credential, null, providerId);
+    }
+
+    /**
+     * Parses a SAML assertion from its raw XML bytes, decrypting it first if it is an
+     * {@code EncryptedAssertion}. An encrypted assertion is always read as a DOM, whatever the
+     * {@link #setParseMode(ParseMode) parse mode}.
+     *
+     * @param rawAssertion the SAML assertion XML
+     * @param credential   the X.509 credential for signature validation, or null to use the trust engine
+     * @param decryption   the provider's decryption context, null if it does not encrypt assertions
+     * @param providerId   the provider that issued the assertion, may be null
+     * @return IdentityInfo object containing parsed assertion data
+     * @throws SamlParserException if decryption, parsing or validation fails, with
+     *                             {@link ErrorCode#DECRYPTION_FAILED} if the assertion cannot be decrypted
+     */
+    public IdentityInfo parseAssertion(byte[] rawAssertion, BasicX509Credential credential,
+                                       SamlDecryptionContext decryption, String providerId)
+            throws SamlParserException {
+        return parseAssertion(rawAssertion, 0, rawAssertion.length, credential, decryption, providerId);
+    }
+
+    /**
+     * Parses a SAML assertion from the remaining bytes of a buffer and advances the buffer's position past
+     * them. Heap buffers are parsed in place; direct buffers are copied once.
+     *
+     * @param rawAssertion the SAML assertion XML
+     * @param credential   the X.509 credential for signature validation, or null to use the trust engine
+     * @param providerId   the provider that issued the assertion, may be null
+     * @return IdentityInfo object containing parsed assertion data
+     * @throws SamlParserException if parsing or validation fails
+     */
+    public IdentityInfo parseAssertion(ByteBuffer rawAssertion, BasicX509Credential credential, String providerId)
+            throws SamlParserException {
+        int length = rawAssertion.remaining();
+        IdentityInfo identityInfo;
+        if (rawAssertion.hasArray()) {
+            identityInfo = parseAssertion(rawAssertion.array(), rawAssertion.arrayOffset() + rawAssertion.position(),
+                    length, credential, null, providerId);
+        } else {
+            byte[] copy = new byte[length];
+            rawAssertion.duplicate().get(copy);
+            identityInfo = parseAssertion(copy, 0, length, credential, null, providerId);
+        }
+        rawAssertion.position(rawAssertion.position() + length);
+        return identityInfo;
+    }
+
+    /**
+     * Reads a SAML assertion from a stream, up to the {@link #setMaxAssertionSize(int) size limit}, and parses
+     * it. The stream is read to its end but not closed.
+     *
+     * @param rawAssertion the SAML assertion XML
+     * @param credential   the X.509 credential for signature validation, or null to use the trust engine
+     * @param providerId   the provider that issued the assertion, may be null
+     * @return IdentityInfo object containing parsed assertion data
+     * @throws SamlParserException if reading, parsing or validation fails, with
+     *                             {@link ErrorCode#MALFORMED_ASSERTION} if the assertion is too large
+     */
+    public IdentityInfo parseAssertion(InputStream rawAssertion, BasicX509Credential credential, String providerId)
+            throws SamlParserException {
+        return parseAssertion(readAssertionBytes(rawAssertion, maxAssertionSize), credential, providerId);
+    }
+
+    /**
+     * Reads an assertion from a stream into a byte array, failing instead of reading past a limit.
+     *
+     * @param in      The stream to read
+     * @param maxSize The maximum number of bytes
+     * @return The bytes read
+     * @throws SamlParserException if the stream cannot be read or holds more than maxSize bytes
+     */
+    public static byte[] readAssertionBytes(InputStream in, int maxSize) throws SamlParserException {
+        byte[] bytes;
         try {
-            Assertion assertion = unmarshallAssertion(assertionString);
-            validateAssertion(assertion, credential);
-            return extractIdentityInfo(assertion);
+            bytes = in.readNBytes(maxSize + 1);
+        } catch (IOException e) {
+            throw new SamlParserException("Failed to read SAML assertion", e);
+        }
+        if (bytes.length > maxSize) {
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION,
+                    "SAML assertion exceeds the limit of " + maxSize + " bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the Issuer of an assertion without validating it, so the credential to validate it with can be
+     * looked up.
+     *
+     * @param rawAssertion the SAML assertion XML
+     * @return the issuer, or null if the assertion has none or is encrypted
+     * @throws SamlParserException if the assertion is not well-formed or has more than one Issuer
+     */
+    public static String readIssuer(byte[] rawAssertion) throws SamlParserException {
+        return StreamingAssertion.readIssuer(rawAssertion, 0, rawAssertion.length);
+    }
+
+    private IdentityInfo parseAssertion(byte[] rawAssertion, int offset, int length, BasicX509Credential credential,
+                                        SamlDecryptionContext decryption, String providerId)
+            throws SamlParserException {
+        StageTimings timings = new StageTimings(StageTimings.PARSE, providerId);
+        try {
+            IdentityInfo identityInfo = parse(rawAssertion, offset, length, credential, decryption, timings);
+            metrics.record(timings, SamlMetrics.SUCCESS);
+            return identityInfo;
         } catch (Exception e) {
             logger.error("Failed to parse SAML assertion", e);
-            throw new SamlParserException("Failed to parse SAML assertion", e);
+            SamlParserException failure = new SamlParserException("Failed to parse SAML assertion", e);
+            metrics.record(timings, failure.getErrorCode().name().toLowerCase(Locale.ROOT));
+            throw failure;
+        }
+    }
+
+    /**
+     * Sets how assertions are read. {@link ParseMode#DOM} is the default and the reference implementation;
+     * {@link ParseMode#STREAMING} reads the assertion in a single pass and rejects any structure it does not
+     * expect.
+     *
+     * @param parseMode the parse mode
+     */
+    public void setParseMode(ParseMode parseMode) {
+        this.parseMode = Objects.requireNonNull(parseMode, "parseMode");
+    }
+
+    /**
+     * Gets how assertions are read.
+     *
+     * @return the parse mode
+     */
+    public ParseMode getParseMode() {
+        return parseMode;
+    }
+
+    /**
+     * Sets the largest assertion {@link #parseAssertion(InputStream, BasicX509Credential, String)} reads.
+     *
+     * @param maxAssertionSize the limit in bytes
+     */
+    public void setMaxAssertionSize(int maxAssertionSize) {
+        if (maxAssertionSize <= 0) {
+            throw new IllegalArgumentException("maxAssertionSize must be positive");
         }
+        this.maxAssertionSize = maxAssertionSize;
+    }
+
+    /**
+     * Gets the largest assertion read from a stream.
+     *
+     * @return the limit in bytes
+     */
+    public int getMaxAssertionSize() {
+        return maxAssertionSize;
+    }
+
+    /**
+     * Sets the trust engine used when an assertion is parsed without a credential. The signature is then
+     * verified with the certificate in its KeyInfo, which must chain to one of the engine's trust anchors and
+     * match the {@link #setTrustedSubjects(Function) trusted subject} of the provider the assertion is parsed
+     * for.
+     *
+     * @param trustEngine the trust engine, or null to require an explicit credential
+     */
+    public void setTrustEngine(PkixTrustEngine trustEngine) {
+        this.trustEngine = trustEngine;
+    }
+
+    /**
+     * Gets the trust engine used when an assertion is parsed without a credential.
+     *
+     * @return the trust engine, or null if an explicit credential is required
+     */
+    public PkixTrustEngine getTrustEngine() {
+        return trustEngine;
+    }
+
+    /**
+     * Sets how the trusted subject of a provider is looked up. An assertion parsed without a credential is
+     * only accepted if the subject DN or a DNS or URI alternative name of its KeyInfo certificate fully
+     * matches the pattern of the provider it is parsed for. Without a pattern, for example when no provider
+     * ID is given, it is rejected with {@link ErrorCode#UNTRUSTED_CERTIFICATE}.
+     *
+     * @param trustedSubjects returns the subject pattern of a provider ID, or null if the provider has none
+     */
+    public void setTrustedSubjects(Function<String, Pattern> trustedSubjects) {
+        this.trustedSubjects = Objects.requireNonNull(trustedSubjects, "trustedSubjects");
+    }
+
+    /**
+     * Sets the metrics the stage timings of every parse call are reported to.
+     *
+     * @param metrics the metrics to report to, or null to stop reporting
+     */
+    public void setMetrics(SamlMetrics metrics) {
+        this.metrics = metrics != null ? metrics : SamlMetrics.NOOP;
+    }
+
+    /**
+     * Sets the cache of verified assertions. When set, an assertion that was already verified with the same
+     * credential is not parsed or verified again while it is valid. The cache is not used while a
+     * {@link #setReplayCache(AssertionReplayCache) replay cache} is set, because every hit would be a replay.
+     *
+     * @param verifiedAssertionCache the cache to use, or null to disable caching
+     */
+    public void setVerifiedAssertionCache(VerifiedAssertionCache verifiedAssertionCache) {
+        this.verifiedAssertionCache = verifiedAssertionCache;
+    }
+
+    /**
+     * Sets the replay cache. When set, every assertion ID is only accepted once while the assertion is
+     * valid. An ID is only recorded once the assertion passed validation and its identity was extracted, and
+     * the verified assertion cache is bypassed.
+     *
+     * @param replayCache the replay cache to use, or null to disable replay detection
+     */
+    public void setReplayCache(AssertionReplayCache replayCache) {
+        this.replayCache = replayCache;
     }
 
     /**
-     * Validates a SAML assertion.
+     * Gets the replay cache.
+     *
+     * @return the replay cache, or null if replay detection is disabled
+     */
+    public AssertionReplayCache getReplayCache() {
+        return replayCache;
+    }
+
+    /**
+     * Gets the cache of verified assertions.
+     *
+     * @return the cache, or null if caching is disabled
+     */
+    public VerifiedAssertionCache getVerifiedAssertionCache() {
+        return verifiedAssertionCache;
+    }
+
+    /**
+     * Validates a SAML assertion. When a replay cache is set, the assertion ID is recorded and an
+     * assertion that was already accepted before is rejected.
      *
      * @param assertion  the SAML assertion object
-     * @param credential the X.509 credential for signature validation
+     * @param credential the X.509 credential for signature validation. The assertion is not parsed for a
+     *                   provider, so without a credential there is no trusted subject and it is rejected with
+     *                   {@link ErrorCode#UNTRUSTED_CERTIFICATE}
      * @throws SamlParserException if validation fails
      */
     public void validateAssertion(Assertion assertion, BasicX509Credential credential) throws SamlParserException {
+        validateAssertion(assertion, credential, new StageTimings(StageTimings.PARSE, null));
+        checkReplay(assertion.getID(), assertion.getConditions().getNotOnOrAfter());
+    }
+
+    private void validateAssertion(Assertion assertion, BasicX509Credential credential, StageTimings timings)
+            throws SamlParserException {
+        if (credential == null && assertion.getSignature() != null) {
+            credential = trustedCredential(keyInfoCertificates(assertion.getSignature()), timings.getProviderId());
+            timings.lap("trust");
+        }
         validateSignature(assertion, credential);
+        timings.lap("signature");
         validateConditions(assertion);
         validateSubject(assertion);
+        timings.lap("conditions");
     }
 
-    private Assertion unmarshallAssertion(String assertionString) throws SamlParserException {
+    private IdentityInfo parse(byte[] rawAssertion, int offset, int length, BasicX509Credential credential,
+                               SamlDecryptionContext decryption, StageTimings timings) throws SamlParserException {
+        // A cache hit is a byte-identical resubmission, which replay detection has to reject, so the cache
+        // is bypassed while replay detection is enabled
+        VerifiedAssertionCache cache = replayCache == null ? verifiedAssertionCache : null;
+        VerifiedAssertionCache.Key cacheKey = null;
+        if (cache != null) {
+            // Assertions verified through the trust engine are bound to the provider's subject, so the key
+            // carries the provider as well
+            cacheKey = cache.key(rawAssertion, offset, length, credential != null ? credential.getPublicKey() : null,
+                    timings.getProviderId());
+            VerifiedAssertionCache.Entry cached = cache.get(cacheKey, Instant.now());
+            timings.lap("cache");
+            if (cached != null) {
+                logger.debug("Verified assertion cache hit for assertion {}", cached.getAssertionId());
+                return cached.getIdentityInfo();
+            }
+        }
+
+        IdentityInfo identityInfo;
+        String assertionId;
+        Instant notBefore;
+        Instant notOnOrAfter;
+        // The streaming reader only reads plain assertions, so providers that encrypt are read as a DOM
+        if (parseMode == ParseMode.STREAMING && decryption == null) {
+            StreamingAssertion assertion = readAssertion(rawAssertion, offset, length, credential, timings);
+            identityInfo = extractIdentityInfo(assertion);
+            assertionId = assertion.getId();
+            notBefore = assertion.getNotBefore();
+            notOnOrAfter = assertion.getNotOnOrAfter();
+        } else {
+            Document document = parseDocument(rawAssertion, offset, length);
+            timings.lap("parse");
+            XMLObject xmlObject = unmarshall(document.getDocumentElement());
+            timings.lap("unmarshal");
+            Assertion assertion;
+            if (xmlObject instanceof EncryptedAssertion) {
+                assertion = decrypt((EncryptedAssertion) xmlObject, decryption);
+                timings.lap("decrypt");
+            } else if (xmlObject instanceof Assertion) {
+                assertion = (Assertion) xmlObject;
+            } else {
+                throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION,
+                        "Expected a SAML assertion but got " + xmlObject.getElementQName());
+            }
+            validateAssertion(assertion, credential, timings);
+            identityInfo = extractIdentityInfo(assertion);
+            assertionId = assertion.getID();
+            notBefore = assertion.getConditions().getNotBefore();
+            notOnOrAfter = assertion.getConditions().getNotOnOrAfter();
+        }
+        timings.lap("extract");
+        // Recorded last, so an assertion that fails before this point can still be retried
+        checkReplay(assertionId, notOnOrAfter);
+        timings.lap("replay");
+
+        if (cache != null) {
+            cache.put(cacheKey, assertionId, notBefore, notOnOrAfter, identityInfo, Instant.now());
+        }
+        return identityInfo;
+    }
+
+    /**
+     * Reads and validates an assertion in {@link ParseMode#STREAMING} mode, with the same checks in the same
+     * order as {@link #validateAssertion(Assertion, BasicX509Credential)}.
+     */
+    private StreamingAssertion readAssertion(byte[] rawAssertion, int offset, int length,
+                                             BasicX509Credential credential, StageTimings timings)
+            throws SamlParserException {
+        Document document;
+        try {
+            document = PARSER_POOL.newDocument();
+        } catch (XMLParserException e) {
+            throw new SamlParserException("Failed to create a document for the SAML assertion", e);
+        }
+        StreamingAssertion assertion = StreamingAssertion.read(rawAssertion, offset, length, document);
+        timings.lap("parse");
+        if (credential == null && assertion.isSigned()) {
+            credential = trustedCredential(assertion.getKeyInfoCertificates(), timings.getProviderId());
+            timings.lap("trust");
+        }
+        assertion.verifySignature(credential != null ? credential.getPublicKey() : null);
+        timings.lap("signature");
+        if (!assertion.isConditionsPresent()) {
+            throw new SamlParserException(ErrorCode.MISSING_CONDITIONS, "Assertion conditions are missing");
+        }
+        validateValidityWindow(assertion.getNotBefore(), assertion.getNotOnOrAfter());
+        if (!assertion.isNameIdPresent()) {
+            throw new SamlParserException(ErrorCode.MISSING_SUBJECT, "Subject or NameID is missing");
+        }
+        timings.lap("conditions");
+        return assertion;
+    }
+
+    private Document parseDocument(byte[] rawAssertion, int offset, int length) throws SamlParserException {
+        try (InputStream in = new ByteArrayInputStream(rawAssertion, offset, length)) {
+            return PARSER_POOL.parse(in);
+        } catch (XMLParserException | IOException e) {
+            logger.error("Failed to parse SAML assertion XML", e);
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION, "Failed to unmarshall SAML assertion", e);
+        }
+    }
+
+    private XMLObject unmarshall(Element element) throws SamlParserException {
+        Unmarshaller unmarshaller = XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+        if (unmarshaller == null) {
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION,
+                    "Expected a SAML assertion but got " + element.getNodeName());
+        }
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Element element = db.parse(new ByteArrayInputStream(assertionString.getBytes(StandardCharsets.UTF_8)))
-                    .getDocumentElement();
-            return (Assertion) org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport
-                    .getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
-        } catch (ParserConfigurationException | UnmarshallingException | org.xml.sax.SAXException |
-                 java.io.IOException e) {
+            return unmarshaller.unmarshall(element);
+        } catch (UnmarshallingException e) {
             logger.error("Failed to unmarshall SAML assertion", e);
-            throw new SamlParserException("Failed to unmarshall SAML assertion", e);
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION, "Failed to unmarshall SAML assertion", e);
         }
     }
 
+    private Assertion decrypt(EncryptedAssertion encryptedAssertion, SamlDecryptionContext decryption)
+            throws SamlParserException {
+        if (decryption == null) {
+            throw new SamlParserException(ErrorCode.DECRYPTION_FAILED,
+                    "Assertion is encrypted but no decryption key is configured");
+        }
+        try {
+            return decryption.decrypt(encryptedAssertion);
+        } catch (DecryptionException e) {
+            logger.error("Failed to decrypt SAML assertion", e);
+            throw new SamlParserException(ErrorCode.DECRYPTION_FAILED, "Failed to decrypt SAML assertion", e);
+        }
+    }
+
+    /**
+     * Builds the shared pool of document builders. Every builder is namespace aware, refuses DTDs and
+     * external entities and runs with the JAXP secure-processing limits, which also cap entity expansion.
+     * The pool resets a builder when it is returned, so parse calls never share parser state.
+     */
+    private static ParserPool buildParserPool() {
+        BasicParserPool pool = new BasicParserPool();
+        pool.setMaxPoolSize(Math.max(Runtime.getRuntime().availableProcessors() * 2, 8));
+        pool.setNamespaceAware(true);
+        pool.setDTDValidating(false);
+        pool.setXincludeAware(false);
+        pool.setExpandEntityReferences(false);
+        pool.setIgnoreComments(true);
+        pool.setCoalescing(true);
+
+        Map<String, Boolean> features = new HashMap<>();
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+        features.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+        features.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
+        features.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
+        features.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", Boolean.FALSE);
+        pool.setBuilderFeatures(features);
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        attributes.put(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        attributes.put("http://www.oracle.com/xml/jaxp/properties/entityExpansionLimit", "64");
+        pool.setBuilderAttributes(attributes);
+
+        try {
+            pool.initialize();
+        } catch (ComponentInitializationException e) {
+            throw new IllegalStateException("Failed to initialize the XML parser pool", e);
+        }
+        return pool;
+    }
+
     private void validateSignature(Assertion assertion, BasicX509Credential credential) throws SamlParserException {
+        if (assertion.getSignature() == null) {
+            throw new SamlParserException(ErrorCode.INVALID_SIGNATURE, "Assertion is not signed");
+        }
         try {
             SignatureValidator.validate(assertion.getSignature(), credential);
         } catch (SignatureException e) {
             logger.error("Signature validation failed", e);
-            throw new SamlParserException("Signature validation failed", e);
+            throw new SamlParserException(ErrorCode.INVALID_SIGNATURE, "Signature validation failed", e);
+        }
+    }
+
+    private BasicX509Credential trustedCredential(List<String> certificates, String providerId)
+            throws SamlParserException {
+        PkixTrustEngine engine = trustEngine;
+        if (engine == null) {
+            throw new SamlParserException(ErrorCode.INVALID_SIGNATURE,
+                    "No credential to verify the signature with and no trust engine is configured");
+        }
+        Pattern subject = providerId != null ? trustedSubjects.apply(providerId) : null;
+        if (subject == null) {
+            throw new SamlParserException(ErrorCode.UNTRUSTED_CERTIFICATE,
+                    "No trusted certificate subject is configured for provider " + providerId);
+        }
+        try {
+            return engine.validate(certificates, subject);
+        } catch (GeneralSecurityException e) {
+            logger.error("Signing certificate is not trusted", e);
+            throw new SamlParserException(ErrorCode.UNTRUSTED_CERTIFICATE, "Signing certificate is not trusted", e);
+        }
+    }
+
+    private static List<String> keyInfoCertificates(Signature signature) {
+        List<String> certificates = new ArrayList<>();
+        KeyInfo keyInfo = signature.getKeyInfo();
+        if (keyInfo == null) {
+            return certificates;
         }
+        for (X509Data x509Data : keyInfo.getX509Datas()) {
+            for (org.opensaml.xmlsec.signature.X509Certificate certificate : x509Data.getX509Certificates()) {
+                if (certificate.getValue() != null) {
+                    certificates.add(certificate.getValue());
+                }
+            }
+        }
+        return certificates;
     }
 
     private void validateConditions(Assertion assertion) throws SamlParserException {
         Conditions conditions = assertion.getConditions();
         if (conditions == null) {
-            throw new SamlParserException("Assertion conditions are missing");
+            throw new SamlParserException(ErrorCode.MISSING_CONDITIONS, "Assertion conditions are missing");
         }
 
+        validateValidityWindow(conditions.getNotBefore(), conditions.getNotOnOrAfter());
+    }
+
+    private void validateValidityWindow(Instant notBefore, Instant notOnOrAfter) throws SamlParserException {
         Instant now = Instant.now();
-        if (conditions.getNotBefore() != null && now.isBefore(conditions.getNotBefore())) {
-            throw new SamlParserException("Assertion is not yet valid");
+        if (notBefore != null && now.isBefore(notBefore)) {
+            throw new SamlParserException(ErrorCode.NOT_YET_VALID, "Assertion is not yet valid");
         }
-        if (conditions.getNotOnOrAfter() != null && now.isAfter(conditions.getNotOnOrAfter())) {
-            throw new SamlParserException("Assertion has expired");
+        if (notOnOrAfter != null && now.isAfter(notOnOrAfter)) {
+            throw new SamlParserException(ErrorCode.EXPIRED, "Assertion has expired");
+        }
+    }
+
+    private void checkReplay(String assertionId, Instant notOnOrAfter) throws SamlParserException {
+        AssertionReplayCache cache = replayCache;
+        if (cache == null) {
+            return;
+        }
+        if (assertionId == null || assertionId.isEmpty()) {
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION, "Assertion ID is missing");
+        }
+        if (!cache.checkAndRecord(assertionId, notOnOrAfter, Instant.now())) {
+            throw new SamlParserException(ErrorCode.REPLAYED, "Assertion " + assertionId + " has already been used");
         }
     }
 
     private void validateSubject(Assertion assertion) throws SamlParserException {
         Subject subject = assertion.getSubject();
         if (subject == null || subject.getNameID() == null) {
-            throw new SamlParserException("Subject or NameID is missing");
+            throw new SamlParserException(ErrorCode.MISSING_SUBJECT, "Subject or NameID is missing");
         }
     }
 
@@ -130,24 +663,8 @@ public class SamlParser {
         // Extract Attributes
         for (AttributeStatement attrStatement : assertion.getAttributeStatements()) {
             for (Attribute attribute : attrStatement.getAttributes()) {
-                String name = attribute.getName();
-                String value = attribute.getAttributeValues().get(0).getDOM().getTextContent();
-                switch (name) {
-                    case "trust_level":
-                        identityInfo.setTrustLevel(value);
-                        break;
-                    case "session_id":
-                        identityInfo.setSessionId(value);
-                        break;
-                    case "requested_application":
-                        identityInfo.setRequestedApplication(value);
-                        break;
-                    case "subject_ip":
-                        identityInfo.setSubjectIp(value);
-                        break;
-                    default:
-                        identityInfo.addAttribute(name, value);
-                }
+                addAttribute(identityInfo, attribute.getName(),
+                        attribute.getAttributeValues().get(0).getDOM().getTextContent());
             }
         }
 
@@ -165,16 +682,99 @@ public class SamlParser {
         return identityInfo;
     }
 
+    /**
+     * Builds the IdentityInfo of an assertion read in {@link ParseMode#STREAMING} mode, with the same result
+     * as {@link #extractIdentityInfo(Assertion)}.
+     */
+    private IdentityInfo extractIdentityInfo(StreamingAssertion assertion) {
+        IdentityInfo identityInfo = new IdentityInfo();
+        if (assertion.isNameIdPresent()) {
+            identityInfo.setUserId(assertion.getNameId());
+        }
+        if (assertion.isIssuerPresent()) {
+            identityInfo.setIssuer(assertion.getIssuer());
+        }
+        for (int i = 0; i < assertion.getAttributeCount(); i++) {
+            addAttribute(identityInfo, assertion.getAttributeName(i), assertion.getAttributeValue(i));
+        }
+        if (identityInfo.getTrustLevel() == null && assertion.getAuthnContextClassRef() != null) {
+            identityInfo.setTrustLevel(assertion.getAuthnContextClassRef());
+        }
+        identityInfo.addAuthorization(new Authorization(identityInfo.getRequestedApplication(), Authorization.DEFAULT_NAMESPACE, "read"));
+        return identityInfo;
+    }
+
+    private static void addAttribute(IdentityInfo identityInfo, String name, String value) {
+        switch (name) {
+            case "trust_level":
+                identityInfo.setTrustLevel(value);
+                break;
+            case "session_id":
+                identityInfo.setSessionId(value);
+                break;
+            case "requested_application":
+                identityInfo.setRequestedApplication(value);
+                break;
+            case "subject_ip":
+                identityInfo.setSubjectIp(value);
+                break;
+            default:
+                identityInfo.addAttribute(name, value);
+        }
+    }
+
     /**
      * Custom exception class for SAML parsing errors.
      */
     public static class SamlParserException extends Exception {
+
+        /**
+         * Machine-readable reason a parse failed.
+         */
+        public enum ErrorCode {
+            MALFORMED_ASSERTION,
+            INVALID_SIGNATURE,
+            MISSING_CONDITIONS,
+            NOT_YET_VALID,
+            EXPIRED,
+            MISSING_SUBJECT,
+            REPLAYED,
+            DECRYPTION_FAILED,
+            UNTRUSTED_CERTIFICATE,
+            PARSE_FAILED
+        }
+
+        private final ErrorCode errorCode;
+
         public SamlParserException(String message) {
-            super(message);
+            this(ErrorCode.PARSE_FAILED, message);
         }
 
+        /**
+         * Creates an exception. If the cause is a SamlParserException, its error code is kept.
+         */
         public SamlParserException(String message, Throwable cause) {
+            this(cause instanceof SamlParserException ? ((SamlParserException) cause).errorCode : ErrorCode.PARSE_FAILED,
+                    message, cause);
+        }
+
+        public SamlParserException(ErrorCode errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+
+        public SamlParserException(ErrorCode errorCode, String message, Throwable cause) {
             super(message, cause);
+            this.errorCode = errorCode;
+        }
+
+        /**
+         * Gets the reason the parse failed.
+         *
+         * @return The error code
+         */
+        public ErrorCode getErrorCode() {
+            return errorCode;
         }
     }
-}
\ No newline at end of file
+}
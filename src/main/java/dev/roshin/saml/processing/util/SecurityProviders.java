@@ -0,0 +1,26 @@
+package dev.roshin.saml.processing.util;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.Security;
+
+/**
+ * Registers the Bouncy Castle JCA provider once per process.
+ * <p>
+ * The provider is appended after the JDK providers, so it only serves algorithms and key encodings the JDK
+ * does not handle itself, for example Ed25519 keys created by Bouncy Castle tooling.
+ */
+public final class SecurityProviders {
+
+    private SecurityProviders() {
+    }
+
+    /**
+     * Adds the Bouncy Castle provider unless it is already registered.
+     */
+    public static synchronized void ensureBouncyCastle() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package dev.roshin.saml.processing.util;
+
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import java.security.Key;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves the XML signature and digest algorithms used to sign assertions.
+ * <p>
+ * Algorithms can be configured either by their full XML-DSig URI or by a short name such as
+ * {@code rsa-sha256}, {@code ecdsa-sha256} or {@code ed25519}. When none is configured, the signature
+ * algorithm follows the type of the signing key, so EC and Ed25519 keys work without further settings.
+ */
+public final class SignatureAlgorithms {
+
+    /**
+     * EdDSA over Curve25519, RFC 9231. Not yet among OpenSAML's signature constants.
+     */
+    public static final String ALGO_ID_SIGNATURE_ED25519 = "http://www.w3.org/2021/04/xmldsig-more#eddsa-ed25519";
+
+    private static final Map<String, String> SIGNATURE_ALIASES = Map.of(
+            "rsa-sha256", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+            "rsa-sha384", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA384,
+            "rsa-sha512", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512,
+            "rsa-pss-sha256", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256_MGF1,
+            "ecdsa-sha256", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256,
+            "ecdsa-sha384", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384,
+            "ecdsa-sha512", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512,
+            "ed25519", ALGO_ID_SIGNATURE_ED25519);
+
+    private static final Map<String, String> DIGEST_ALIASES = Map.of(
+            "sha256", SignatureConstants.ALGO_ID_DIGEST_SHA256,
+            "sha384", SignatureConstants.ALGO_ID_DIGEST_SHA384,
+            "sha512", SignatureConstants.ALGO_ID_DIGEST_SHA512);
+
+    private SignatureAlgorithms() {
+    }
+
+    /**
+     * Resolves the signature algorithm for a signing key.
+     *
+     * @param configured The configured algorithm URI or short name, may be null
+     * @param signingKey The key assertions are signed with
+     * @return The signature algorithm URI
+     * @throws IllegalArgumentException if the algorithm is unknown or does not fit the key type
+     */
+    public static String signatureAlgorithm(String configured, Key signingKey) {
+        String keyType = keyType(signingKey);
+        if (configured == null || configured.isBlank()) {
+            switch (keyType) {
+                case "EC":
+                    return SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256;
+                case "EdDSA":
+                    return ALGO_ID_SIGNATURE_ED25519;
+                default:
+                    return SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256;
+            }
+        }
+        String algorithm = resolve(configured, SIGNATURE_ALIASES);
+        String requiredKeyType = requiredKeyType(algorithm);
+        if (requiredKeyType != null && !requiredKeyType.equals(keyType)) {
+            throw new IllegalArgumentException("Signature algorithm " + algorithm + " requires a " + requiredKeyType
+                    + " key but the signing key is " + signingKey.getAlgorithm());
+        }
+        return algorithm;
+    }
+
+    /**
+     * Resolves the reference digest algorithm.
+     *
+     * @param configured The configured algorithm URI or short name, may be null
+     * @return The digest algorithm URI, SHA-256 if none is configured
+     * @throws IllegalArgumentException if the algorithm is unknown
+     */
+    public static String digestAlgorithm(String configured) {
+        if (configured == null || configured.isBlank()) {
+            return SignatureConstants.ALGO_ID_DIGEST_SHA256;
+        }
+        return resolve(configured, DIGEST_ALIASES);
+    }
+
+    private static String resolve(String configured, Map<String, String> aliases) {
+        String value = configured.trim();
+        String alias = aliases.get(value.toLowerCase(Locale.ROOT));
+        if (alias != null) {
+            return alias;
+        }
+        if (aliases.containsValue(value)) {
+            return value;
+        }
+        throw new IllegalArgumentException("Unsupported algorithm: " + configured);
+    }
+
+    private static String requiredKeyType(String signatureAlgorithm) {
+        if (ALGO_ID_SIGNATURE_ED25519.equals(signatureAlgorithm)) {
+            return "EdDSA";
+        }
+        if (signatureAlgorithm.contains("ecdsa")) {
+            return "EC";
+        }
+        if (signatureAlgorithm.contains("rsa")) {
+            return "RSA";
+        }
+        return null;
+    }
+
+    /**
+     * Normalizes the key algorithm names of the JDK and Bouncy Castle providers.
+     */
+    private static String keyType(Key key) {
+        String algorithm = key.getAlgorithm();
+        if ("Ed25519".equalsIgnoreCase(algorithm) || "EdDSA".equalsIgnoreCase(algorithm)) {
+            return "EdDSA";
+        }
+        if ("EC".equalsIgnoreCase(algorithm) || "ECDSA".equalsIgnoreCase(algorithm)) {
+            return "EC";
+        }
+        return algorithm.toUpperCase(Locale.ROOT);
+    }
+}
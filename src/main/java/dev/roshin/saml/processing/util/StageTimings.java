@@ -0,0 +1,138 @@
+package dev.roshin.saml.processing.util;
+
+import java.util.Arrays;
+
+/**
+ * Durations of the stages of a single generate or parse call.
+ * <p>
+ * A call creates one instance and calls {@link #lap(String)} at the end of every stage; each lap records
+ * the time since the previous lap, or since the instance was created for the first one. Instances are not
+ * thread safe and are meant to be confined to the thread handling the call.
+ */
+public final class StageTimings {
+
+    public static final String GENERATE = "generate";
+    public static final String PARSE = "parse";
+
+    private final String operation;
+    private final String providerId;
+    private final long start;
+    private long last;
+    private long idle;
+    private String[] stages = new String[8];
+    private long[] durations = new long[8];
+    private int count;
+
+    /**
+     * Starts timing a call.
+     *
+     * @param operation  The operation, {@link #GENERATE} or {@link #PARSE}
+     * @param providerId The provider the call is for, may be null
+     */
+    public StageTimings(String operation, String providerId) {
+        this.operation = operation;
+        this.providerId = providerId;
+        this.start = System.nanoTime();
+        this.last = start;
+    }
+
+    /**
+     * Ends a stage.
+     *
+     * @param stage The name of the stage that just completed
+     */
+    public void lap(String stage) {
+        long now = System.nanoTime();
+        if (count == stages.length) {
+            stages = Arrays.copyOf(stages, count * 2);
+            durations = Arrays.copyOf(durations, count * 2);
+        }
+        stages[count] = stage;
+        durations[count] = now - last;
+        count++;
+        last = now;
+    }
+
+    /**
+     * Restarts the clock of the next stage without recording the time since the previous lap, for example
+     * after a result waited for the container to write it. The skipped time is not part of
+     * {@link #totalNanos()} either.
+     */
+    public void resume() {
+        long now = System.nanoTime();
+        idle += now - last;
+        last = now;
+    }
+
+    /**
+     * Gets the timed operation.
+     *
+     * @return {@link #GENERATE} or {@link #PARSE}
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the provider the call was for.
+     *
+     * @return The provider ID, or null if the call was not made for a provider
+     */
+    public String getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * Gets the number of completed stages.
+     *
+     * @return The number of laps
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the name of a completed stage.
+     *
+     * @param index The stage index, in completion order
+     * @return The stage name
+     */
+    public String getStage(int index) {
+        return stages[index];
+    }
+
+    /**
+     * Gets the duration of a completed stage.
+     *
+     * @param index The stage index, in completion order
+     * @return The duration in nanoseconds
+     */
+    public long getNanos(int index) {
+        return durations[index];
+    }
+
+    /**
+     * Gets the time from the start of the call to the last completed stage, without the time skipped by
+     * {@link #resume()}.
+     *
+     * @return The total duration in nanoseconds
+     */
+    public long totalNanos() {
+        return last - start - idle;
+    }
+
+    /**
+     * Returns the stage breakdown, for example {@code parse=0.21ms unmarshal=0.35ms signature=1.80ms}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(stages[i]).append('=').append(String.format("%.2fms", durations[i] / 1_000_000.0));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,569 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.util.SamlParser.SamlParserException;
+import dev.roshin.saml.processing.util.SamlParser.SamlParserException.ErrorCode;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.DOMTypeSupport;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.Reference;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An assertion read in a single StAX pass.
+ * <p>
+ * While the input is read, the fields {@link SamlParser} needs are captured and a plain DOM of the
+ * assertion is built, which is only used to verify the signature. No OpenSAML object graph is created. The
+ * reader accepts exactly the SAML 2.0 assertion structure it knows: Issuer, Signature, Subject with a
+ * NameID, Conditions, AuthnStatements and AttributeStatements with plain attribute values. Anything else,
+ * including DTDs, entity references, encrypted elements and unexpected element order, is rejected as a
+ * malformed assertion.
+ * <p>
+ * Signature verification runs with Santuario's secure validation and additionally requires a single
+ * reference to the assertion's own ID with only the enveloped-signature and canonicalization transforms, so
+ * the signature always covers the element the fields were read from.
+ */
+final class StreamingAssertion {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final Set<String> ALLOWED_TRANSFORMS = Set.of(
+            Transforms.TRANSFORM_ENVELOPED_SIGNATURE,
+            Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS,
+            Transforms.TRANSFORM_C14N_EXCL_WITH_COMMENTS,
+            Transforms.TRANSFORM_C14N_OMIT_COMMENTS,
+            Transforms.TRANSFORM_C14N_WITH_COMMENTS);
+
+    private static final Set<String> ALLOWED_CANONICALIZATIONS = Set.of(
+            Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS,
+            Canonicalizer.ALGO_ID_C14N_EXCL_WITH_COMMENTS,
+            Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS,
+            Canonicalizer.ALGO_ID_C14N_WITH_COMMENTS);
+
+    // Kinds of element the reader is inside of; OPAQUE subtrees are only copied into the DOM
+    private static final int ASSERTION = 0;
+    private static final int ISSUER = 1;
+    private static final int SIGNATURE = 2;
+    private static final int SUBJECT = 3;
+    private static final int CONDITIONS = 4;
+    private static final int ATTRIBUTE_STATEMENT = 5;
+    private static final int AUTHN_STATEMENT = 6;
+    private static final int NAME_ID = 7;
+    private static final int ATTRIBUTE = 8;
+    private static final int ATTRIBUTE_VALUE = 9;
+    private static final int AUTHN_CONTEXT = 10;
+    private static final int AUTHN_CONTEXT_CLASS_REF = 11;
+    private static final int OPAQUE = 12;
+
+    private final Document document;
+    private Element root;
+    private Element signature;
+    private String id;
+    private boolean issuerPresent;
+    private String issuer;
+    private boolean nameIdPresent;
+    private String nameId;
+    private boolean conditionsPresent;
+    private Instant notBefore;
+    private Instant notOnOrAfter;
+    private int authnStatements;
+    private String authnContextClassRef;
+    private final List<String> attributeNames = new ArrayList<>();
+    private final List<String> attributeValues = new ArrayList<>();
+
+    private StreamingAssertion(Document document) {
+        this.document = document;
+    }
+
+    /**
+     * Reads an assertion.
+     *
+     * @param rawAssertion The array holding the raw assertion bytes
+     * @param offset       The index of the first byte of the assertion
+     * @param length       The number of bytes of the assertion
+     * @param document     An empty document to build the assertion DOM in
+     * @return The assertion
+     * @throws SamlParserException with {@link ErrorCode#MALFORMED_ASSERTION} if the input is not an assertion
+     *                             of the expected structure
+     */
+    static StreamingAssertion read(byte[] rawAssertion, int offset, int length, Document document)
+            throws SamlParserException {
+        StreamingAssertion assertion = new StreamingAssertion(document);
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(rawAssertion, offset, length));
+            assertion.read(reader);
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION, "Failed to read SAML assertion", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing left to release for an in-memory input
+                }
+            }
+        }
+        return assertion;
+    }
+
+    /**
+     * Reads the Issuer of an assertion without building it. The rest of the assertion is only scanned for
+     * a second Issuer among the root element's children, and nothing else is validated. A second Issuer is
+     * rejected because the DOM unmarshaller keeps the last one, so the issuer an assertion is verified for
+     * could otherwise differ from the issuer it is parsed as.
+     *
+     * @param rawAssertion The array holding the raw assertion bytes
+     * @param offset       The index of the first byte of the assertion
+     * @param length       The number of bytes of the assertion
+     * @return The issuer, or null if the input is not a plain assertion that starts with an Issuer
+     * @throws SamlParserException with {@link ErrorCode#MALFORMED_ASSERTION} if the input is not well-formed
+     *                             or the assertion has more than one Issuer
+     */
+    static String readIssuer(byte[] rawAssertion, int offset, int length) throws SamlParserException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(rawAssertion, offset, length));
+            reader.nextTag();
+            if (!SAMLConstants.SAML20_NS.equals(reader.getNamespaceURI()) || !"Assertion".equals(reader.getLocalName())) {
+                return null;
+            }
+            reader.nextTag();
+            if (!isIssuer(reader)) {
+                return null;
+            }
+            String issuer = StringSupport.trimOrNull(reader.getElementText());
+            for (int depth = 1; depth > 0; ) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 1 && isIssuer(reader)) {
+                        throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION,
+                                "Assertion has more than one Issuer");
+                    }
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            return issuer;
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new SamlParserException(ErrorCode.MALFORMED_ASSERTION, "Failed to read SAML assertion", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing left to release for an in-memory input
+                }
+            }
+        }
+    }
+
+    private static boolean isIssuer(XMLStreamReader reader) {
+        return reader.isStartElement() && SAMLConstants.SAML20_NS.equals(reader.getNamespaceURI())
+                && "Issuer".equals(reader.getLocalName());
+    }
+
+    private void read(XMLStreamReader reader) throws XMLStreamException, SamlParserException {
+        int[] kinds = new int[16];
+        int depth = 0;
+        int lastChild = -1;
+        Node current = document;
+        StringBuilder text = null;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    int parent = depth > 0 ? kinds[depth - 1] : -1;
+                    int kind = childKind(parent, reader.getNamespaceURI(), reader.getLocalName(), lastChild);
+                    if (parent == ASSERTION) {
+                        lastChild = kind;
+                    }
+                    Element element = createElement(reader);
+                    current.appendChild(element);
+                    current = element;
+                    if (depth == kinds.length) {
+                        kinds = Arrays.copyOf(kinds, depth * 2);
+                    }
+                    kinds[depth++] = kind;
+                    text = startElement(kind, element, text);
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT: {
+                    endElement(kinds[--depth], current, text);
+                    current = current.getParentNode();
+                    break;
+                }
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE: {
+                    if (depth == 0) {
+                        break;
+                    }
+                    int kind = kinds[depth - 1];
+                    if (kind == ISSUER || kind == NAME_ID || kind == ATTRIBUTE_VALUE || kind == AUTHN_CONTEXT_CLASS_REF) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    } else if (kind != OPAQUE && kind != SIGNATURE && !reader.isWhiteSpace()) {
+                        throw malformed("Unexpected text content");
+                    }
+                    current.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                }
+                case XMLStreamConstants.COMMENT:
+                    // Dropped like the DOM parser does; comments are outside the signed content
+                    break;
+                case XMLStreamConstants.START_DOCUMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    break;
+                default:
+                    // DTD, entity reference, processing instruction
+                    throw malformed("Unexpected XML construct");
+            }
+        }
+        if (root == null) {
+            throw malformed("Input contains no assertion");
+        }
+    }
+
+    private int childKind(int parent, String namespace, String localName, int lastChild) throws SamlParserException {
+        boolean saml = SAMLConstants.SAML20_NS.equals(namespace);
+        switch (parent) {
+            case -1:
+                if (saml && "Assertion".equals(localName)) {
+                    return ASSERTION;
+                }
+                throw malformed("Expected a SAML assertion but got " + localName);
+            case ASSERTION: {
+                int kind;
+                if (saml && "Issuer".equals(localName)) {
+                    kind = ISSUER;
+                } else if (SAMLConstants.XMLSIG_NS.equals(namespace) && "Signature".equals(localName)) {
+                    kind = SIGNATURE;
+                } else if (saml && "Subject".equals(localName)) {
+                    kind = SUBJECT;
+                } else if (saml && "Conditions".equals(localName)) {
+                    kind = CONDITIONS;
+                } else if (saml && "AttributeStatement".equals(localName)) {
+                    return ATTRIBUTE_STATEMENT;
+                } else if (saml && "AuthnStatement".equals(localName)) {
+                    return AUTHN_STATEMENT;
+                } else {
+                    throw malformed("Unexpected element " + localName + " in assertion");
+                }
+                // Issuer, Signature, Subject and Conditions appear at most once, in schema order, before any statement
+                if (kind <= lastChild) {
+                    throw malformed("Unexpected element order in assertion at " + localName);
+                }
+                return kind;
+            }
+            case SUBJECT:
+                if (saml && "NameID".equals(localName) && !nameIdPresent) {
+                    return NAME_ID;
+                }
+                if (saml && "SubjectConfirmation".equals(localName) && nameIdPresent) {
+                    return OPAQUE;
+                }
+                throw malformed("Unexpected element " + localName + " in subject");
+            case ATTRIBUTE_STATEMENT:
+                if (saml && "Attribute".equals(localName)) {
+                    return ATTRIBUTE;
+                }
+                throw malformed("Unexpected element " + localName + " in attribute statement");
+            case AUTHN_STATEMENT:
+                if (saml && "AuthnContext".equals(localName)) {
+                    return AUTHN_CONTEXT;
+                }
+                if (saml && "SubjectLocality".equals(localName)) {
+                    return OPAQUE;
+                }
+                throw malformed("Unexpected element " + localName + " in authentication statement");
+            case ATTRIBUTE:
+                if (saml && "AttributeValue".equals(localName)) {
+                    return ATTRIBUTE_VALUE;
+                }
+                throw malformed("Unexpected element " + localName + " in attribute");
+            case AUTHN_CONTEXT:
+                if (saml && "AuthnContextClassRef".equals(localName)) {
+                    return AUTHN_CONTEXT_CLASS_REF;
+                }
+                return OPAQUE;
+            case SIGNATURE:
+            case CONDITIONS:
+            case OPAQUE:
+                return OPAQUE;
+            default:
+                // Issuer, NameID, attribute values and class references hold text only
+                throw malformed("Unexpected element " + localName);
+        }
+    }
+
+    private StringBuilder startElement(int kind, Element element, StringBuilder text) throws SamlParserException {
+        switch (kind) {
+            case ASSERTION:
+                root = element;
+                id = attribute(element, "ID");
+                if (id == null) {
+                    throw malformed("Assertion ID is missing");
+                }
+                element.setIdAttributeNS(null, "ID", true);
+                return text;
+            case SIGNATURE:
+                signature = element;
+                return text;
+            case CONDITIONS:
+                conditionsPresent = true;
+                notBefore = instant(attribute(element, "NotBefore"));
+                notOnOrAfter = instant(attribute(element, "NotOnOrAfter"));
+                return text;
+            case AUTHN_STATEMENT:
+                authnStatements++;
+                return text;
+            case ATTRIBUTE:
+                String name = attribute(element, "Name");
+                if (name == null) {
+                    throw malformed("Attribute name is missing");
+                }
+                attributeNames.add(name);
+                return text;
+            case NAME_ID:
+                nameIdPresent = true;
+                return newText(text);
+            case ISSUER:
+                issuerPresent = true;
+                return newText(text);
+            case ATTRIBUTE_VALUE:
+            case AUTHN_CONTEXT_CLASS_REF:
+                return newText(text);
+            default:
+                return text;
+        }
+    }
+
+    private void endElement(int kind, Node element, StringBuilder text) throws SamlParserException {
+        switch (kind) {
+            case ISSUER:
+                issuer = StringSupport.trimOrNull(text.toString());
+                break;
+            case NAME_ID:
+                nameId = StringSupport.trimOrNull(text.toString());
+                break;
+            case ATTRIBUTE_VALUE:
+                // Only the first value of an attribute is used
+                if (attributeValues.size() < attributeNames.size()) {
+                    attributeValues.add(text.toString());
+                }
+                break;
+            case ATTRIBUTE:
+                if (attributeValues.size() < attributeNames.size()) {
+                    throw malformed("Attribute " + ((Element) element).getAttributeNS(null, "Name") + " has no value");
+                }
+                break;
+            case AUTHN_CONTEXT_CLASS_REF:
+                // Only the class reference of the first authentication statement is used
+                if (authnStatements == 1 && authnContextClassRef == null) {
+                    authnContextClassRef = StringSupport.trimOrNull(text.toString());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Element createElement(XMLStreamReader reader) {
+        Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                    reader.getNamespaceURI(i) != null ? reader.getNamespaceURI(i) : "");
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    /**
+     * Verifies the assertion's signature.
+     *
+     * @param verificationKey The key to verify the signature with
+     * @throws SamlParserException with {@link ErrorCode#INVALID_SIGNATURE} if the assertion is unsigned, the
+     *                             signature does not cover exactly the assertion or does not verify
+     */
+    void verifySignature(PublicKey verificationKey) throws SamlParserException {
+        if (signature == null) {
+            throw new SamlParserException(ErrorCode.INVALID_SIGNATURE, "Assertion is not signed");
+        }
+        try {
+            XMLSignature xmlSignature = new XMLSignature(signature, null, true);
+            SignedInfo signedInfo = xmlSignature.getSignedInfo();
+            if (!ALLOWED_CANONICALIZATIONS.contains(signedInfo.getCanonicalizationMethodURI())) {
+                throw invalidSignature("Unsupported canonicalization " + signedInfo.getCanonicalizationMethodURI());
+            }
+            if (signedInfo.getLength() != 1) {
+                throw invalidSignature("Signature must have exactly one reference");
+            }
+            Reference reference = signedInfo.item(0);
+            if (!("#" + id).equals(reference.getURI())) {
+                throw invalidSignature("Signature reference does not point to the assertion");
+            }
+            Transforms transforms = reference.getTransforms();
+            boolean enveloped = false;
+            for (int i = 0; transforms != null && i < transforms.getLength(); i++) {
+                String transform = transforms.item(i).getURI();
+                if (!ALLOWED_TRANSFORMS.contains(transform)) {
+                    throw invalidSignature("Unsupported signature transform " + transform);
+                }
+                enveloped |= Transforms.TRANSFORM_ENVELOPED_SIGNATURE.equals(transform);
+            }
+            if (!enveloped) {
+                throw invalidSignature("Signature is not an enveloped signature");
+            }
+            if (!xmlSignature.checkSignatureValue(verificationKey)) {
+                throw invalidSignature("Signature validation failed");
+            }
+        } catch (XMLSecurityException e) {
+            throw new SamlParserException(ErrorCode.INVALID_SIGNATURE, "Signature validation failed", e);
+        }
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isSigned() {
+        return signature != null;
+    }
+
+    /**
+     * Gets the Base64 content of the X509Certificate elements in the signature's KeyInfo, in document order.
+     *
+     * @return The certificates, empty if the assertion is unsigned or its signature has no KeyInfo
+     */
+    List<String> getKeyInfoCertificates() {
+        List<String> certificates = new ArrayList<>();
+        if (signature == null) {
+            return certificates;
+        }
+        for (Node child = signature.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && SAMLConstants.XMLSIG_NS.equals(child.getNamespaceURI())
+                    && "KeyInfo".equals(child.getLocalName())) {
+                NodeList elements = ((Element) child).getElementsByTagNameNS(SAMLConstants.XMLSIG_NS,
+                        "X509Certificate");
+                for (int i = 0; i < elements.getLength(); i++) {
+                    certificates.add(elements.item(i).getTextContent());
+                }
+            }
+        }
+        return certificates;
+    }
+
+    boolean isIssuerPresent() {
+        return issuerPresent;
+    }
+
+    String getIssuer() {
+        return issuer;
+    }
+
+    boolean isNameIdPresent() {
+        return nameIdPresent;
+    }
+
+    String getNameId() {
+        return nameId;
+    }
+
+    boolean isConditionsPresent() {
+        return conditionsPresent;
+    }
+
+    Instant getNotBefore() {
+        return notBefore;
+    }
+
+    Instant getNotOnOrAfter() {
+        return notOnOrAfter;
+    }
+
+    String getAuthnContextClassRef() {
+        return authnContextClassRef;
+    }
+
+    int getAttributeCount() {
+        return attributeNames.size();
+    }
+
+    String getAttributeName(int index) {
+        return attributeNames.get(index);
+    }
+
+    String getAttributeValue(int index) {
+        return attributeValues.get(index);
+    }
+
+    private static StringBuilder newText(StringBuilder text) {
+        if (text == null) {
+            return new StringBuilder();
+        }
+        text.setLength(0);
+        return text;
+    }
+
+    private static String attribute(Element element, String name) {
+        return element.hasAttributeNS(null, name) ? element.getAttributeNS(null, name) : null;
+    }
+
+    private static Instant instant(String value) {
+        return value != null ? DOMTypeSupport.stringToInstant(value) : null;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static SamlParserException malformed(String message) {
+        return new SamlParserException(ErrorCode.MALFORMED_ASSERTION, message);
+    }
+
+    private static SamlParserException invalidSignature(String message) {
+        return new SamlParserException(ErrorCode.INVALID_SIGNATURE, message);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+        return factory;
+    }
+}
@@ -0,0 +1,228 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Bounded cache of successfully verified assertions.
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the raw assertion bytes together with the key the signature was
+ * verified with and the provider it was verified for, so a hit is only possible for byte-identical input
+ * checked against the same credential, or against the same provider's certificate binding when the signer
+ * is taken from the assertion's KeyInfo.
+ * Each entry remembers the assertion ID and validity window and expires at the assertion's
+ * {@code NotOnOrAfter}. The identity is held in its {@link IdentityInfoCodec} encoding, which is smaller
+ * than the object graph and has an exact length. The cache is bounded both by entry count and by the bytes
+ * the entries hold: the length of each encoding plus a fixed per-entry overhead. Expired entries are swept
+ * whenever an assertion is added, and when either limit is reached the entries that expire first are
+ * evicted first.
+ * <p>
+ * Only assertions that passed full validation are added, so input that fails verification can not be
+ * used to fill the cache. Adding only follows a full signature verification, so the lock of the
+ * {@link ExpiringMap} is rarely contended.
+ */
+public class VerifiedAssertionCache {
+
+    /**
+     * Rough fixed per-entry overhead in bytes: map node, key, digest array, entry, encoding array and set node.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final long maxWeight;
+    private final ExpiringMap<Key, Entry> entries;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries The maximum number of cached assertions
+     * @param maxWeight  The maximum number of bytes the cached entries may hold
+     */
+    public VerifiedAssertionCache(int maxEntries, long maxWeight) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.entries = new ExpiringMap<>(maxEntries, maxWeight);
+    }
+
+    /**
+     * Computes the cache key of an assertion.
+     *
+     * @param rawAssertion    The raw assertion bytes as received
+     * @param verificationKey The key the signature is verified with, or null if the signer is taken from the
+     *                        assertion's KeyInfo and checked by a {@link PkixTrustEngine}
+     * @param providerId      The provider the assertion is verified for, may be null
+     * @return The cache key
+     */
+    public Key key(byte[] rawAssertion, PublicKey verificationKey, String providerId) {
+        return key(rawAssertion, 0, rawAssertion.length, verificationKey, providerId);
+    }
+
+    /**
+     * Computes the cache key of an assertion held in part of an array.
+     *
+     * @param rawAssertion    The array holding the raw assertion bytes as received
+     * @param offset          The index of the first byte of the assertion
+     * @param length          The number of bytes of the assertion
+     * @param verificationKey The key the signature is verified with, or null if the signer is taken from the
+     *                        assertion's KeyInfo and checked by a {@link PkixTrustEngine}
+     * @param providerId      The provider the assertion is verified for, may be null
+     * @return The cache key
+     */
+    public Key key(byte[] rawAssertion, int offset, int length, PublicKey verificationKey, String providerId) {
+        return new Key(sha256(rawAssertion, offset, length), verificationKey, providerId);
+    }
+
+    /**
+     * Looks up a verified assertion.
+     *
+     * @param key The cache key
+     * @param now The current time
+     * @return The cached entry, or null if the assertion is not cached or is outside its validity window
+     */
+    public Entry get(Key key, Instant now) {
+        Entry entry = entries.get(key, now);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.notBefore != null && now.isBefore(entry.notBefore)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a verified assertion, replacing any entry with the same key, and drops the entries that expired.
+     * Assertions without a {@code NotOnOrAfter} condition are not cached.
+     *
+     * @param key          The cache key
+     * @param assertionId  The assertion ID
+     * @param notBefore    The start of the validity window, may be null
+     * @param notOnOrAfter The end of the validity window
+     * @param identityInfo The identity extracted from the assertion
+     * @param now          The current time
+     */
+    public void put(Key key, String assertionId, Instant notBefore, Instant notOnOrAfter, IdentityInfo identityInfo,
+                    Instant now) {
+        if (notOnOrAfter == null || !now.isBefore(notOnOrAfter)) {
+            return;
+        }
+        byte[] encodedIdentity = IdentityInfoCodec.encode(identityInfo);
+        long entryWeight = encodedIdentity.length + ENTRY_OVERHEAD;
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry(assertionId, notBefore, notOnOrAfter, encodedIdentity), notOnOrAfter,
+                entryWeight, now);
+    }
+
+    /**
+     * Gets the number of cached assertions.
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the approximate number of bytes held by the cached entries.
+     *
+     * @return The weight of the cache
+     */
+    public long weight() {
+        return entries.weight();
+    }
+
+    private static byte[] sha256(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Cache key: digest of the raw assertion, the verification key and the provider.
+     */
+    public static final class Key {
+        private final byte[] digest;
+        private final PublicKey verificationKey;
+        private final String providerId;
+        private final int hash;
+
+        private Key(byte[] digest, PublicKey verificationKey, String providerId) {
+            this.digest = digest;
+            this.verificationKey = verificationKey;
+            this.providerId = providerId;
+            this.hash = 31 * (31 * Arrays.hashCode(digest) + Objects.hashCode(verificationKey))
+                    + Objects.hashCode(providerId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return Arrays.equals(digest, that.digest) && Objects.equals(verificationKey, that.verificationKey)
+                    && Objects.equals(providerId, that.providerId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached verification result.
+     */
+    public static final class Entry {
+        private final String assertionId;
+        private final Instant notBefore;
+        private final Instant notOnOrAfter;
+        private final byte[] encodedIdentity;
+
+        private Entry(String assertionId, Instant notBefore, Instant notOnOrAfter, byte[] encodedIdentity) {
+            this.assertionId = assertionId;
+            this.notBefore = notBefore;
+            this.notOnOrAfter = notOnOrAfter;
+            this.encodedIdentity = encodedIdentity;
+        }
+
+        /**
+         * Gets the ID of the cached assertion.
+         *
+         * @return The assertion ID
+         */
+        public String getAssertionId() {
+            return assertionId;
+        }
+
+        /**
+         * Gets the end of the assertion's validity window.
+         *
+         * @return The NotOnOrAfter instant
+         */
+        public Instant getNotOnOrAfter() {
+            return notOnOrAfter;
+        }
+
+        /**
+         * Gets a copy of the identity extracted from the assertion.
+         *
+         * @return A new IdentityInfo the caller may modify
+         */
+        public IdentityInfo getIdentityInfo() {
+            return IdentityInfoCodec.decode(encodedIdentity);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package dev.roshin.saml.rest.health;
+
+import dev.roshin.saml.processing.SamlProcessor;
+import dev.roshin.saml.processing.SamlWarmup;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Reports the pod as ready only after OpenSAML is initialized, the SAML pipeline is warmed up and the SAML
+ * metadata is loaded.
+ */
+@Readiness
+@ApplicationScoped
+public class SamlReadinessCheck implements HealthCheck {
+
+    @Inject
+    private SamlWarmup samlWarmup;
+
+    @Inject
+    private SamlProcessor samlProcessor;
+
+    @Override
+    public HealthCheckResponse call() {
+        HealthCheckResponseBuilder builder = HealthCheckResponse.named("saml-pipeline")
+                .status(samlWarmup.isReady() && samlProcessor.isMetadataLoaded());
+        if (samlWarmup.getFailure() != null) {
+            builder.withData("failure", samlWarmup.getFailure());
+        }
+        return builder.build();
+    }
+}
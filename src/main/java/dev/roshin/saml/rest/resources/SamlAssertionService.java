@@ -2,77 +2,164 @@ package dev.roshin.saml.rest.resources;
 
 
 import dev.roshin.saml.processing.SamlProcessor;
-import jakarta.enterprise.context.RequestScoped;
+import dev.roshin.saml.processing.SignedAssertion;
+import dev.roshin.saml.processing.SigningOverloadedException;
+import dev.roshin.saml.processing.StreamedResult;
+import dev.roshin.saml.processing.util.SamlBinding;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.json.JsonObject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 @Path("/saml")
-@RequestScoped
+@ApplicationScoped
 public class SamlAssertionService {
 
+    private static final String NDJSON = "application/x-ndjson";
+
+    /**
+     * Reads and prepares every request off the HTTP worker thread, on an executor with its own concurrency
+     * policy in server.xml, so SAML load neither takes the server's default threads nor is limited by them.
+     * Signing and verification then run on the signing executor, which completes the response.
+     */
+    @Resource(lookup = "concurrent/samlRequestExecutor")
+    private ManagedExecutorService requestExecutor;
+
     @Inject
     private SamlProcessor samlProcessor;  // Assuming a SAML processing class exists to handle logic
 
     @POST
     @Path("/generate")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response generateAccountAssertion(@QueryParam("jsonRequest") String jsonRequest,
-                                             @QueryParam("providerId") String providerId) {
-        try {
-            String samlAssertion = samlProcessor.generateSamlAssertion(jsonRequest, providerId);
-            return Response.ok(samlAssertion).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error generating SAML assertion: " + e.getMessage()).build();
-        }
+    @Produces({MediaType.APPLICATION_XML, MediaType.TEXT_PLAIN})
+    public CompletionStage<Response> generateAccountAssertion(InputStream jsonRequest,
+                                                              @QueryParam("providerId") String providerId,
+                                                              @QueryParam("binding") String binding) {
+        return async("Error generating SAML assertion", () -> {
+            SamlBinding samlBinding = SamlBinding.fromName(binding);
+            return samlProcessor.generateSamlAssertionAsync(jsonRequest, providerId)
+                    .thenApply(samlAssertion -> assertionResponse(samlAssertion, samlBinding));
+        });
     }
 
     @POST
     @Path("/generateWithToken")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response generateAccountAssertionWithToken(@QueryParam("jsonRequest") String jsonRequest,
-                                                      @QueryParam("sessionToken") String sessionToken,
-                                                      @QueryParam("providerId") String providerId) {
-        try {
-            String samlAssertion = samlProcessor.generateSamlAssertionWithToken(jsonRequest, sessionToken, providerId);
-            return Response.ok(samlAssertion).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error generating SAML assertion with token: " + e.getMessage()).build();
-        }
+    @Produces({MediaType.APPLICATION_XML, MediaType.TEXT_PLAIN})
+    public CompletionStage<Response> generateAccountAssertionWithToken(InputStream jsonRequest,
+                                                                       @QueryParam("sessionToken") String sessionToken,
+                                                                       @QueryParam("providerId") String providerId,
+                                                                       @QueryParam("binding") String binding) {
+        return async("Error generating SAML assertion with token", () -> {
+            SamlBinding samlBinding = SamlBinding.fromName(binding);
+            return samlProcessor.generateSamlAssertionWithTokenAsync(jsonRequest, sessionToken, providerId)
+                    .thenApply(samlAssertion -> assertionResponse(samlAssertion, samlBinding));
+        });
+    }
+
+    @POST
+    @Path("/generate/batch")
+    @Consumes(NDJSON)
+    @Produces(NDJSON)
+    public CompletionStage<Response> generateAccountAssertionBatch(InputStream jsonRequests,
+                                                                   @QueryParam("providerId") String providerId) {
+        return async("Error generating SAML assertion batch", () -> {
+            StreamedResult results = samlProcessor.generateSamlAssertionBatch(jsonRequests, providerId);
+            return CompletableFuture.completedFuture(Response.ok((StreamingOutput) results::writeTo).build());
+        });
     }
 
     @POST
     @Path("/parse")
+    @Consumes({MediaType.APPLICATION_XML, MediaType.TEXT_XML, MediaType.TEXT_PLAIN})
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletionStage<Response> parseAccountAssertion(@QueryParam("providerId") String providerId,
+                                                           @QueryParam("binding") String binding,
+                                                           InputStream samlResponse) {
+        return async("Error parsing SAML assertion", () -> {
+            return samlProcessor.parseSamlAssertionAsync(samlResponse, SamlBinding.fromName(binding), providerId)
+                    .thenApply(parsedResponse -> Response.ok(parsedResponse).build());
+        });
+    }
+
+    @POST
+    @Path("/parse/batch")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response parseAccountAssertion(@QueryParam("providerId") String providerId,
-                                          @QueryParam("SAMLResponse") String samlResponse) {
-        try {
-            JsonObject parsedResponse = samlProcessor.parseSamlAssertion(samlResponse, providerId);
-            return Response.ok(parsedResponse).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error parsing SAML assertion: " + e.getMessage()).build();
-        }
+    public CompletionStage<Response> parseAccountAssertionBatch(InputStream samlResponses,
+                                                                @QueryParam("providerId") String providerId) {
+        return async("Error parsing SAML assertion batch", () -> {
+            StreamedResult results = samlProcessor.parseSamlAssertionBatch(samlResponses, providerId);
+            return CompletableFuture.completedFuture(Response.ok((StreamingOutput) results::writeTo).build());
+        });
     }
 
     @POST
     @Path("/parse/parseByProvider")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response parseAccountAssertionByProvider(String authReqDataString) {
+    public CompletionStage<Response> parseAccountAssertionByProvider(String authReqDataString) {
+        return async("Error parsing SAML assertion by provider", () -> {
+            return samlProcessor.parseSamlAssertionByProviderAsync(authReqDataString)
+                    .thenApply(parsedResponse -> Response.ok(parsedResponse).build());
+        });
+    }
+
+    private static Response assertionResponse(SignedAssertion samlAssertion, SamlBinding binding) {
+        // Encoded assertions are Base64 text; the XML binding writes the assertion as is
+        MediaType type = binding == SamlBinding.XML ? MediaType.APPLICATION_XML_TYPE : MediaType.TEXT_PLAIN_TYPE;
+        return Response.ok((StreamingOutput) out -> samlAssertion.writeTo(out, binding), type).build();
+    }
+
+    private static Response overloaded(SigningOverloadedException e) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", e.getRetryAfterSeconds())
+                .entity(e.getMessage()).build();
+    }
+
+    /**
+     * Starts the work of a request on the request executor and maps its failures to responses: 503 with
+     * Retry-After when signing capacity is exhausted, 503 when the request executor is, 500 with the failure
+     * message otherwise. The work returns as soon as it has handed off to the signing executor, so no request
+     * thread waits for signing.
+     */
+    private CompletionStage<Response> async(String failureMessage, Callable<CompletionStage<Response>> work) {
+        CompletableFuture<CompletionStage<Response>> started;
         try {
-            JsonObject parsedResponse = samlProcessor.parseSamlAssertionByProvider(authReqDataString);
-            return Response.ok(parsedResponse).build();
-        } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error parsing SAML assertion by provider: " + e.getMessage()).build();
+            started = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return work.call();
+                } catch (Exception e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }, requestExecutor);
+        } catch (RejectedExecutionException e) {
+            // The request executor's policy is saturated
+            return CompletableFuture.completedFuture(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(failureMessage + ": " + e.getMessage()).build());
+        }
+        return started.thenCompose(Function.identity())
+                .exceptionally(e -> failure(failureMessage, e));
+    }
+
+    private static Response failure(String failureMessage, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof SigningOverloadedException) {
+            return overloaded((SigningOverloadedException) cause);
         }
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(failureMessage + ": " + cause.getMessage()).build();
     }
 }
@@ -0,0 +1,75 @@
+package dev.roshin.saml.processing;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigValue;
+import org.eclipse.microprofile.config.spi.ConfigSource;
+import org.eclipse.microprofile.config.spi.Converter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * Configuration backed by a map, for tests that run without a MicroProfile Config implementation.
+ */
+class MapConfig implements Config {
+
+    private final Map<String, String> values;
+
+    MapConfig(Map<String, String> values) {
+        this.values = values;
+    }
+
+    @Override
+    public <T> T getValue(String propertyName, Class<T> propertyType) {
+        return getOptionalValue(propertyName, propertyType)
+                .orElseThrow(() -> new NoSuchElementException(propertyName + " is not configured"));
+    }
+
+    @Override
+    public ConfigValue getConfigValue(String propertyName) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> Optional<T> getOptionalValue(String propertyName, Class<T> propertyType) {
+        String value = values.get(propertyName);
+        if (value == null) {
+            return Optional.empty();
+        }
+        Object converted;
+        if (propertyType == String.class) {
+            converted = value;
+        } else if (propertyType == Boolean.class) {
+            converted = Boolean.valueOf(value);
+        } else if (propertyType == Integer.class) {
+            converted = Integer.valueOf(value);
+        } else if (propertyType == Long.class) {
+            converted = Long.valueOf(value);
+        } else {
+            throw new IllegalArgumentException("Unsupported property type " + propertyType);
+        }
+        return Optional.of(propertyType.cast(converted));
+    }
+
+    @Override
+    public Iterable<String> getPropertyNames() {
+        return values.keySet();
+    }
+
+    @Override
+    public Iterable<ConfigSource> getConfigSources() {
+        return List.of();
+    }
+
+    @Override
+    public <T> Optional<Converter<T>> getConverter(Class<T> forType) {
+        return Optional.empty();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) {
+        throw new IllegalArgumentException("Cannot unwrap to " + type);
+    }
+}
@@ -0,0 +1,332 @@
+package dev.roshin.saml.processing;
+
+import dev.roshin.saml.processing.util.KeystoreUtil;
+import dev.roshin.saml.processing.util.SamlBinding;
+import dev.roshin.saml.processing.util.SamlParser;
+import dev.roshin.saml.processing.util.StageTimings;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for SamlProcessor.
+ */
+class SamlProcessorTest {
+
+    private static String keystorePath;
+
+    private final List<String> outcomes = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private SamlProcessor processor;
+
+    @BeforeAll
+    static void setUpAll() {
+        URL keystoreUrl = SamlProcessorTest.class.getClassLoader().getResource("test-keystore.jks");
+        assertNotNull(keystoreUrl, "Keystore file not found in test resources");
+        keystorePath = new File(keystoreUrl.getFile()).getAbsolutePath();
+    }
+
+    @BeforeEach
+    void setUp() {
+        processor = new SamlProcessor();
+        processor.templateEnabled = true;
+        processor.reuseMaxEntries = 16;
+        processor.parseMode = "dom";
+        processor.maxAssertionBytes = 1024 * 1024;
+        processor.batchMaxLineBytes = 4096;
+        processor.batchMaxRequestBytes = 1024 * 1024;
+        processor.metadataPaths = Optional.empty();
+        processor.truststorePath = Optional.empty();
+        processor.truststorePassword = Optional.empty();
+        processor.config = new MapConfig(Map.of(
+                "saml.provider.test-provider.keystore.path", keystorePath,
+                "saml.provider.test-provider.keystore.password", "changeit",
+                "saml.provider.test-provider.key.alias", "mykeyalias"));
+        processor.metrics = new SamlPipelineMetrics() {
+            @Override
+            public void record(StageTimings timings, String outcome) {
+                outcomes.add(outcome);
+            }
+        };
+        processor.signingExecutor = new PooledSigningExecutor();
+        processor.metadataScheduler = scheduler;
+        processor.threadFactory = Executors.defaultThreadFactory();
+        processor.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        processor.destroy();
+        ((PooledSigningExecutor) processor.signingExecutor).pool.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void generateSamlAssertionBatch_AnswersEveryRequestUnderItsIndex() throws Exception {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            requests.append("{\"userId\":\"user-").append(i).append("\"}\n");
+        }
+
+        List<JsonObject> results = ndjson(write(
+                processor.generateSamlAssertionBatch(stream(requests.toString()), "test-provider")));
+
+        assertEquals(20, results.size());
+        for (int i = 0; i < 20; i++) {
+            JsonObject result = results.get(i);
+            assertEquals(i, result.getInt("index"));
+            assertTrue(result.getString("assertion").contains("user-" + i + "<"), "Assertion of user-" + i);
+        }
+    }
+
+    @Test
+    void generateSamlAssertionBatch_ReportsFailedRequestsAndContinues() throws Exception {
+        String requests = "{\"userId\":\"user-0\"}\n"
+                + "\n"
+                + "{not json\n"
+                + "{\"userId\":\"" + "x".repeat(5000) + "\"}\n"
+                + "{\"userId\":\"user-3\"}";
+
+        List<JsonObject> results = ndjson(write(processor.generateSamlAssertionBatch(stream(requests), "test-provider")));
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).containsKey("assertion"));
+        assertTrue(results.get(1).getString("error").contains("not a valid JSON object"));
+        assertTrue(results.get(2).getString("error").contains("maximum size of 4096 bytes"));
+        assertTrue(results.get(3).getString("assertion").contains("user-3<"));
+    }
+
+    @Test
+    void generateSamlAssertionBatch_RejectsOversizedBodyBeforeWriting() {
+        processor.batchMaxRequestBytes = 64;
+        String requests = "{\"userId\":\"user-0\"}\n{\"userId\":\"user-1\"}\n{\"userId\":\"user-2\"}\n{\"userId\":\"user-3\"}\n";
+
+        assertThrows(IllegalArgumentException.class,
+                () -> processor.generateSamlAssertionBatch(stream(requests), "test-provider"));
+    }
+
+    @Test
+    void parseSamlAssertionBatch_AnswersInInputOrder() throws Exception {
+        String first = generate("user-0");
+        String second = generate("user-1");
+        String tampered = first.replace("user-0<", "user-9<");
+        String body = Json.createArrayBuilder().add(first).add(tampered).add(42).add(second).build().toString();
+
+        JsonArray results = array(write(processor.parseSamlAssertionBatch(stream(body), "test-provider")));
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, results.getJsonObject(i).getInt("index"));
+        }
+        assertEquals("user-0", results.getJsonObject(0).getJsonObject("identity").getString("userId"));
+        assertEquals("INVALID_SIGNATURE", results.getJsonObject(1).getString("error"));
+        assertFalse(results.getJsonObject(1).getString("message").isEmpty());
+        assertEquals("MALFORMED_ASSERTION", results.getJsonObject(2).getString("error"));
+        assertEquals("user-1", results.getJsonObject(3).getJsonObject("identity").getString("userId"));
+    }
+
+    @Test
+    void parseSamlAssertionBatch_RejectsInvalidBodyBeforeWriting() {
+        assertThrows(IllegalArgumentException.class,
+                () -> processor.parseSamlAssertionBatch(stream("{\"samlResponse\":\"x\"}"), "test-provider"));
+        assertThrows(IllegalArgumentException.class,
+                () -> processor.parseSamlAssertionBatch(stream("[\"x\", "), "test-provider"));
+
+        processor.batchMaxRequestBytes = 8;
+        assertThrows(IllegalArgumentException.class,
+                () -> processor.parseSamlAssertionBatch(stream("[\"assertion\"]"), "test-provider"));
+    }
+
+    @Test
+    void parseSamlAssertion_DecodesPostBindingStrictly() throws Exception {
+        String encoded = Base64.getMimeEncoder().encodeToString(generate("user-0").getBytes(StandardCharsets.UTF_8));
+
+        JsonObject identity = processor.parseSamlAssertion(stream(encoded), SamlBinding.POST, "test-provider");
+
+        assertEquals("user-0", identity.getString("userId"));
+        assertThrows(SamlParser.SamlParserException.class, () -> processor.parseSamlAssertion(
+                stream(encoded.replace('A', '*')), SamlBinding.POST, "test-provider"));
+    }
+
+    @Test
+    void parseSamlAssertion_RecordsRejectedParse() throws Exception {
+        String assertion = generate("user-0");
+        SigningExecutor pooled = processor.signingExecutor;
+        processor.signingExecutor = new SigningExecutor() {
+            @Override
+            public <T> CompletableFuture<T> callAsync(Callable<T> task) {
+                return CompletableFuture.failedFuture(new SigningOverloadedException(1));
+            }
+        };
+        outcomes.clear();
+        try {
+            assertThrows(SigningOverloadedException.class,
+                    () -> processor.parseSamlAssertion(stream(assertion), SamlBinding.XML, "test-provider"));
+        } finally {
+            processor.signingExecutor = pooled;
+        }
+
+        assertEquals(List.of("rejected"), outcomes);
+    }
+
+    @Test
+    void parseSamlAssertionByProvider_UsesMetadataLoadedAtStartup(@TempDir Path metadataDir) throws Exception {
+        useMetadata(metadataDir, "https://idp.example.com");
+        String assertion = generate("user-0", "https://idp.example.com");
+
+        assertTrue(processor.isMetadataLoaded());
+        JsonObject identity = processor.parseSamlAssertionByProvider(parseRequest(assertion));
+        assertEquals("user-0", identity.getString("userId"));
+    }
+
+    @Test
+    void parseSamlAssertionByProvider_RejectsSecondIssuer(@TempDir Path metadataDir) throws Exception {
+        useMetadata(metadataDir, "https://idp.example.com");
+        // Signed by the IdP in the metadata, but the DOM unmarshaller would keep the victim's Issuer
+        String assertion = generate("user-0", "https://idp.example.com").replace("</saml2:Issuer>",
+                "</saml2:Issuer><saml2:Issuer>https://victim.example.com</saml2:Issuer>");
+
+        SamlParser.SamlParserException e = assertThrows(SamlParser.SamlParserException.class,
+                () -> processor.parseSamlAssertionByProvider(parseRequest(assertion)));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.MALFORMED_ASSERTION, e.getErrorCode());
+    }
+
+    @Test
+    void parseSamlAssertionByProvider_RejectsAssertionWithoutIssuer(@TempDir Path metadataDir) throws Exception {
+        useMetadata(metadataDir, "https://idp.example.com");
+
+        assertThrows(IllegalArgumentException.class, () -> processor.parseSamlAssertionByProvider(
+                parseRequest("<saml2:EncryptedAssertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\"/>")));
+    }
+
+    private String generate(String userId) throws Exception {
+        return processor.generateSamlAssertion(stream("{\"userId\":\"" + userId + "\"}"), "test-provider")
+                .toString();
+    }
+
+    private String generate(String userId, String issuer) throws Exception {
+        return processor.generateSamlAssertion(stream("{\"userId\":\"" + userId + "\",\"issuer\":\"" + issuer + "\"}"),
+                "test-provider").toString();
+    }
+
+    /**
+     * Restarts the processor with metadata that lists the test keystore's certificate for an IdP and waits
+     * for the startup load.
+     */
+    private void useMetadata(Path metadataDir, String entityId) throws Exception {
+        String certificate = Base64.getEncoder().encodeToString(
+                KeystoreUtil.init(keystorePath, "changeit", "mykeyalias").getEntityCertificate().getEncoded());
+        Files.writeString(metadataDir.resolve("metadata.xml"),
+                "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+                        + " xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\" entityID=\"" + entityId + "\">"
+                        + "<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                        + "<md:KeyDescriptor use=\"signing\"><ds:KeyInfo><ds:X509Data><ds:X509Certificate>"
+                        + certificate + "</ds:X509Certificate></ds:X509Data></ds:KeyInfo></md:KeyDescriptor>"
+                        + "</md:IDPSSODescriptor></md:EntityDescriptor>",
+                StandardCharsets.UTF_8);
+        processor.destroy();
+        processor.metadataPaths = Optional.of(metadataDir.toString());
+        processor.init();
+        assertFalse(processor.isMetadataLoaded());
+
+        processor.onStartup(new Object());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!processor.isMetadataLoaded()) {
+            assertTrue(System.nanoTime() < deadline, "Metadata was not loaded");
+            Thread.sleep(10);
+        }
+    }
+
+    private static String parseRequest(String assertion) {
+        return Json.createObjectBuilder().add("samlResponse", assertion).build().toString();
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String write(StreamedResult result) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static JsonArray array(String body) {
+        try (JsonReader reader = Json.createReader(new StringReader(body))) {
+            return reader.readArray();
+        }
+    }
+
+    /**
+     * Reads NDJSON result lines, sorted by index since they are written as they complete.
+     */
+    private static List<JsonObject> ndjson(String body) {
+        List<JsonObject> results = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            try (JsonReader reader = Json.createReader(new StringReader(line))) {
+                results.add(reader.readObject());
+            }
+        }
+        results.sort(Comparator.comparingInt(result -> result.getInt("index")));
+        return results;
+    }
+
+    /**
+     * Runs tasks on a plain pool, without the managed thread factory and metrics of the real executor.
+     */
+    static final class PooledSigningExecutor extends SigningExecutor {
+
+        private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        @Override
+        public <T> CompletableFuture<T> callAsync(Callable<T> task) {
+            try {
+                return CompletableFuture.completedFuture(task.call());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return pool.submit(task);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pool.execute(command);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package dev.roshin.saml.processing;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Snapshot;
+import org.eclipse.microprofile.metrics.Timer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for SigningExecutor.
+ */
+class SigningExecutorTest {
+
+    private final CountingTimer waitTimer = new CountingTimer();
+    private final CountingCounter rejected = new CountingCounter();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private SigningExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = new SigningExecutor();
+        executor.threads = 1;
+        executor.queueCapacity = 1;
+        executor.batchQueueCapacity = 0;
+        executor.retryAfterSeconds = 7;
+        executor.start(Executors.defaultThreadFactory(), waitTimer, rejected);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.destroy();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void callAsync_RejectsBeyondThreadsAndQueueCapacity() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> running = executor.callAsync(blocking(started, "first"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> queued = executor.callAsync(blocking(new CountDownLatch(1), "second"));
+        awaitQueueDepth(1);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> executor.callAsync(() -> "third").get());
+        assertEquals(7, assertInstanceOf(SigningOverloadedException.class, e.getCause()).getRetryAfterSeconds());
+        assertEquals(1, rejected.getCount());
+
+        release.countDown();
+        assertEquals("first", running.get(10, TimeUnit.SECONDS));
+        assertEquals("second", queued.get(10, TimeUnit.SECONDS));
+        assertEquals("fourth", executor.callAsync(() -> "fourth").get(10, TimeUnit.SECONDS));
+        assertEquals(3, waitTimer.getCount());
+    }
+
+    @Test
+    void callAsync_CompletesWithTaskFailure() {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> executor.callAsync(() -> {
+            throw new IllegalStateException("failed");
+        }).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    void submit_WaitsForBatchCapacity() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> running = executor.submit(blocking(started, "first"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Future<Future<String>> waiting = callers.submit(() -> executor.submit(() -> "second"));
+        assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, executor.queueDepth());
+
+        release.countDown();
+        assertEquals("first", running.get(10, TimeUnit.SECONDS));
+        assertEquals("second", waiting.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+        assertEquals(0, rejected.getCount());
+    }
+
+    @Test
+    void submit_DoesNotTakeCapacityOfSingleRequests() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> batch = executor.submit(blocking(started, "batch"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // The batch task holds the only thread, but single requests still have their own permits
+        Future<String> single = executor.callAsync(() -> "single");
+        awaitQueueDepth(1);
+
+        release.countDown();
+        assertEquals("batch", batch.get(10, TimeUnit.SECONDS));
+        assertEquals("single", single.get(10, TimeUnit.SECONDS));
+        assertEquals(0, rejected.getCount());
+    }
+
+    @Test
+    void submit_HoldsPermitOfCancelledTaskUntilItStops() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> running = executor.submit(uninterruptible(started, "first"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(running.cancel(true));
+
+        // The cancelled task still holds the thread, so the next batch task waits for it
+        Future<Future<String>> waiting = callers.submit(() -> executor.submit(() -> "second"));
+        assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertEquals("second", waiting.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_ReleasesPermitOfCancelledQueuedTask() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> running = executor.callAsync(blocking(started, "first"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> queued = executor.submit(() -> "queued");
+        awaitQueueDepth(1);
+
+        assertTrue(queued.cancel(false));
+        assertEquals(0, executor.queueDepth());
+        Future<String> next = callers.submit(() -> executor.submit(() -> "next")).get(10, TimeUnit.SECONDS);
+
+        release.countDown();
+        assertEquals("first", running.get(10, TimeUnit.SECONDS));
+        assertEquals("next", next.get(10, TimeUnit.SECONDS));
+    }
+
+    private Callable<String> blocking(CountDownLatch started, String result) {
+        return () -> {
+            started.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return result;
+        };
+    }
+
+    private Callable<String> uninterruptible(CountDownLatch started, String result) {
+        return () -> {
+            started.countDown();
+            while (release.getCount() > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+            }
+            return result;
+        };
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executor.queueDepth() != depth) {
+            assertTrue(System.nanoTime() < deadline, "Queue depth did not reach " + depth);
+            Thread.sleep(5);
+        }
+    }
+
+    private static final class CountingCounter implements Counter {
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void inc() {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void inc(long n) {
+            count.addAndGet(n);
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    private static final class CountingTimer implements Timer {
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void update(Duration duration) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public <T> T time(Callable<T> event) throws Exception {
+            update(Duration.ZERO);
+            return event.call();
+        }
+
+        @Override
+        public void time(Runnable event) {
+            update(Duration.ZERO);
+            event.run();
+        }
+
+        @Override
+        public Context time() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Duration getElapsedTime() {
+            return Duration.ZERO;
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
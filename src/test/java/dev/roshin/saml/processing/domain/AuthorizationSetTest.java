@@ -0,0 +1,90 @@
+package dev.roshin.saml.processing.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for AuthorizationPool and AuthorizationSet.
+ */
+class AuthorizationSetTest {
+
+    @Test
+    void testIntern_ReturnsSharedImmutableInstance() {
+        Authorization interned = AuthorizationPool.intern("payroll", Authorization.DEFAULT_NAMESPACE, "read");
+
+        assertSame(interned, AuthorizationPool.intern(new Authorization("payroll", "read")));
+        assertEquals(new Authorization("payroll", "read"), interned);
+        assertThrows(UnsupportedOperationException.class, () -> interned.setAction("write"));
+    }
+
+    @Test
+    void testContains() {
+        AuthorizationSet set = AuthorizationSet.of(List.of(new Authorization("payroll"),
+                new Authorization("payroll", "read"), new Authorization("payroll", "read")));
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(new Authorization("payroll", "read")));
+        assertTrue(set.contains("payroll", Authorization.DEFAULT_NAMESPACE, Authorization.DEFAULT_ACTION));
+        assertFalse(set.contains("payroll", Authorization.DEFAULT_NAMESPACE, "write"));
+        assertFalse(set.contains("never-interned-" + System.nanoTime(), "urn:example", "read"));
+        for (Authorization authorization : set) {
+            assertSame(authorization, AuthorizationPool.intern(authorization));
+        }
+    }
+
+    @Test
+    void testIdentity_HasAuthorization() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        identityInfo.addAuthorization(new Authorization("reports", "urn:example:authz", "write"));
+
+        assertTrue(identityInfo.hasAuthorization("reports", "urn:example:authz", "write"));
+        assertFalse(identityInfo.hasAuthorization("reports", "urn:example:authz", "read"));
+        assertEquals(List.of(new Authorization("reports", "urn:example:authz", "write")),
+                identityInfo.toIdentity().authorizations().get("reports"));
+    }
+
+    @Test
+    void testIdentity_DropsDuplicateAuthorizations() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.addAuthorization(new Authorization("payroll", "read"));
+        identityInfo.addAuthorization(new Authorization("payroll", "read"));
+
+        assertEquals(2, identityInfo.getAuthorizations().get("payroll").size());
+        assertEquals(1, identityInfo.toIdentity().grants().size());
+        assertEquals(List.of(new Authorization("payroll", "read")),
+                identityInfo.toIdentity().authorizations().get("payroll"));
+    }
+
+    @Test
+    void testIdentityInfo_CopiesInternedAuthorizations() {
+        Identity identity = Identity.builder().authorization(new Authorization("payroll", "read")).build();
+
+        Authorization authorization = new IdentityInfo(identity).getAuthorizations().get("payroll").get(0);
+
+        assertEquals(0, authorization.getPoolId());
+        assertDoesNotThrow(() -> authorization.setAction("write"));
+        assertTrue(identity.hasAuthorization("payroll", Authorization.DEFAULT_NAMESPACE, "read"));
+    }
+
+    @Test
+    void testSerialization_RebuildsFromTuples() throws Exception {
+        AuthorizationSet set = AuthorizationSet.of(List.of(new Authorization("payroll", "read"),
+                new Authorization("reports", "urn:example:authz", "write")));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(set);
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(set, in.readObject());
+        }
+    }
+}
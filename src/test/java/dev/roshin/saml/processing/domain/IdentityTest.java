@@ -0,0 +1,101 @@
+package dev.roshin.saml.processing.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for Identity.
+ */
+class IdentityTest {
+
+    @Test
+    void testBuilder_WellKnownAndCustomAttributes() {
+        Identity identity = Identity.builder()
+                .userId("testuser")
+                .attribute(IAttributeKeys.ISSUER, "https://test-issuer.com")
+                .attribute("zeta", "z")
+                .attribute("alpha", null)
+                .authorization(new Authorization("payroll"))
+                .build();
+
+        assertEquals("testuser", identity.getUserId());
+        assertEquals("https://test-issuer.com", identity.getIssuer());
+        assertEquals("z", identity.getAttribute("zeta"));
+        assertEquals(4, identity.getAttributeCount());
+        assertTrue(identity.attributes().containsKey("alpha"));
+        assertFalse(identity.attributes().containsKey(IAttributeKeys.SESSION_ID));
+
+        List<String> names = new ArrayList<>();
+        identity.forEachAttribute((name, value) -> names.add(name));
+        assertEquals(List.of(IAttributeKeys.USER_ID, IAttributeKeys.ISSUER, "alpha", "zeta"), names);
+        assertEquals(List.copyOf(identity.attributes().keySet()), names);
+    }
+
+    @Test
+    void testViews_AreReadOnly() {
+        Identity identity = Identity.builder().userId("testuser").authorization(new Authorization("payroll")).build();
+
+        assertThrows(UnsupportedOperationException.class, () -> identity.attributes().put("x", "y"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> identity.authorizations().get("payroll").add(new Authorization("payroll")));
+    }
+
+    @Test
+    void testAttribute_RejectsNullName() {
+        IdentityInfo identityInfo = new IdentityInfo();
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> identityInfo.addAttribute(null, "value"));
+        assertEquals("Attribute name must not be null", e.getMessage());
+        assertNull(identityInfo.getAttribute(null));
+        assertNull(identityInfo.toIdentity().getAttribute(null));
+    }
+
+    @Test
+    void testIdentityInfo_AuthorizationsAreCopied() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.addAuthorization(new Authorization("payroll"));
+
+        identityInfo.getAuthorizations().get("payroll").add(new Authorization("payroll", "write"));
+        identityInfo.getAuthorizations().remove("payroll");
+
+        assertEquals(1, identityInfo.getAuthorizations().get("payroll").size());
+        assertEquals(1, identityInfo.toIdentity().grants().size());
+    }
+
+    @Test
+    void testIdentityInfo_AuthorizationInstancesAreCopied() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        Authorization added = new Authorization("payroll", "read");
+        identityInfo.addAuthorization(added);
+
+        added.setResource("reports");
+        identityInfo.getAuthorizations().get("payroll").get(0).setAction("write");
+
+        assertTrue(identityInfo.hasAuthorization("payroll", Authorization.DEFAULT_NAMESPACE, "read"));
+        assertFalse(identityInfo.hasAuthorization("payroll", Authorization.DEFAULT_NAMESPACE, "write"));
+        assertFalse(identityInfo.hasAuthorization("reports", Authorization.DEFAULT_NAMESPACE, "read"));
+        assertEquals(List.of(new Authorization("payroll", "read")), identityInfo.getAuthorizations().get("payroll"));
+    }
+
+    @Test
+    void testIdentityInfo_SnapshotIsInvalidatedByChanges() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        Identity first = identityInfo.toIdentity();
+
+        assertSame(first, identityInfo.toIdentity());
+        identityInfo.addAttribute("email", "testuser@example.com");
+        Identity second = identityInfo.toIdentity();
+
+        assertNotSame(first, second);
+        assertNull(first.getAttribute("email"));
+        assertEquals("testuser@example.com", second.getAttribute("email"));
+        assertEquals(identityInfo.getAttributes(), second.attributes());
+        assertEquals(second, new IdentityInfo(second).toIdentity());
+    }
+}
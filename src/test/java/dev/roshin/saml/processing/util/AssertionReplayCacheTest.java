@@ -0,0 +1,62 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for AssertionReplayCache.
+ */
+class AssertionReplayCacheTest {
+
+    private final Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    void testCheckAndRecord_RejectsReplay() {
+        AssertionReplayCache cache = new AssertionReplayCache(16, Duration.ofMinutes(5));
+
+        assertTrue(cache.checkAndRecord("_id-1", now.plusSeconds(300), now));
+        assertFalse(cache.checkAndRecord("_id-1", now.plusSeconds(300), now.plusSeconds(10)));
+        assertTrue(cache.checkAndRecord("_id-2", now.plusSeconds(300), now));
+    }
+
+    @Test
+    void testCheckAndRecord_AcceptsAfterExpiry() {
+        AssertionReplayCache cache = new AssertionReplayCache(16, Duration.ofMinutes(5));
+
+        assertTrue(cache.checkAndRecord("_id-1", now.plusSeconds(60), now));
+        assertTrue(cache.checkAndRecord("_id-1", now.plusSeconds(400), now.plusSeconds(60)));
+        assertFalse(cache.checkAndRecord("_id-1", now.plusSeconds(400), now.plusSeconds(120)));
+    }
+
+    @Test
+    void testCheckAndRecord_UsesDefaultTtlWithoutNotOnOrAfter() {
+        AssertionReplayCache cache = new AssertionReplayCache(16, Duration.ofMinutes(5));
+
+        assertTrue(cache.checkAndRecord("_id-1", null, now));
+        assertFalse(cache.checkAndRecord("_id-1", null, now.plusSeconds(299)));
+        assertTrue(cache.checkAndRecord("_id-1", null, now.plusSeconds(300)));
+    }
+
+    @Test
+    void testCheckAndRecord_GrowsAndReclaimsExpiredSlots() {
+        AssertionReplayCache cache = new AssertionReplayCache(1, Duration.ofMinutes(5));
+
+        for (int i = 0; i < 50_000; i++) {
+            assertTrue(cache.checkAndRecord("_id-" + i, now.plusSeconds(300), now));
+        }
+        for (int i = 0; i < 50_000; i += 997) {
+            assertFalse(cache.checkAndRecord("_id-" + i, now.plusSeconds(300), now));
+        }
+        assertEquals(50_000, cache.size());
+
+        Instant later = now.plusSeconds(600);
+        for (int i = 0; i < 50_000; i++) {
+            assertTrue(cache.checkAndRecord("_new-" + i, later.plusSeconds(300), later));
+        }
+        assertTrue(cache.size() <= 100_000);
+    }
+}
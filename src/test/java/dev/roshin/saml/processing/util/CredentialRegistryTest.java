@@ -0,0 +1,111 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for CredentialRegistry.
+ */
+class CredentialRegistryTest {
+
+    private static final String keystorePassword = "changeit";
+    private static final String keyAlias = "mykeyalias";
+
+    @TempDir
+    Path tempDir;
+
+    private Path keystorePath;
+    private CredentialRegistry registry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keystorePath = tempDir.resolve("keystore.jks");
+        try (InputStream is = CredentialRegistryTest.class.getResourceAsStream("/test-keystore.jks")) {
+            assertNotNull(is, "Keystore file not found in test resources");
+            Files.copy(is, keystorePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        registry = new CredentialRegistry(Executors.defaultThreadFactory());
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+    }
+
+    /**
+     * Tests that the keystore is loaded once and the same credential is handed out afterwards.
+     */
+    @Test
+    void testGetCredential_Cached() throws Exception {
+        BasicX509Credential first = registry.getCredential("provider", keystorePath.toString(), keystorePassword, keyAlias);
+        BasicX509Credential second = registry.getCredential("provider", keystorePath.toString(), keystorePassword, keyAlias);
+
+        assertNotNull(first.getPrivateKey());
+        assertSame(first, second);
+        assertSame(first, registry.getCredential("provider", keyAlias));
+        assertNull(registry.getCredential("other", keyAlias));
+    }
+
+    /**
+     * Tests that a changed keystore file is swapped in.
+     */
+    @Test
+    void testReloadChanged_SwapsCredential() throws Exception {
+        BasicX509Credential original = registry.getCredential("provider", keystorePath.toString(), keystorePassword, keyAlias);
+
+        Files.setLastModifiedTime(keystorePath, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        registry.reloadChanged();
+
+        BasicX509Credential reloaded = registry.getCredential("provider", keyAlias);
+        assertNotSame(original, reloaded);
+        assertEquals(original.getEntityCertificate(), reloaded.getEntityCertificate());
+    }
+
+    /**
+     * Tests that a broken keystore does not replace the current credential.
+     */
+    @Test
+    void testReloadChanged_KeepsCredentialOnFailure() throws Exception {
+        BasicX509Credential original = registry.getCredential("provider", keystorePath.toString(), keystorePassword, keyAlias);
+
+        Files.write(keystorePath, new byte[]{1, 2, 3});
+        registry.reloadChanged();
+
+        assertSame(original, registry.getCredential("provider", keyAlias));
+    }
+
+    /**
+     * Tests that the watcher thread comes from the given factory and stops when the registry is closed.
+     */
+    @Test
+    void testClose_StopsWatcherOfGivenThreadFactory() throws Exception {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        CredentialRegistry watched = new CredentialRegistry(task -> {
+            Thread thread = new Thread(task);
+            threads.add(thread);
+            return thread;
+        });
+        watched.getCredential("provider", keystorePath.toString(), keystorePassword, keyAlias);
+        watched.getCredential("other", keystorePath.toString(), keystorePassword, keyAlias);
+
+        assertEquals(1, threads.size());
+        assertEquals("saml-keystore-watcher", threads.get(0).getName());
+        watched.close();
+        threads.get(0).join(10_000);
+        assertFalse(threads.get(0).isAlive());
+    }
+}
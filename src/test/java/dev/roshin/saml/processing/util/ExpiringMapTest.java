@@ -0,0 +1,62 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for ExpiringMap.
+ */
+class ExpiringMapTest {
+
+    private final Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    void testGet_RemovesExpiredEntry() {
+        ExpiringMap<String, String> map = new ExpiringMap<>(4);
+        map.put("a", "1", now.plusSeconds(60), 0, now);
+
+        assertEquals("1", map.get("a", now.plusSeconds(59)));
+        assertNull(map.get("a", now.plusSeconds(60)));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void testPut_ReplacesEntryOfSameKey() {
+        ExpiringMap<String, String> map = new ExpiringMap<>(4, 100);
+        map.put("a", "1", now.plusSeconds(60), 40, now);
+        map.put("a", "2", now.plusSeconds(30), 30, now);
+
+        assertEquals("2", map.get("a", now));
+        assertEquals(1, map.size());
+        assertEquals(30, map.weight());
+    }
+
+    @Test
+    void testPut_SweepsExpiredAndEvictsEntriesThatExpireFirst() {
+        ExpiringMap<String, String> map = new ExpiringMap<>(2);
+        map.put("expired", "0", now.plusSeconds(10), 0, now);
+        map.put("late", "1", now.plusSeconds(300), 0, now.plusSeconds(20));
+        map.put("early", "2", now.plusSeconds(100), 0, now.plusSeconds(20));
+        map.put("middle", "3", now.plusSeconds(200), 0, now.plusSeconds(20));
+
+        assertEquals(2, map.size());
+        assertNull(map.get("expired", now.plusSeconds(20)));
+        assertNull(map.get("early", now.plusSeconds(20)));
+        assertEquals("1", map.get("late", now.plusSeconds(20)));
+        assertEquals("3", map.get("middle", now.plusSeconds(20)));
+    }
+
+    @Test
+    void testPut_StaysWithinWeight() {
+        ExpiringMap<String, String> map = new ExpiringMap<>(10, 100);
+        map.put("a", "1", now.plusSeconds(100), 60, now);
+        map.put("b", "2", now.plusSeconds(200), 60, now);
+
+        assertNull(map.get("a", now));
+        assertEquals("2", map.get("b", now));
+        assertEquals(60, map.weight());
+    }
+}
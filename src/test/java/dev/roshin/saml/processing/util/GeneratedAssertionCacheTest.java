@@ -0,0 +1,113 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for GeneratedAssertionCache.
+ */
+class GeneratedAssertionCacheTest {
+
+    private static SamlGenerationContext context;
+
+    private final Instant now = Instant.parse("2024-01-01T00:00:00Z");
+    private final Duration minRemaining = Duration.ofSeconds(60);
+    private final byte[] assertion = "<saml2:Assertion/>".getBytes(StandardCharsets.UTF_8);
+
+    @BeforeAll
+    static void setUpAll() throws Exception {
+        URL keystoreUrl = GeneratedAssertionCacheTest.class.getClassLoader().getResource("test-keystore.jks");
+        assertNotNull(keystoreUrl, "Keystore file not found in test resources");
+        BasicX509Credential credential = KeystoreUtil.init(new File(keystoreUrl.getFile()).getAbsolutePath(),
+                "changeit", "mykeyalias");
+        OpenSamlBootstrap.initialize();
+        context = SamlGenerationContext.create("test-provider", credential);
+    }
+
+    @Test
+    void testGet_ReusesWhileEnoughValidityRemains() {
+        GeneratedAssertionCache cache = new GeneratedAssertionCache(16);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-1")), assertion, now.plusSeconds(300));
+
+        assertSame(assertion, cache.get(GeneratedAssertionCache.key(context, identity("session-1")), now, minRemaining));
+        assertSame(assertion, cache.get(GeneratedAssertionCache.key(context, identity("session-1")),
+                now.plusSeconds(239), minRemaining));
+        assertNull(cache.get(GeneratedAssertionCache.key(context, identity("session-1")),
+                now.plusSeconds(240), minRemaining));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testKey_DependsOnSessionAndAttributes() {
+        GeneratedAssertionCache cache = new GeneratedAssertionCache(16);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-1")), assertion, now.plusSeconds(300));
+
+        IdentityInfo otherAttributes = identity("session-1");
+        otherAttributes.addAttribute("role", "admin");
+
+        assertNull(cache.get(GeneratedAssertionCache.key(context, identity("session-2")), now, minRemaining));
+        assertNull(cache.get(GeneratedAssertionCache.key(context, otherAttributes), now, minRemaining));
+    }
+
+    @Test
+    void testKey_IsNullWithoutSession() {
+        assertNull(GeneratedAssertionCache.key(context, identity(null)));
+    }
+
+    @Test
+    void testPut_EvictsBeyondMaxEntries() {
+        GeneratedAssertionCache cache = new GeneratedAssertionCache(2);
+        for (int i = 0; i < 5; i++) {
+            cache.put(GeneratedAssertionCache.key(context, identity("session-" + i)), assertion, Instant.MAX);
+        }
+
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testPut_EvictsAssertionsThatExpireFirst() {
+        GeneratedAssertionCache cache = new GeneratedAssertionCache(2);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-1")), assertion, now.plusSeconds(300), now);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-2")), assertion, now.plusSeconds(100), now);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-3")), assertion, now.plusSeconds(200), now);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(GeneratedAssertionCache.key(context, identity("session-1")), now, minRemaining));
+        assertNull(cache.get(GeneratedAssertionCache.key(context, identity("session-2")), now, minRemaining));
+        assertNotNull(cache.get(GeneratedAssertionCache.key(context, identity("session-3")), now, minRemaining));
+    }
+
+    @Test
+    void testPut_SweepsExpiredAssertions() {
+        GeneratedAssertionCache cache = new GeneratedAssertionCache(16);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-1")), assertion, now.plusSeconds(60), now);
+        cache.put(GeneratedAssertionCache.key(context, identity("session-2")), assertion, now.plusSeconds(300), now);
+
+        cache.put(GeneratedAssertionCache.key(context, identity("session-3")), assertion, now.plusSeconds(400),
+                now.plusSeconds(60));
+
+        assertEquals(2, cache.size());
+    }
+
+    private static IdentityInfo identity(String sessionId) {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+        identityInfo.setRequestedApplication("portal");
+        identityInfo.addAttribute("email", "testuser@example.com");
+        if (sessionId != null) {
+            identityInfo.setSessionId(sessionId);
+        }
+        return identityInfo;
+    }
+}
@@ -0,0 +1,106 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.Authorization;
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for IdentityInfoCodec.
+ */
+class IdentityInfoCodecTest {
+
+    @Test
+    void testRoundTrip() {
+        IdentityInfo identityInfo = sampleIdentity();
+
+        IdentityInfo decoded = IdentityInfoCodec.decode(IdentityInfoCodec.encode(identityInfo));
+
+        assertEquals(identityInfo.getAttributes(), decoded.getAttributes());
+        assertEquals(identityInfo.getAuthorizations(), decoded.getAuthorizations());
+        assertNull(decoded.getAttribute("nullable"));
+        assertTrue(decoded.getAttributes().containsKey("nullable"));
+    }
+
+    @Test
+    void testDecode_ReturnsMutableAuthorizations() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.addAuthorization(new Authorization("payroll", "read"));
+
+        IdentityInfo decoded = IdentityInfoCodec.decode(IdentityInfoCodec.encode(identityInfo));
+
+        Authorization decodedAuthorization = decoded.getAuthorizations().get("payroll").get(0);
+        assertEquals(new Authorization("payroll", "read"), decodedAuthorization);
+        assertDoesNotThrow(() -> decodedAuthorization.setAction("write"));
+    }
+
+    @Test
+    void testDecode_DirectBufferAtOffset() {
+        IdentityInfo identityInfo = sampleIdentity();
+        byte[] encoded = IdentityInfoCodec.encode(identityInfo);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length + 8);
+        buffer.position(3);
+        buffer.put(encoded);
+        buffer.flip().position(3);
+
+        IdentityInfo decoded = IdentityInfoCodec.decode(buffer);
+
+        assertEquals(identityInfo.getAttributes(), decoded.getAttributes());
+        assertEquals(3 + encoded.length, buffer.position());
+    }
+
+    @Test
+    void testEncode_IsSmallerThanJavaSerialization() throws Exception {
+        IdentityInfo identityInfo = sampleIdentity();
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(identityInfo);
+        }
+
+        assertTrue(IdentityInfoCodec.encode(identityInfo).length * 4 < serialized.size());
+    }
+
+    @Test
+    void testDecode_RejectsCorruptInput() {
+        byte[] encoded = IdentityInfoCodec.encode(sampleIdentity());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> IdentityInfoCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> IdentityInfoCodec.decode(Arrays.copyOf(encoded, encoded.length + 1)));
+        assertThrows(IllegalArgumentException.class, () -> IdentityInfoCodec.decode(new byte[]{9}));
+        assertThrows(IllegalArgumentException.class,
+                () -> IdentityInfoCodec.decode(new byte[]{IdentityInfoCodec.VERSION, (byte) 0xFF, (byte) 0xFF, 0x7F}));
+    }
+
+    @Test
+    void testDecode_RejectsVarintOverflow() {
+        // An attribute count of 2^32, which would wrap to 0 if the bits above an int were dropped
+        byte[] encoded = {IdentityInfoCodec.VERSION, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10, 0};
+
+        assertThrows(IllegalArgumentException.class, () -> IdentityInfoCodec.decode(encoded));
+    }
+
+    private static IdentityInfo sampleIdentity() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        identityInfo.setIssuer(IdentityInfo.DEFAULT_ISSUER);
+        identityInfo.setSessionId("3f2b8c0e-7d4a-4c1e-9b6f-2a5d8e1c7f40");
+        identityInfo.addAttribute("email", "testuser@example.com");
+        identityInfo.addAttribute("display-name", "Zo\u00eb \u00dcn\u00efcode");
+        identityInfo.addAttribute("nullable", null);
+        identityInfo.addAuthorization(new Authorization("payroll"));
+        identityInfo.addAuthorization(new Authorization("payroll", "read"));
+        identityInfo.addAuthorization(new Authorization("reports", "urn:example:authz", "write"));
+        assertEquals(List.of(new Authorization("payroll"), new Authorization("payroll", "read")),
+                identityInfo.getAuthorizations().get("payroll"));
+        return identityInfo;
+    }
+}
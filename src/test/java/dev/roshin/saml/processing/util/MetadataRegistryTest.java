@@ -0,0 +1,175 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for MetadataRegistry.
+ */
+class MetadataRegistryTest {
+
+    private static final String POST = "urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST";
+
+    private static BasicX509Credential credential;
+    private static String certificate;
+
+    @TempDir
+    Path tempDir;
+
+    private MetadataRegistry registry;
+
+    @BeforeAll
+    static void setUpAll() throws Exception {
+        URL keystoreUrl = MetadataRegistryTest.class.getClassLoader().getResource("test-keystore.jks");
+        assertNotNull(keystoreUrl, "Keystore file not found in test resources");
+        credential = KeystoreUtil.init(new File(keystoreUrl.getFile()).getAbsolutePath(), "changeit", "mykeyalias");
+        certificate = Base64.getMimeEncoder().encodeToString(credential.getEntityCertificate().getEncoded());
+    }
+
+    @BeforeEach
+    void setUp() {
+        registry = new MetadataRegistry(List.of(tempDir));
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+    }
+
+    /**
+     * Tests that the entities of an aggregate are indexed with their signing certificates and endpoints.
+     */
+    @Test
+    void testResolve_Aggregate() throws Exception {
+        Files.writeString(tempDir.resolve("aggregate.xml"), aggregate(
+                idp("https://idp.example.com", "signing"),
+                idp("https://encrypting-only.example.com", "encryption"),
+                sp("https://sp.example.com")), StandardCharsets.UTF_8);
+
+        registry.refresh();
+
+        assertEquals(3, registry.size());
+        MetadataEntry idp = registry.resolve("https://idp.example.com");
+        assertTrue(idp.isIdentityProvider());
+        assertTrue(idp.isWantAuthnRequestsSigned());
+        assertEquals("https://idp.example.com/sso", idp.getSingleSignOnService(POST));
+        assertEquals(1, idp.getSigningCredentials().size());
+        assertEquals(credential.getEntityCertificate(), idp.getSigningCredentials().get(0).getEntityCertificate());
+        assertTrue(registry.resolve("https://encrypting-only.example.com").getSigningCredentials().isEmpty());
+        MetadataEntry sp = registry.resolve("https://sp.example.com");
+        assertTrue(sp.isServiceProvider());
+        // The SP's signing key signs requests, never assertions
+        assertTrue(sp.getSigningCredentials().isEmpty());
+        assertEquals("https://sp.example.com/acs/default", sp.getAssertionConsumerService(POST));
+        assertNull(registry.resolve("https://unknown.example.com"));
+        assertNull(registry.resolve(null));
+    }
+
+    /**
+     * Tests that a refresh only re-reads changed files and keeps the entries of unchanged ones.
+     */
+    @Test
+    void testRefresh_Incremental() throws Exception {
+        Path first = tempDir.resolve("first.xml");
+        Path second = tempDir.resolve("second.xml");
+        Files.writeString(first, aggregate(idp("https://one.example.com", null)), StandardCharsets.UTF_8);
+        Files.writeString(second, aggregate(idp("https://two.example.com", null)), StandardCharsets.UTF_8);
+        registry.refresh();
+        MetadataEntry one = registry.resolve("https://one.example.com");
+
+        Files.writeString(second, aggregate(idp("https://three.example.com", null)), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(second, FileTime.fromMillis(Files.getLastModifiedTime(second).toMillis() + 2000));
+        registry.refresh();
+
+        assertSame(one, registry.resolve("https://one.example.com"));
+        assertNull(registry.resolve("https://two.example.com"));
+        assertNotNull(registry.resolve("https://three.example.com"));
+    }
+
+    /**
+     * Tests that a file that can no longer be parsed keeps its previous entries.
+     */
+    @Test
+    void testRefresh_KeepsEntriesOfBrokenFile() throws Exception {
+        Path file = tempDir.resolve("metadata.xml");
+        Files.writeString(file, aggregate(idp("https://idp.example.com", null)), StandardCharsets.UTF_8);
+        registry.refresh();
+
+        Files.writeString(file, "<EntitiesDescriptor", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        registry.refresh();
+
+        assertNotNull(registry.resolve("https://idp.example.com"));
+    }
+
+    /**
+     * Tests that a started registry refreshes on the scheduler until it is closed.
+     */
+    @Test
+    void testStart_RefreshesOnScheduler() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            registry.start(scheduler, Duration.ofMillis(10));
+            Files.writeString(tempDir.resolve("metadata.xml"), aggregate(idp("https://idp.example.com", null)),
+                    StandardCharsets.UTF_8);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (registry.resolve("https://idp.example.com") == null) {
+                assertTrue(System.nanoTime() < deadline, "Metadata was not refreshed");
+                Thread.sleep(10);
+            }
+            registry.close();
+            assertFalse(scheduler.isShutdown());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static String aggregate(String... entities) {
+        return "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+                + " xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\">"
+                + String.join("", entities)
+                + "</md:EntitiesDescriptor>";
+    }
+
+    private static String idp(String entityId, String use) {
+        return "<md:EntityDescriptor entityID=\"" + entityId + "\">"
+                + "<md:IDPSSODescriptor WantAuthnRequestsSigned=\"true\""
+                + " protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                + "<md:KeyDescriptor" + (use != null ? " use=\"" + use + "\"" : "") + ">"
+                + "<ds:KeyInfo><ds:X509Data><ds:X509Certificate>\n" + certificate + "\n</ds:X509Certificate>"
+                + "</ds:X509Data></ds:KeyInfo></md:KeyDescriptor>"
+                + "<md:SingleSignOnService Binding=\"" + POST + "\" Location=\"" + entityId + "/sso\"/>"
+                + "</md:IDPSSODescriptor></md:EntityDescriptor>";
+    }
+
+    private static String sp(String entityId) {
+        return "<md:EntityDescriptor entityID=\"" + entityId + "\">"
+                + "<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                + "<md:KeyDescriptor use=\"signing\"><ds:KeyInfo><ds:X509Data><ds:X509Certificate>" + certificate
+                + "</ds:X509Certificate></ds:X509Data></ds:KeyInfo></md:KeyDescriptor>"
+                + "<md:AssertionConsumerService Binding=\"" + POST + "\" Location=\"" + entityId + "/acs\" index=\"0\"/>"
+                + "<md:AssertionConsumerService Binding=\"" + POST + "\" Location=\"" + entityId + "/acs/default\""
+                + " index=\"1\" isDefault=\"true\"/>"
+                + "</md:SPSSODescriptor></md:EntityDescriptor>";
+    }
+}
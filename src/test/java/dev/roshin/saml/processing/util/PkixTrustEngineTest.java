@@ -0,0 +1,214 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for PkixTrustEngine.
+ */
+class PkixTrustEngineTest {
+
+    // EC certificates valid from 2026 to 2126: a CA, an IdP certificate issued by it and an unrelated CA
+    private static final String CA = """
+            MIIBVzCB/6ADAgECAgkA8fCo+SaKRucwCgYIKoZIzj0EAwIwFzEVMBMGA1UEAxMM
+            VGVzdCBTQU1MIENBMCAXDTI2MTAxNjIyNTkzNFoYDzIxMjYwOTIyMjI1OTM0WjAX
+            MRUwEwYDVQQDEwxUZXN0IFNBTUwgQ0EwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNC
+            AATVU8CaQ19y5pMXcHGNQiP1t80OBJ12wejBT7CzH6O/giI+ZxSD4NUCosijOH/P
+            e5zp7EVG/aTW++uWg+fwceLNozIwMDAdBgNVHQ4EFgQUDSsrVBWXut6wW9DevqJV
+            sIQfYMswDwYDVR0TAQH/BAUwAwEB/zAKBggqhkjOPQQDAgNHADBEAiBL4iTnjuyX
+            nFFtw4YE5R0Sj+L72Vepc2KqOROf5UfuzQIgI5bgXqDwlXINed4FV6jTuUSBQZh/
+            8/5HPG2avScwRcQ=
+            """;
+    private static final String IDP = """
+            MIIBZDCCAQqgAwIBAgIIBRo9/VKpQkcwCgYIKoZIzj0EAwIwFzEVMBMGA1UEAxMM
+            VGVzdCBTQU1MIENBMCAXDTI2MTAxNjIyNTkzOFoYDzIxMjYwOTIyMjI1OTM4WjAT
+            MREwDwYDVQQDEwhUZXN0IElkUDBZMBMGByqGSM49AgEGCCqGSM49AwEHA0IABL7J
+            SxsaKALDRRzN99s7IkGMFHY66M+a7Qr3mPFYTDUsS9WBxpZHapITOHOegd7Uc79Q
+            c5NgaarUTS0kUqdyXtSjQjBAMB0GA1UdDgQWBBSG3dk9vg/Vx+fgiBgR6BHevqot
+            zDAfBgNVHSMEGDAWgBQNKytUFZe63rBb0N6+olWwhB9gyzAKBggqhkjOPQQDAgNI
+            ADBFAiEAxMtcUk0FNjOmuwzoAV2NgtyRUiGnmLphvrQOcjLsF1cCIFmZyuLIAXdz
+            MKO3ywRkHKe+skfJqO3KWkii88GQdBFu
+            """;
+    static final String OTHER_CA = """
+            MIIBUDCB9qADAgECAghWqeUk3os1lTAKBggqhkjOPQQDAjATMREwDwYDVQQDEwhP
+            dGhlciBDQTAgFw0yNjEwMTYyMjU5NDBaGA8yMTI2MDkyMjIyNTk0MFowEzERMA8G
+            A1UEAxMIT3RoZXIgQ0EwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAARaHgKcd0mX
+            IHDFB7sLFGu9QwXgtEidj3kCDTtmk49wN+VzTRFSE8rooDlbY5NY4GQHbmEKZu7x
+            /rFTJMFoUgasozIwMDAdBgNVHQ4EFgQUl5PSEUKw2ily+7E3IkKFOV2RYxswDwYD
+            VR0TAQH/BAUwAwEB/zAKBggqhkjOPQQDAgNJADBGAiEAqFbjxKE8JFTszGLipPSG
+            Xf2EbEJ5dAw6X7hw1MZN3A0CIQD3pwKmf4iKoupY2QGLgAjscuLT0MCKGmhk9doE
+            9NusDA==
+            """;
+    // A CA whose key usage is limited to certificate and CRL signing, an IdP certificate issued by it with DNS
+    // and URI alternative names, and a key agreement certificate issued by it
+    private static final String KEY_USAGE_CA = """
+            MIIBbzCCARWgAwIBAgIIaFDYAQiMHDkwCgYIKoZIzj0EAwIwHDEaMBgGA1UEAxMR
+            VGVzdCBLZXkgVXNhZ2UgQ0EwIBcNMjYxMDE2MDAwMDAwWhgPMjEyNjA5MjIwMDAw
+            MDBaMBwxGjAYBgNVBAMTEVRlc3QgS2V5IFVzYWdlIENBMFkwEwYHKoZIzj0CAQYI
+            KoZIzj0DAQcDQgAEi0h4JLEhgf6RlCCkuM7OL1XTrFCLTIBC2S0yUNmAOetFVXiB
+            brnNcQOaaKo/CLzqC5yv8VED7pYaPYfzWD9lq6M/MD0wHQYDVR0OBBYEFPzHK7zi
+            yEjXNilRCw43bSx+oTRzMAsGA1UdDwQEAwIBBjAPBgNVHRMBAf8EBTADAQH/MAoG
+            CCqGSM49BAMCA0gAMEUCIEMq6jG/5a+B/vKvUQJhtSbZ66x33hfPGLfFpaoBFLu6
+            AiEA9APpLgestAUNRVR7ymEo/0M69AmPqk4Mx5HZFonkRGU=
+            """;
+    private static final String SAN_IDP = """
+            MIIBuDCCAV2gAwIBAgIJAITWjFEHOORkMAoGCCqGSM49BAMCMBwxGjAYBgNVBAMT
+            EVRlc3QgS2V5IFVzYWdlIENBMCAXDTI2MTAxNjAwMDAwMFoYDzIxMjYwOTIyMDAw
+            MDAwWjAXMRUwEwYDVQQDEwxUZXN0IFNBTiBJZFAwWTATBgcqhkjOPQIBBggqhkjO
+            PQMBBwNCAASzVjkSEMYYNfFrvke2S9CMm92K86bqJ97mV6GGQktMEQM2M6f55yNC
+            3CxaHupJxFweev3H0oiBKQN0ITQcWLMyo4GKMIGHMB0GA1UdDgQWBBSD1CN7q80g
+            6DT8ANGXjrQyw1+OUDALBgNVHQ8EBAMCB4AwOAYDVR0RBDEwL4IPaWRwLmV4YW1w
+            bGUuY29thhxodHRwczovL2lkcC5leGFtcGxlLmNvbS9zYW1sMB8GA1UdIwQYMBaA
+            FPzHK7ziyEjXNilRCw43bSx+oTRzMAoGCCqGSM49BAMCA0kAMEYCIQCx0Xl60tG8
+            MZS2CHeWjPlWryFLA3ygeZrwwObA/tpi6wIhAKhvLxpGGbphZBpTDSkQZUPjFF7b
+            k5dVakydrB+MX41Q
+            """;
+    private static final String KEY_AGREEMENT = """
+            MIIBfjCCASSgAwIBAgIJAMrCJ3XX3SmLMAoGCCqGSM49BAMCMBwxGjAYBgNVBAMT
+            EVRlc3QgS2V5IFVzYWdlIENBMCAXDTI2MTAxNjAwMDAwMFoYDzIxMjYwOTIyMDAw
+            MDAwWjAaMRgwFgYDVQQDEw9UZXN0IEVuY3J5cHRpb24wWTATBgcqhkjOPQIBBggq
+            hkjOPQMBBwNCAAQbw13jsxpmy9TCHWQ/ZcoM3ie2GKgMCA7csC0kyLCT9KcVOkgu
+            07T70AMFmS8Nlbd8f9yyci+NhdeIJHOGaJnso08wTTAdBgNVHQ4EFgQUv0aKFnAd
+            x/R+WR5lmN+UF8MudPowCwYDVR0PBAQDAgMIMB8GA1UdIwQYMBaAFPzHK7ziyEjX
+            NilRCw43bSx+oTRzMAoGCCqGSM49BAMCA0gAMEUCIAIHtOzmgHWXLyCvsKwlGWjD
+            E1v4/iI2sZ3vXtpMDGMtAiEAj2prs+Wi2gHRQPsBw68FRphV3OjAsjnnLPTX7VA3
+            hEU=
+            """;
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2030-01-01T00:00:00Z"), ZoneOffset.UTC);
+
+    private static X509Certificate ca;
+    private static X509Certificate otherCa;
+    private static X509Certificate keyUsageCa;
+
+    @BeforeAll
+    static void setUpAll() throws Exception {
+        ca = certificate(CA);
+        otherCa = certificate(OTHER_CA);
+        keyUsageCa = certificate(KEY_USAGE_CA);
+    }
+
+    /**
+     * Tests that a certificate issued by an anchor is trusted and the result is cached.
+     */
+    @Test
+    void testValidate_CachesTrustedCertificate() throws Exception {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(ca), false, Duration.ofHours(1), 100, CLOCK);
+
+        BasicX509Credential first = engine.validate(List.of(IDP));
+        BasicX509Credential second = engine.validate(List.of(IDP));
+
+        assertEquals("CN=Test IdP", first.getEntityCertificate().getSubjectX500Principal().getName());
+        assertSame(first, second);
+        assertEquals(1, engine.size());
+    }
+
+    /**
+     * Tests that an anchor itself is trusted.
+     */
+    @Test
+    void testValidate_Anchor() throws Exception {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(ca), false, Duration.ofHours(1), 100, CLOCK);
+
+        assertEquals(ca, engine.validate(List.of(CA)).getEntityCertificate());
+    }
+
+    /**
+     * Tests that a certificate without a path to an anchor is rejected and not cached.
+     */
+    @Test
+    void testValidate_RejectsUntrustedCertificate() {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(otherCa), false, Duration.ofHours(1), 100, CLOCK);
+
+        assertThrows(GeneralSecurityException.class, () -> engine.validate(List.of(IDP)));
+        assertThrows(GeneralSecurityException.class, () -> engine.validate(List.of()));
+        assertEquals(0, engine.size());
+    }
+
+    /**
+     * Tests that a result is not reused after the TTL.
+     */
+    @Test
+    void testValidate_ExpiredResultIsRevalidated() throws Exception {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(ca), false, Duration.ZERO, 100, CLOCK);
+
+        assertNotSame(engine.validate(List.of(IDP)), engine.validate(List.of(IDP)));
+    }
+
+    /**
+     * Tests that the result that expires first is evicted beyond the maximum number of entries.
+     */
+    @Test
+    void testValidate_EvictsResultThatExpiresFirst() throws Exception {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(ca), false, Duration.ofHours(1), 1, CLOCK);
+
+        BasicX509Credential anchor = engine.validate(List.of(CA));
+        BasicX509Credential idp = engine.validate(List.of(IDP));
+
+        assertEquals(1, engine.size());
+        assertSame(idp, engine.validate(List.of(IDP)));
+        assertNotSame(anchor, engine.validate(List.of(CA)));
+    }
+
+    /**
+     * Tests that the signing certificate must match the subject pattern by its subject DN or an alternative
+     * name, also when its path is cached.
+     */
+    @Test
+    void testValidate_BindsSigningCertificateToSubject() throws Exception {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(ca, keyUsageCa), false, Duration.ofHours(1), 100, CLOCK);
+
+        assertNotNull(engine.validate(List.of(IDP), Pattern.compile("CN=Test IdP")));
+        assertThrows(GeneralSecurityException.class, () -> engine.validate(List.of(IDP), Pattern.compile("CN=Other")));
+        assertNotNull(engine.validate(List.of(SAN_IDP), Pattern.compile("idp\\.example\\.com")));
+        assertNotNull(engine.validate(List.of(SAN_IDP), Pattern.compile("https://idp\\.example\\.com/.*")));
+        assertThrows(GeneralSecurityException.class,
+                () -> engine.validate(List.of(SAN_IDP), Pattern.compile("example\\.com")));
+        assertEquals(2, engine.size());
+    }
+
+    /**
+     * Tests that a signing certificate whose key usage excludes digitalSignature is rejected, whether it is
+     * issued by an anchor or is one itself.
+     */
+    @Test
+    void testValidate_RequiresDigitalSignatureKeyUsage() throws Exception {
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(keyUsageCa), false, Duration.ofHours(1), 100, CLOCK);
+
+        assertNotNull(engine.validate(List.of(SAN_IDP)));
+        assertThrows(GeneralSecurityException.class, () -> engine.validate(List.of(KEY_AGREEMENT)));
+        assertThrows(GeneralSecurityException.class, () -> engine.validate(List.of(KEY_USAGE_CA)));
+        assertEquals(1, engine.size());
+    }
+
+    /**
+     * Tests that a certificate past its expiry is rejected.
+     */
+    @Test
+    void testValidate_RejectsExpiredCertificate() {
+        Clock later = Clock.fixed(Instant.parse("2127-01-01T00:00:00Z"), ZoneOffset.UTC);
+        PkixTrustEngine engine = new PkixTrustEngine(List.of(ca), false, Duration.ofHours(1), 100, later);
+
+        assertThrows(GeneralSecurityException.class, () -> engine.validate(List.of(IDP)));
+    }
+
+    static X509Certificate certificate(String base64) throws Exception {
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(Base64.getMimeDecoder().decode(base64.strip())));
+    }
+}
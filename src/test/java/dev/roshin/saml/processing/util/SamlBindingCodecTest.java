@@ -0,0 +1,129 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for SamlBindingCodec.
+ */
+class SamlBindingCodecTest {
+
+    private static final byte[] XML = "<saml2:Assertion ID=\"_1\">payload</saml2:Assertion>"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testRoundTrip() throws IOException {
+        for (SamlBinding binding : SamlBinding.values()) {
+            byte[] encoded = encode(XML, binding);
+
+            try (InputStream decoded = SamlBindingCodec.decode(new ByteArrayInputStream(encoded), binding, 1024)) {
+                assertArrayEquals(XML, decoded.readAllBytes(), binding.name());
+            }
+        }
+    }
+
+    @Test
+    void testDecode_MatchesStandardEncodings() throws IOException {
+        String post = Base64.getMimeEncoder().encodeToString(XML);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(deflated, new Deflater(Deflater.BEST_COMPRESSION, true))) {
+            out.write(XML);
+        }
+        String redirect = Base64.getEncoder().encodeToString(deflated.toByteArray());
+
+        assertArrayEquals(XML, SamlBindingCodec.decode(stream(post), SamlBinding.POST, 1024).readAllBytes());
+        assertArrayEquals(XML, SamlBindingCodec.decode(stream(redirect), SamlBinding.REDIRECT, 1024).readAllBytes());
+    }
+
+    @Test
+    void testDecode_SkipsWhitespaceInBase64() throws IOException {
+        String post = Base64.getEncoder().encodeToString(XML).replaceAll("(.{16})", "$1\r\n ");
+
+        assertArrayEquals(XML, SamlBindingCodec.decode(stream(post), SamlBinding.POST, 1024).readAllBytes());
+    }
+
+    @Test
+    void testDecode_RejectsCharactersOutsideBase64() {
+        String post = Base64.getEncoder().encodeToString(XML);
+        String corrupt = post.substring(0, 8) + "*" + post.substring(8);
+
+        assertThrows(IOException.class,
+                () -> SamlBindingCodec.decode(stream(corrupt), SamlBinding.POST, 1024).readAllBytes());
+        assertThrows(IOException.class,
+                () -> SamlBindingCodec.decode(stream(corrupt), SamlBinding.REDIRECT, 1024).readAllBytes());
+    }
+
+    @Test
+    void testDecode_CloseClosesInput() throws IOException {
+        boolean[] closed = {false};
+        InputStream in = new ByteArrayInputStream(encode(XML, SamlBinding.REDIRECT)) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        SamlBindingCodec.decode(in, SamlBinding.REDIRECT, 1024).close();
+
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    void testDecode_StopsCompressionBomb() throws IOException {
+        byte[] bomb = encode(new byte[16 * 1024 * 1024], SamlBinding.REDIRECT);
+        assertTrue(bomb.length < 64 * 1024);
+
+        InputStream decoded = SamlBindingCodec.decode(new ByteArrayInputStream(bomb), SamlBinding.REDIRECT, 64 * 1024);
+
+        IOException exception = assertThrows(IOException.class, decoded::readAllBytes);
+        assertTrue(exception.getMessage().contains("65536"));
+    }
+
+    @Test
+    void testEncode_DoesNotCloseTarget() throws IOException {
+        boolean[] closed = {false};
+        ByteArrayOutputStream target = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        try (OutputStream out = SamlBindingCodec.encode(target, SamlBinding.POST)) {
+            out.write(XML);
+        }
+
+        assertFalse(closed[0]);
+        assertArrayEquals(XML, Base64.getDecoder().decode(target.toByteArray()));
+    }
+
+    @Test
+    void testFromName() {
+        assertEquals(SamlBinding.XML, SamlBinding.fromName(null));
+        assertEquals(SamlBinding.REDIRECT, SamlBinding.fromName(" redirect "));
+        assertThrows(IllegalArgumentException.class, () -> SamlBinding.fromName("artifact"));
+    }
+
+    private static byte[] encode(byte[] xml, SamlBinding binding) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream out = SamlBindingCodec.encode(encoded, binding)) {
+            out.write(xml);
+        }
+        return encoded.toByteArray();
+    }
+
+    private static InputStream stream(String value) {
+        return new ByteArrayInputStream(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
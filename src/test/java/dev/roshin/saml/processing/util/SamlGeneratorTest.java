@@ -9,18 +9,40 @@ import org.opensaml.saml.saml2.core.Assertion;
 import org.opensaml.saml.saml2.core.Attribute;
 import org.opensaml.security.credential.CredentialSupport;
 import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class SamlGeneratorTest {
 
+    private static final Set<String> VARYING_ATTRIBUTES = Set.of("ID", "IssueInstant", "NotBefore", "NotOnOrAfter",
+            "URI");
+
     private static SamlGenerator samlGenerator;
     private static BasicX509Credential signingCredential;
 
@@ -87,4 +109,156 @@ class SamlGeneratorTest {
         assertTrue(marshalledAssertion.contains("testuser@example.com"));
         assertTrue(marshalledAssertion.contains("user"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGenerateAssertionsWithSharedContext() throws Exception {
+        SamlGenerationContext context = SamlGenerationContext.create("test-provider", signingCredential);
+
+        IdentityInfo first = new IdentityInfo();
+        first.setUserId("first");
+        first.setIssuer("https://test-issuer.com");
+        IdentityInfo second = new IdentityInfo();
+        second.setUserId("second");
+        second.setIssuer("https://test-issuer.com");
+
+        Assertion firstAssertion = samlGenerator.generateAssertion(first, context);
+        Assertion secondAssertion = samlGenerator.generateAssertion(second, context);
+
+        assertEquals("first", firstAssertion.getSubject().getNameID().getValue());
+        assertEquals("second", secondAssertion.getSubject().getNameID().getValue());
+        assertNotNull(firstAssertion.getSignature());
+        assertNotNull(secondAssertion.getSignature());
+        assertNotEquals(firstAssertion.getID(), secondAssertion.getID());
+        assertSame(signingCredential, context.getSigningCredential());
+    }
+
+    @Test
+    void testMarshalAssertionToStream() throws Exception {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("streamuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+
+        Assertion assertion = samlGenerator.generateAssertion(identityInfo, signingCredential);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        samlGenerator.marshalAssertion(assertion, out);
+        String streamed = out.toString(StandardCharsets.UTF_8);
+
+        assertEquals(samlGenerator.marshalAssertion(assertion), streamed);
+        assertTrue(streamed.contains("streamuser"));
+        assertTrue(streamed.contains("><saml2:Issuer"), "Compact output should not be indented");
+    }
+
+    @Test
+    void testTemplateAssertionMatchesBuilderAssertion() throws Exception {
+        SamlGenerationContext context = SamlGenerationContext.create("test-provider", signingCredential);
+        SamlParser samlParser = new SamlParser();
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("templateuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+        identityInfo.addAttribute("email", "templateuser@example.com");
+
+        String fromTemplate = samlGenerator.getSerializer().toString(
+                samlGenerator.generateAssertionElement(identityInfo, context));
+        String fromBuilders = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(identityInfo, context));
+
+        IdentityInfo parsedTemplate = samlParser.parseAssertion(fromTemplate, signingCredential);
+        IdentityInfo parsedBuilders = samlParser.parseAssertion(fromBuilders, signingCredential);
+        assertEquals("templateuser", parsedTemplate.getUserId());
+        assertEquals(parsedBuilders.getIssuer(), parsedTemplate.getIssuer());
+        assertEquals(parsedBuilders.getAttributes(), parsedTemplate.getAttributes());
+    }
+
+    @Test
+    void testTemplateAssertionHasBuilderStructure() throws Exception {
+        SamlGenerationContext context = SamlGenerationContext.create("test-provider", signingCredential);
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("templateuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+        identityInfo.addAttribute("email", "templateuser@example.com");
+
+        String fromTemplate = samlGenerator.getSerializer().toString(
+                samlGenerator.generateAssertionElement(identityInfo, context));
+        String fromBuilders = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(identityInfo, context));
+
+        List<String> templateStructure = structure(fromTemplate);
+        assertEquals(structure(fromBuilders), templateStructure);
+        assertTrue(templateStructure.stream().anyMatch(element -> element.startsWith(
+                        "{urn:oasis:names:tc:SAML:2.0:assertion}AttributeValue ")
+                        && element.contains("type={http://www.w3.org/2001/XMLSchema}string")),
+                String.join("\n", templateStructure));
+    }
+
+    /**
+     * Lists every element of an assertion with its attributes, namespace declarations and text, leaving out
+     * the values that differ between any two assertions.
+     */
+    private static List<String> structure(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        List<String> elements = new ArrayList<>();
+        addStructure(document.getDocumentElement(), elements);
+        return elements;
+    }
+
+    private static void addStructure(Element element, List<String> elements) {
+        List<String> attributes = new ArrayList<>();
+        NamedNodeMap map = element.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            Attr attribute = (Attr) map.item(i);
+            String name = attribute.getNamespaceURI() != null && !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(
+                    attribute.getNamespaceURI())
+                    ? "{" + attribute.getNamespaceURI() + "}" + attribute.getLocalName() : attribute.getName();
+            String value = attribute.getValue();
+            if (VARYING_ATTRIBUTES.contains(name)) {
+                value = "*";
+            } else if ("type".equals(attribute.getLocalName())
+                    && XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(attribute.getNamespaceURI())) {
+                String[] type = value.split(":", 2);
+                value = "{" + element.lookupNamespaceURI(type[0]) + "}" + type[1];
+            }
+            attributes.add(name + "=" + value);
+        }
+        Collections.sort(attributes);
+
+        StringBuilder description = new StringBuilder("{" + element.getNamespaceURI() + "}" + element.getLocalName());
+        attributes.forEach(attribute -> description.append(' ').append(attribute));
+        List<Element> children = new ArrayList<>();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) child);
+            }
+        }
+        // Signature and digest values differ between any two assertions
+        if (children.isEmpty() && !SignatureConstants.XMLSIG_NS.equals(element.getNamespaceURI())) {
+            description.append(" text=").append(element.getTextContent());
+        }
+        elements.add(description.toString());
+        children.forEach(child -> addStructure(child, elements));
+    }
+
+    @Test
+    void testTemplateGeneratesConcurrently() throws Exception {
+        SamlGenerationContext context = SamlGenerationContext.create("test-provider", signingCredential);
+        SamlParser samlParser = new SamlParser();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> assertions = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                IdentityInfo identityInfo = new IdentityInfo();
+                identityInfo.setUserId("user-" + i);
+                identityInfo.setIssuer("https://test-issuer.com");
+                assertions.add(pool.submit(() -> samlGenerator.getSerializer().toString(
+                        samlGenerator.generateAssertionElement(identityInfo, context))));
+            }
+
+            for (int i = 0; i < assertions.size(); i++) {
+                assertEquals("user-" + i,
+                        samlParser.parseAssertion(assertions.get(i).get(), signingCredential).getUserId());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.security.x509.BasicX509Credential;
+
+import java.io.File;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that {@link ParseMode#STREAMING} produces the same results as the reference {@link ParseMode#DOM}
+ * mode on a shared corpus of valid and invalid assertions.
+ */
+class SamlParserParseModeTest {
+
+    private static SamlParser domParser;
+    private static SamlParser streamingParser;
+    private static Map<String, String> corpus;
+    private static BasicX509Credential credential;
+
+    @BeforeAll
+    static void setUpAll() throws Exception {
+        URL keystoreUrl = SamlParserParseModeTest.class.getClassLoader().getResource("test-keystore.jks");
+        assertNotNull(keystoreUrl, "Keystore file not found in test resources");
+        credential = KeystoreUtil.init(new File(keystoreUrl.getFile()).getAbsolutePath(), "changeit", "mykeyalias");
+        domParser = new SamlParser();
+        streamingParser = new SamlParser();
+        streamingParser.setParseMode(ParseMode.STREAMING);
+
+        SamlGenerator generator = new SamlGenerator();
+        SamlGenerationContext context = SamlGenerationContext.create("test-provider", credential);
+        IdentityInfo full = identity("fulluser");
+        full.setTrustLevel("3");
+        full.setSessionId("session-1");
+        full.setRequestedApplication("portal");
+        full.setSubjectIp("10.0.0.1");
+        full.addAttribute("email", "fulluser@example.com");
+        full.addAttribute("display_name", "Full <User> & Co");
+        String signed = generator.marshalAssertion(generator.generateAssertion(full, context));
+
+        corpus = new LinkedHashMap<>();
+        corpus.put("builder", signed);
+        corpus.put("template", generator.getSerializer().toString(generator.generateAssertionElement(full, context)));
+        corpus.put("minimal", generator.marshalAssertion(generator.generateAssertion(identity("minimaluser"), context)));
+        corpus.put("tampered", signed.replace("fulluser@example.com", "attacker@example.com"));
+        corpus.put("unsigned", signed.replaceAll("(?s)<ds:Signature.*</ds:Signature>", ""));
+        corpus.put("doctype", "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>");
+        corpus.put("not-an-assertion", "<saml2:Issuer xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\">x</saml2:Issuer>");
+        corpus.put("truncated", signed.substring(0, signed.length() / 2));
+    }
+
+    @Test
+    void streamingModeMatchesDomMode() {
+        for (Map.Entry<String, String> sample : corpus.entrySet()) {
+            Object expected = parse(domParser, sample.getValue());
+            Object actual = parse(streamingParser, sample.getValue());
+            assertEquals(expected, actual, "Parse modes disagree on " + sample.getKey());
+        }
+    }
+
+    @Test
+    void streamingModeParsesValidAssertions() throws Exception {
+        IdentityInfo identityInfo = streamingParser.parseAssertion(corpus.get("builder"), credential);
+
+        assertEquals("fulluser", identityInfo.getUserId());
+        assertEquals("3", identityInfo.getTrustLevel());
+        assertEquals("Full <User> & Co", identityInfo.getAttribute("display_name"));
+    }
+
+    @Test
+    void streamingModeRejectsUnexpectedElements() {
+        String withAdvice = corpus.get("builder").replace("<saml2:AttributeStatement>",
+                "<saml2:Advice/><saml2:AttributeStatement>");
+
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> streamingParser.parseAssertion(withAdvice, credential));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.MALFORMED_ASSERTION, exception.getErrorCode());
+    }
+
+    /**
+     * Returns the attributes and authorizations of the parsed identity, or the error code if parsing failed.
+     */
+    private static Object parse(SamlParser parser, String assertion) {
+        try {
+            IdentityInfo identityInfo = parser.parseAssertion(assertion, credential);
+            return Map.of("attributes", identityInfo.getAttributes(),
+                    "authorizations", identityInfo.getAuthorizations());
+        } catch (SamlParser.SamlParserException e) {
+            return e.getErrorCode();
+        }
+    }
+
+    private static IdentityInfo identity(String userId) {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId(userId);
+        identityInfo.setIssuer("https://test-issuer.com");
+        return identityInfo;
+    }
+}
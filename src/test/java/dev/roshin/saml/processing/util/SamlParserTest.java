@@ -1,30 +1,368 @@
 package dev.roshin.saml.processing.util;
 
+import dev.roshin.saml.processing.domain.IdentityInfo;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.encryption.Encrypter;
 import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
+import org.opensaml.xmlsec.encryption.support.EncryptionConstants;
+import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 
 class SamlParserTest {
 
     private static SamlParser samlParser;
+    private static SamlGenerator samlGenerator;
     private static BasicX509Credential credential;
 
+    @BeforeAll
+    static void setUpAll() throws Exception {
+        URL keystoreUrl = SamlParserTest.class.getClassLoader().getResource("test-keystore.jks");
+        assertNotNull(keystoreUrl, "Keystore file not found in test resources");
+        credential = KeystoreUtil.init(new File(keystoreUrl.getFile()).getAbsolutePath(), "changeit", "mykeyalias");
+        samlGenerator = new SamlGenerator();
+        samlParser = new SamlParser();
+    }
 
     @BeforeEach
     void setUp() {
+        samlParser.setVerifiedAssertionCache(null);
+        samlParser.setReplayCache(null);
     }
 
     @AfterEach
     void tearDown() {
+        samlParser.setVerifiedAssertionCache(null);
+        samlParser.setReplayCache(null);
+        samlParser.setMetrics(null);
+        samlParser.setParseMode(ParseMode.DOM);
+        samlParser.setTrustEngine(null);
+        samlParser.setTrustedSubjects(providerId -> null);
+    }
+
+    @Test
+    void parseAssertion() throws Exception {
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        IdentityInfo identityInfo = samlParser.parseAssertion(xml, credential);
+
+        assertEquals("testuser", identityInfo.getUserId());
+        assertEquals("testuser@example.com", identityInfo.getAttribute("email"));
+    }
+
+    @Test
+    void parseAssertion_ReturnsMutableAuthorizations() throws Exception {
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        for (ParseMode mode : ParseMode.values()) {
+            samlParser.setParseMode(mode);
+            IdentityInfo identityInfo = samlParser.parseAssertion(xml, credential);
+
+            identityInfo.getAuthorizations().values().forEach(authorizations -> authorizations.forEach(
+                    authorization -> assertDoesNotThrow(() -> authorization.setAction("write"), mode.name())));
+        }
     }
 
     @Test
-    void parseAssertion() {
+    void parseAssertion_RejectsTamperedAssertion() throws Exception {
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+        String tampered = xml.replace("testuser@example.com", "attacker@example.com");
+
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(tampered, credential));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.INVALID_SIGNATURE, exception.getErrorCode());
     }
 
     @Test
-    void validateAssertion() {
+    void parseAssertion_RejectsDoctype() {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>";
+
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(xml, credential));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.MALFORMED_ASSERTION, exception.getErrorCode());
+    }
+
+    @Test
+    void parseAssertion_UsesVerifiedAssertionCache() throws Exception {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(100, 1024 * 1024);
+        samlParser.setVerifiedAssertionCache(cache);
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        IdentityInfo first = samlParser.parseAssertion(xml, credential);
+        IdentityInfo second = samlParser.parseAssertion(xml, credential);
+
+        assertEquals(1, cache.size());
+        assertNotSame(first, second);
+        assertEquals(first.getAttributes(), second.getAttributes());
+    }
+
+    @Test
+    void parseAssertion_RejectsReplay() throws Exception {
+        samlParser.setReplayCache(new AssertionReplayCache(16, Duration.ofMinutes(5)));
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        samlParser.parseAssertion(xml, credential);
+
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(xml, credential));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.REPLAYED, exception.getErrorCode());
+    }
+
+    @Test
+    void parseAssertion_DoesNotRecordRejectedAssertion() throws Exception {
+        samlParser.setReplayCache(new AssertionReplayCache(16, Duration.ofMinutes(5)));
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+        String tampered = xml.replace("testuser@example.com", "attacker@example.com");
+
+        assertThrows(SamlParser.SamlParserException.class, () -> samlParser.parseAssertion(tampered, credential));
+
+        assertEquals("testuser", samlParser.parseAssertion(xml, credential).getUserId());
+    }
+
+    @Test
+    void parseAssertion_BypassesVerifiedAssertionCacheWithReplayDetection() throws Exception {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(100, 1024 * 1024);
+        samlParser.setVerifiedAssertionCache(cache);
+        samlParser.setReplayCache(new AssertionReplayCache(16, Duration.ofMinutes(5)));
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        samlParser.parseAssertion(xml, credential);
+
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(xml, credential));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.REPLAYED, exception.getErrorCode());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void parseAssertion_ReportsStageTimings() throws Exception {
+        List<StageTimings> recorded = new ArrayList<>();
+        List<String> outcomes = new ArrayList<>();
+        samlParser.setMetrics((timings, outcome) -> {
+            recorded.add(timings);
+            outcomes.add(outcome);
+        });
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        samlParser.parseAssertion(xml, credential, "test-provider");
+        assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(xml.replace("testuser@example.com", "x"), credential, "test-provider"));
+
+        assertEquals(List.of(SamlMetrics.SUCCESS, "invalid_signature"), outcomes);
+        StageTimings timings = recorded.get(0);
+        assertEquals(StageTimings.PARSE, timings.getOperation());
+        assertEquals("test-provider", timings.getProviderId());
+        List<String> stages = new ArrayList<>();
+        for (int i = 0; i < timings.size(); i++) {
+            stages.add(timings.getStage(i));
+        }
+        assertEquals(List.of("parse", "unmarshal", "signature", "conditions", "extract", "replay"), stages);
+    }
+
+    @Test
+    void parseAssertion_FromBytesBufferAndStream() throws Exception {
+        byte[] xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential))
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] padded = new byte[xml.length + 8];
+        System.arraycopy(xml, 0, padded, 4, xml.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(xml.length).put(xml).flip();
+
+        assertEquals("testuser", samlParser.parseAssertion(xml, credential, null).getUserId());
+        ByteBuffer slice = ByteBuffer.wrap(padded, 4, xml.length);
+        assertEquals("testuser", samlParser.parseAssertion(slice, credential, null).getUserId());
+        assertEquals(4 + xml.length, slice.position());
+        assertEquals("testuser", samlParser.parseAssertion(direct, credential, null).getUserId());
+        assertEquals("testuser",
+                samlParser.parseAssertion(new ByteArrayInputStream(xml), credential, null).getUserId());
+    }
+
+    @Test
+    void parseAssertion_RejectsOversizedStream() {
+        samlParser.setMaxAssertionSize(16);
+        try {
+            SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                    () -> samlParser.parseAssertion(new ByteArrayInputStream(new byte[17]), credential, null));
+            assertEquals(SamlParser.SamlParserException.ErrorCode.MALFORMED_ASSERTION, exception.getErrorCode());
+        } finally {
+            samlParser.setMaxAssertionSize(SamlParser.DEFAULT_MAX_ASSERTION_SIZE);
+        }
+    }
+
+    @Test
+    void parseAssertion_DecryptsEncryptedAssertion() throws Exception {
+        String xml = encrypt(samlGenerator.generateAssertion(sampleIdentity(), credential));
+        SamlDecryptionContext decryption = SamlDecryptionContext.create("test-provider", credential);
+        List<StageTimings> recorded = new ArrayList<>();
+        samlParser.setMetrics((timings, outcome) -> recorded.add(timings));
+
+        IdentityInfo identityInfo = samlParser.parseAssertion(xml, credential, decryption, "test-provider");
+
+        assertEquals("testuser", identityInfo.getUserId());
+        assertEquals("testuser@example.com", identityInfo.getAttribute("email"));
+        List<String> stages = new ArrayList<>();
+        for (int i = 0; i < recorded.get(0).size(); i++) {
+            stages.add(recorded.get(0).getStage(i));
+        }
+        assertEquals(List.of("parse", "unmarshal", "decrypt", "signature", "conditions", "extract", "replay"), stages);
+    }
+
+    @Test
+    void parseAssertion_RejectsEncryptedAssertionWithoutDecryptionKey() throws Exception {
+        String xml = encrypt(samlGenerator.generateAssertion(sampleIdentity(), credential));
+
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(xml, credential));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.DECRYPTION_FAILED, exception.getErrorCode());
+    }
+
+    @Test
+    void parseAssertion_VerifiesKeyInfoCertificateWithTrustEngine() throws Exception {
+        samlParser.setTrustEngine(trustEngine(credential.getEntityCertificate()));
+        samlParser.setTrustedSubjects(providerId -> "test-provider".equals(providerId) ? signerSubject() : null);
+        String xml = signedWithKeyInfo();
+
+        for (ParseMode mode : ParseMode.values()) {
+            samlParser.setParseMode(mode);
+            assertEquals("testuser", samlParser.parseAssertion(xml, null, "test-provider").getUserId(), mode.name());
+        }
+    }
+
+    @Test
+    void parseAssertion_RejectsKeyInfoCertificateOfOtherSubject() throws Exception {
+        samlParser.setTrustEngine(trustEngine(credential.getEntityCertificate()));
+        samlParser.setTrustedSubjects(providerId -> Pattern.compile("CN=Other IdP"));
+        String xml = signedWithKeyInfo();
+
+        assertUntrusted(xml, "test-provider");
+    }
+
+    @Test
+    void parseAssertion_RejectsKeyInfoCertificateWithoutPathToAnchor() throws Exception {
+        samlParser.setTrustEngine(trustEngine(PkixTrustEngineTest.certificate(PkixTrustEngineTest.OTHER_CA)));
+        samlParser.setTrustedSubjects(providerId -> signerSubject());
+        String xml = signedWithKeyInfo();
+
+        assertUntrusted(xml, "test-provider");
+    }
+
+    @Test
+    void parseAssertion_RejectsKeyInfoCertificateOfProviderWithoutTrustedSubject() throws Exception {
+        // Like a metadata entity without a signing certificate: an anchored certificate alone is not enough
+        samlParser.setTrustEngine(trustEngine(credential.getEntityCertificate()));
+        String xml = signedWithKeyInfo();
+
+        assertUntrusted(xml, "metadata");
+        assertUntrusted(xml, null);
+    }
+
+    @Test
+    void parseAssertion_DoesNotShareTrustedResultsBetweenProviders() throws Exception {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(100, 1024 * 1024);
+        samlParser.setVerifiedAssertionCache(cache);
+        samlParser.setTrustEngine(trustEngine(credential.getEntityCertificate()));
+        samlParser.setTrustedSubjects(
+                providerId -> "provider-a".equals(providerId) ? signerSubject() : Pattern.compile("CN=Other IdP"));
+        String xml = signedWithKeyInfo();
+
+        samlParser.parseAssertion(xml, null, "provider-a");
+
+        assertUntrusted(xml, "provider-b");
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void readIssuer() throws Exception {
+        byte[] xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential))
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("https://test-issuer.com", SamlParser.readIssuer(xml));
+        assertNull(SamlParser.readIssuer("<a/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void readIssuer_RejectsSecondIssuer() throws Exception {
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+        String adjacent = xml.replace("</saml2:Issuer>",
+                "</saml2:Issuer><saml2:Issuer>https://victim.example.com</saml2:Issuer>");
+        String trailing = xml.replace("</saml2:Assertion>",
+                "<saml2:Issuer>https://victim.example.com</saml2:Issuer></saml2:Assertion>");
+
+        for (String duplicate : List.of(adjacent, trailing)) {
+            SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                    () -> SamlParser.readIssuer(duplicate.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(SamlParser.SamlParserException.ErrorCode.MALFORMED_ASSERTION, exception.getErrorCode());
+        }
+    }
+
+    @Test
+    void validateAssertion() throws Exception {
+        Assertion assertion = samlGenerator.generateAssertion(sampleIdentity(), credential);
+
+        assertDoesNotThrow(() -> samlParser.validateAssertion(assertion, credential));
+    }
+
+    private static void assertUntrusted(String xml, String providerId) {
+        SamlParser.SamlParserException exception = assertThrows(SamlParser.SamlParserException.class,
+                () -> samlParser.parseAssertion(xml, null, providerId));
+        assertEquals(SamlParser.SamlParserException.ErrorCode.UNTRUSTED_CERTIFICATE, exception.getErrorCode());
+    }
+
+    private static PkixTrustEngine trustEngine(X509Certificate anchor) {
+        return new PkixTrustEngine(List.of(anchor), false, Duration.ofHours(1), 100);
+    }
+
+    private static Pattern signerSubject() {
+        return Pattern.compile(Pattern.quote(credential.getEntityCertificate().getSubjectX500Principal().getName()));
+    }
+
+    /**
+     * Generates a signed assertion that carries the signing certificate as KeyInfo. The enveloped signature
+     * does not cover its own KeyInfo, so adding it after signing keeps the signature valid.
+     */
+    private static String signedWithKeyInfo() throws Exception {
+        String xml = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(sampleIdentity(), credential));
+        String certificate = Base64.getEncoder().encodeToString(credential.getEntityCertificate().getEncoded());
+        return xml.replace("</ds:SignatureValue>", "</ds:SignatureValue><ds:KeyInfo><ds:X509Data>"
+                + "<ds:X509Certificate>" + certificate + "</ds:X509Certificate></ds:X509Data></ds:KeyInfo>");
+    }
+
+    private static String encrypt(Assertion assertion) throws Exception {
+        DataEncryptionParameters dataParameters = new DataEncryptionParameters();
+        dataParameters.setAlgorithm(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128_GCM);
+        KeyEncryptionParameters keyParameters = new KeyEncryptionParameters();
+        keyParameters.setEncryptionCredential(credential);
+        keyParameters.setAlgorithm(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP);
+        Encrypter encrypter = new Encrypter(dataParameters, keyParameters);
+        encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+        EncryptedAssertion encrypted = encrypter.encrypt(assertion);
+        return samlGenerator.getSerializer().toString(XMLObjectSupport.marshall(encrypted));
+    }
+
+    private static IdentityInfo sampleIdentity() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+        identityInfo.addAttribute("email", "testuser@example.com");
+        return identityInfo;
     }
-}
\ No newline at end of file
+}
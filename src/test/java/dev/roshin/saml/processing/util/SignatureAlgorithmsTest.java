@@ -0,0 +1,88 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import java.io.File;
+import java.net.URL;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for SignatureAlgorithms and signing with EC and Ed25519 keys.
+ */
+class SignatureAlgorithmsTest {
+
+    private static SamlGenerator samlGenerator;
+
+    @BeforeAll
+    static void setUpAll() throws Exception {
+        samlGenerator = new SamlGenerator();
+    }
+
+    @Test
+    void testSignatureAlgorithm_FollowsKeyType() throws Exception {
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureAlgorithms.signatureAlgorithm(null, privateKey("RSA")));
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256,
+                SignatureAlgorithms.signatureAlgorithm(null, privateKey("EC")));
+        assertEquals(SignatureAlgorithms.ALGO_ID_SIGNATURE_ED25519,
+                SignatureAlgorithms.signatureAlgorithm(null, privateKey("Ed25519")));
+    }
+
+    @Test
+    void testSignatureAlgorithm_ResolvesShortNamesAndRejectsMismatches() throws Exception {
+        PrivateKey rsaKey = privateKey("RSA");
+
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512,
+                SignatureAlgorithms.signatureAlgorithm("RSA-SHA512", rsaKey));
+        assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA384,
+                SignatureAlgorithms.signatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA384, rsaKey));
+        assertThrows(IllegalArgumentException.class, () -> SignatureAlgorithms.signatureAlgorithm("ecdsa-sha256", rsaKey));
+        assertThrows(IllegalArgumentException.class, () -> SignatureAlgorithms.signatureAlgorithm("rsa-md5", rsaKey));
+        assertEquals(SignatureConstants.ALGO_ID_DIGEST_SHA512, SignatureAlgorithms.digestAlgorithm("sha512"));
+    }
+
+    @Test
+    void testRoundTrip_EcP256() throws Exception {
+        assertRoundTrip("test-keystore-ec.p12", "ecdsa-sha256");
+    }
+
+    @Test
+    void testRoundTrip_Ed25519() throws Exception {
+        assertRoundTrip("test-keystore-ed25519.jks", "eddsa-ed25519");
+    }
+
+    private static void assertRoundTrip(String keystore, String expectedAlgorithm) throws Exception {
+        URL keystoreUrl = SignatureAlgorithmsTest.class.getClassLoader().getResource(keystore);
+        assertNotNull(keystoreUrl, "Keystore file not found in test resources");
+        BasicX509Credential credential = KeystoreUtil.init(new File(keystoreUrl.getFile()).getAbsolutePath(),
+                "changeit", "mykeyalias");
+        SamlGenerationContext context = SamlGenerationContext.create("test-provider", credential);
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+
+        String fromBuilders = samlGenerator.marshalAssertion(samlGenerator.generateAssertion(identityInfo, context));
+        String fromTemplate = samlGenerator.getSerializer().toString(
+                samlGenerator.generateAssertionElement(identityInfo, context));
+        assertTrue(fromBuilders.contains(expectedAlgorithm));
+        assertTrue(fromTemplate.contains(expectedAlgorithm));
+
+        for (ParseMode mode : ParseMode.values()) {
+            SamlParser samlParser = new SamlParser();
+            samlParser.setParseMode(mode);
+            assertEquals("testuser", samlParser.parseAssertion(fromBuilders, credential).getUserId());
+            assertEquals("testuser", samlParser.parseAssertion(fromTemplate, credential).getUserId());
+        }
+    }
+
+    private static PrivateKey privateKey(String algorithm) throws Exception {
+        return KeyPairGenerator.getInstance(algorithm).generateKeyPair().getPrivate();
+    }
+}
@@ -0,0 +1,41 @@
+package dev.roshin.saml.processing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for StageTimings.
+ */
+class StageTimingsTest {
+
+    @Test
+    void testResume_SkipsIdleTime() throws Exception {
+        StageTimings timings = new StageTimings(StageTimings.GENERATE, "test-provider");
+        timings.lap("build");
+        long afterBuild = timings.totalNanos();
+
+        Thread.sleep(50);
+        timings.resume();
+        timings.lap("serialize");
+
+        assertEquals(2, timings.size());
+        assertEquals("serialize", timings.getStage(1));
+        assertTrue(timings.getNanos(1) < TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(timings.totalNanos() - afterBuild < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void testLap_CountsTimeSincePreviousLap() throws Exception {
+        StageTimings timings = new StageTimings(StageTimings.PARSE, null);
+        timings.lap("parse");
+
+        Thread.sleep(20);
+        timings.lap("signature");
+
+        assertTrue(timings.getNanos(1) >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(timings.getNanos(0) + timings.getNanos(1), timings.totalNanos());
+    }
+}
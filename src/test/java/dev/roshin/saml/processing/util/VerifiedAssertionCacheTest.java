@@ -0,0 +1,113 @@
+package dev.roshin.saml.processing.util;
+
+import dev.roshin.saml.processing.domain.IdentityInfo;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for VerifiedAssertionCache.
+ */
+class VerifiedAssertionCacheTest {
+
+    private final Instant now = Instant.parse("2024-01-01T00:00:00Z");
+    private final VerifiedAssertionCache keys = new VerifiedAssertionCache(1, 1);
+
+    @Test
+    void testGet_ExpiresAtNotOnOrAfter() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(16, 1024 * 1024);
+        VerifiedAssertionCache.Key key = key("assertion-1");
+        cache.put(key, "_id-1", now, now.plusSeconds(300), identity(), now);
+
+        assertEquals("_id-1", cache.get(key, now.plusSeconds(299)).getAssertionId());
+        assertNull(cache.get(key, now.plusSeconds(300)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    void testPut_ReplacesEntryOfSameKey() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(16, 1024 * 1024);
+        VerifiedAssertionCache.Key key = key("assertion-1");
+        cache.put(key, "_id-1", now, now.plusSeconds(300), identity(), now);
+        long weight = cache.weight();
+
+        cache.put(key, "_id-1", now, now.plusSeconds(600), identity(), now.plusSeconds(10));
+
+        assertEquals(1, cache.size());
+        assertEquals(weight, cache.weight());
+        assertNotNull(cache.get(key, now.plusSeconds(400)));
+    }
+
+    @Test
+    void testPut_SweepsExpiredEntries() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(16, 1024 * 1024);
+        cache.put(key("assertion-1"), "_id-1", now, now.plusSeconds(60), identity(), now);
+        cache.put(key("assertion-2"), "_id-2", now, now.plusSeconds(300), identity(), now);
+
+        cache.put(key("assertion-3"), "_id-3", now, now.plusSeconds(300), identity(), now.plusSeconds(60));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(key("assertion-1"), now));
+        assertNotNull(cache.get(key("assertion-2"), now.plusSeconds(60)));
+    }
+
+    @Test
+    void testPut_EvictsEntriesThatExpireFirst() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(2, 1024 * 1024);
+        cache.put(key("assertion-1"), "_id-1", now, now.plusSeconds(300), identity(), now);
+        cache.put(key("assertion-2"), "_id-2", now, now.plusSeconds(100), identity(), now);
+        cache.put(key("assertion-3"), "_id-3", now, now.plusSeconds(200), identity(), now);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(key("assertion-1"), now));
+        assertNull(cache.get(key("assertion-2"), now));
+        assertNotNull(cache.get(key("assertion-3"), now));
+    }
+
+    @Test
+    void testPut_StaysWithinWeight() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(1000, 4096);
+        for (int i = 0; i < 100; i++) {
+            cache.put(key("assertion-" + i), "_id-" + i, now, now.plusSeconds(300 + i), identity(), now);
+            assertTrue(cache.weight() <= 4096);
+        }
+
+        assertTrue(cache.size() > 0);
+        assertNotNull(cache.get(key("assertion-99"), now));
+    }
+
+    @Test
+    void testGet_SeparatesProviders() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(16, 1024 * 1024);
+        byte[] assertion = "assertion-1".getBytes(StandardCharsets.UTF_8);
+        cache.put(keys.key(assertion, null, "provider-a"), "_id-1", now, now.plusSeconds(300), identity(), now);
+
+        assertNotNull(cache.get(keys.key(assertion, null, "provider-a"), now));
+        assertNull(cache.get(keys.key(assertion, null, "provider-b"), now));
+        assertNull(cache.get(keys.key(assertion, null, null), now));
+    }
+
+    @Test
+    void testPut_IgnoresExpiredAssertion() {
+        VerifiedAssertionCache cache = new VerifiedAssertionCache(16, 1024 * 1024);
+        cache.put(key("assertion-1"), "_id-1", now.minusSeconds(300), now, identity(), now);
+
+        assertEquals(0, cache.size());
+    }
+
+    private VerifiedAssertionCache.Key key(String assertion) {
+        return keys.key(assertion.getBytes(StandardCharsets.UTF_8), null, "test-provider");
+    }
+
+    private static IdentityInfo identity() {
+        IdentityInfo identityInfo = new IdentityInfo();
+        identityInfo.setUserId("testuser");
+        identityInfo.setIssuer("https://test-issuer.com");
+        identityInfo.addAttribute("email", "testuser@example.com");
+        return identityInfo;
+    }
+}